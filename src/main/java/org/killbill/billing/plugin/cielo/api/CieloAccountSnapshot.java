@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.api;
+
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.account.api.Account;
+
+/**
+ * The fields of a Kill Bill account which end up in the Cielo requests, copied so that they can be kept across calls.
+ */
+public class CieloAccountSnapshot {
+
+    private final UUID id;
+    private final String externalKey;
+    private final String name;
+    private final Integer firstNameLength;
+    private final String email;
+    private final String locale;
+    private final String address1;
+    private final String address2;
+    private final String city;
+    private final String stateOrProvince;
+    private final String postalCode;
+    private final String country;
+
+    public CieloAccountSnapshot(final UUID id,
+                                @Nullable final String externalKey,
+                                @Nullable final String name,
+                                @Nullable final Integer firstNameLength,
+                                @Nullable final String email,
+                                @Nullable final String locale,
+                                @Nullable final String address1,
+                                @Nullable final String address2,
+                                @Nullable final String city,
+                                @Nullable final String stateOrProvince,
+                                @Nullable final String postalCode,
+                                @Nullable final String country) {
+        this.id = id;
+        this.externalKey = externalKey;
+        this.name = name;
+        this.firstNameLength = firstNameLength;
+        this.email = email;
+        this.locale = locale;
+        this.address1 = address1;
+        this.address2 = address2;
+        this.city = city;
+        this.stateOrProvince = stateOrProvince;
+        this.postalCode = postalCode;
+        this.country = country;
+    }
+
+    public static CieloAccountSnapshot of(final Account account) {
+        return new CieloAccountSnapshot(account.getId(),
+                                        account.getExternalKey(),
+                                        account.getName(),
+                                        account.getFirstNameLength(),
+                                        account.getEmail(),
+                                        account.getLocale(),
+                                        account.getAddress1(),
+                                        account.getAddress2(),
+                                        account.getCity(),
+                                        account.getStateOrProvince(),
+                                        account.getPostalCode(),
+                                        account.getCountry());
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public String getExternalKey() {
+        return externalKey;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Integer getFirstNameLength() {
+        return firstNameLength;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getLocale() {
+        return locale;
+    }
+
+    public String getAddress1() {
+        return address1;
+    }
+
+    public String getAddress2() {
+        return address2;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public String getStateOrProvince() {
+        return stateOrProvince;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    @Override
+    public String toString() {
+        return "CieloAccountSnapshot{id=" + id + ", externalKey='" + externalKey + "'}";
+    }
+}
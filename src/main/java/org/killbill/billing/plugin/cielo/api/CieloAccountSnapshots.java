@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.account.api.Account;
+import org.killbill.billing.account.api.AccountApiException;
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Snapshots of the Kill Bill accounts, per tenant, so that recurring payments do not load an unchanged account each time.
+ * <p>
+ * Entries are invalidated by {@link org.killbill.billing.plugin.cielo.core.CieloListener} when the account changes; the
+ * expiration only bounds how long a missed event can go unnoticed.
+ */
+public class CieloAccountSnapshots {
+
+    private final OSGIKillbillAPI killbillAPI;
+    private final Cache<Key, CieloAccountSnapshot> snapshots;
+    // Bumped on each invalidation, so that a load racing with it does not put back the previous state of the account
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CieloAccountSnapshots(final OSGIKillbillAPI killbillAPI, final long maximumSize, final long expiration) {
+        this.killbillAPI = killbillAPI;
+        this.snapshots = CacheBuilder.newBuilder()
+                                     .maximumSize(maximumSize)
+                                     .expireAfterWrite(expiration, TimeUnit.MILLISECONDS)
+                                     .recordStats()
+                                     .build();
+    }
+
+    public CieloAccountSnapshot get(final UUID kbAccountId, final TenantContext context) throws AccountApiException {
+        final Key key = new Key(context.getTenantId(), kbAccountId);
+        final CieloAccountSnapshot cachedSnapshot = snapshots.getIfPresent(key);
+        if (cachedSnapshot != null) {
+            return cachedSnapshot;
+        }
+
+        final long invalidationsBefore = invalidations.get();
+        final Account account = killbillAPI.getAccountUserApi().getAccountById(kbAccountId, context);
+        final CieloAccountSnapshot snapshot = CieloAccountSnapshot.of(account);
+        if (invalidations.get() == invalidationsBefore) {
+            snapshots.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    public void invalidate(final UUID kbTenantId, final UUID kbAccountId) {
+        invalidations.incrementAndGet();
+        snapshots.invalidate(new Key(kbTenantId, kbAccountId));
+    }
+
+    public Map<String, Object> getStatistics() {
+        final CacheStats stats = snapshots.stats();
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("size", snapshots.size());
+        statistics.put("hits", stats.hitCount());
+        statistics.put("misses", stats.missCount());
+        statistics.put("hitRate", stats.hitRate());
+        statistics.put("evictions", stats.evictionCount());
+        statistics.put("invalidations", invalidations.get());
+        return statistics;
+    }
+
+    private static final class Key {
+
+        // Null for the default tenant
+        private final UUID kbTenantId;
+        private final UUID kbAccountId;
+
+        private Key(final UUID kbTenantId, final UUID kbAccountId) {
+            this.kbTenantId = kbTenantId;
+            this.kbAccountId = kbAccountId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return Objects.equal(kbTenantId, other.kbTenantId) && kbAccountId.equals(other.kbAccountId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(kbTenantId, kbAccountId);
+        }
+    }
+}
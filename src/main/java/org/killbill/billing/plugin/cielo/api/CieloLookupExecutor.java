@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloLatencyRecorder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+/**
+ * Runs the Kill Bill and database lookups preceding a Cielo call on the lookup threads, so that the independent ones
+ * overlap, and keeps the latency of each kind of lookup.
+ */
+public class CieloLookupExecutor {
+
+    private static final int WINDOW_SIZE = 1000;
+
+    private final ListeningExecutorService executor;
+    private final ConcurrentMap<String, CieloLatencyRecorder> latencies = new ConcurrentHashMap<String, CieloLatencyRecorder>();
+
+    public CieloLookupExecutor(final ListeningExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param lookup name under which the latency is recorded
+     */
+    public <T> ListenableFuture<T> submit(final String lookup, final Callable<T> callable) {
+        final CieloLatencyRecorder recorder = getRecorder(lookup);
+        return executor.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final long startedAt = System.nanoTime();
+                try {
+                    return callable.call();
+                } finally {
+                    recorder.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                }
+            }
+        });
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        for (final Map.Entry<String, CieloLatencyRecorder> entry : new TreeMap<String, CieloLatencyRecorder>(latencies).entrySet()) {
+            final Map<String, Object> lookupStatistics = new LinkedHashMap<String, Object>();
+            lookupStatistics.put("samples", entry.getValue().getSampleCount());
+            lookupStatistics.put("p50Millis", entry.getValue().getPercentile(50));
+            lookupStatistics.put("p99Millis", entry.getValue().getPercentile(99));
+            statistics.put(entry.getKey(), lookupStatistics);
+        }
+        return statistics;
+    }
+
+    private CieloLatencyRecorder getRecorder(final String lookup) {
+        final CieloLatencyRecorder recorder = latencies.get(lookup);
+        if (recorder != null) {
+            return recorder;
+        }
+        final CieloLatencyRecorder newRecorder = new CieloLatencyRecorder(WINDOW_SIZE);
+        final CieloLatencyRecorder existingRecorder = latencies.putIfAbsent(lookup, newRecorder);
+        return existingRecorder != null ? existingRecorder : newRecorder;
+    }
+}
@@ -19,13 +19,11 @@ package org.killbill.billing.plugin.cielo.api;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.joda.time.DateTime;
-import org.killbill.billing.account.api.Account;
-import org.killbill.billing.account.api.AccountData;
+import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.osgi.libs.killbill.OSGIConfigPropertiesService;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
@@ -38,7 +36,9 @@ import org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi;
 import org.killbill.billing.plugin.cielo.api.mapping.PaymentInfoMappingService;
 import org.killbill.billing.plugin.cielo.client.CieloClient;
 import org.killbill.billing.plugin.cielo.client.model.*;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
 import org.killbill.billing.plugin.cielo.core.CieloConfigurationHandler;
+import org.killbill.billing.plugin.cielo.core.CieloPaymentStatusRefresher;
 import org.killbill.billing.plugin.cielo.core.CieloTransactionStateHandler;
 import org.killbill.billing.plugin.cielo.dao.CieloDao;
 import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord;
@@ -55,6 +55,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.killbill.billing.plugin.cielo.api.mapping.UserDataMappingService.toUserData;
 
@@ -79,46 +83,80 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
 
     private final CieloDao dao;
     private final CieloTransactionStateHandler cieloTransactionStateHandler;
+    private final CieloLookupExecutor lookups;
+    private final CieloTransactionExternalKeys transactionExternalKeys;
+    private final CieloAccountSnapshots accountSnapshots;
+    private final CieloPaymentStatusRefresher statusRefresher;
 
     public CieloPaymentPluginApi(final CieloConfigurationHandler cieloConfigurationHandler,
                                  final OSGIKillbillAPI killbillAPI,
                                  final OSGIConfigPropertiesService osgiConfigPropertiesService,
                                  final OSGIKillbillLogService logService,
                                  final Clock clock,
-                                 final CieloDao dao) {
+                                 final CieloDao dao,
+                                 final CieloAccountSnapshots accountSnapshots,
+                                 final CieloPaymentStatusRefresher statusRefresher,
+                                 final CieloLookupExecutor lookups) {
         super(killbillAPI, osgiConfigPropertiesService, logService, clock, dao);
         this.cieloConfigurationHandler = cieloConfigurationHandler;
         this.logService = logService;
         this.dao = dao;
         this.cieloTransactionStateHandler = new CieloTransactionStateHandler(killbillAPI, dao, clock);
+        this.lookups = lookups;
+        this.transactionExternalKeys = new CieloTransactionExternalKeys(killbillAPI, lookups);
+        this.accountSnapshots = accountSnapshots;
+        this.statusRefresher = statusRefresher;
     }
 
     @Override
     public List<PaymentTransactionInfoPlugin> getPaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
-        List<PaymentTransactionInfoPlugin> paymentTransactions = super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
-
         final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(context.getTenantId());
+        final CieloDeadline deadline = cieloClient.newDeadline();
+
+        final List<PaymentTransactionInfoPlugin> paymentTransactions = super.getPaymentInfo(kbAccountId, kbPaymentId, properties, context);
 
         CieloResponsesRecord cieloResponsesRecord = null;
         try {
-            cieloResponsesRecord = dao.getResponse(kbPaymentId, context.getTenantId());
+            cieloResponsesRecord = dao.getResponse(kbPaymentId, context.getTenantId(), deadline);
         }
         catch (final SQLException e) {
             logService.log(LogService.LOG_WARNING, "Failed to retrieve payment response from payment " + kbPaymentId, e);
         }
 
         if (null != cieloResponsesRecord && null != cieloResponsesRecord.getCieloPaymentId()) {
-            TransactionType transactionType = TransactionType.valueOf(cieloResponsesRecord.getTransactionType());
-            PaymentModificationResponse response = cieloClient.getPaymentInfo(cieloResponsesRecord.getCieloPaymentId(), transactionType);
+            final CieloResponsesRecord latestResponse = cieloResponsesRecord;
+            final Runnable backgroundQuery = new Runnable() {
+                @Override
+                public void run() {
+                    refreshPaymentInfo(cieloClient, kbAccountId, kbPaymentId, paymentTransactions, latestResponse, cieloClient.newDeadline(), context);
+                }
+            };
+            if (statusRefresher.shouldQueryNow(kbPaymentId, latestResponse.getCieloStatus(), TransactionType.valueOf(latestResponse.getTransactionType()), backgroundQuery)) {
+                refreshPaymentInfo(cieloClient, kbAccountId, kbPaymentId, paymentTransactions, latestResponse, deadline, context);
+            }
+        }
+        
+        return paymentTransactions;
+    }
 
+    private void refreshPaymentInfo(final CieloClient cieloClient,
+                                    final UUID kbAccountId,
+                                    final UUID kbPaymentId,
+                                    final List<PaymentTransactionInfoPlugin> paymentTransactions,
+                                    final CieloResponsesRecord cieloResponsesRecord,
+                                    final CieloDeadline deadline,
+                                    final TenantContext context) {
+        TransactionType transactionType = TransactionType.valueOf(cieloResponsesRecord.getTransactionType());
+        PaymentModificationResponse response = cieloClient.getPaymentInfo(cieloResponsesRecord.getCieloPaymentId(), transactionType, deadline);
+
+        // No answer from Cielo (budget spent or call failed): the stored state is the best we know
+        if (response != null) {
             try {
-                this.cieloTransactionStateHandler.updatePaymentInfo(kbAccountId, kbPaymentId, paymentTransactions, transactionType, cieloResponsesRecord, response, context);
+                this.cieloTransactionStateHandler.updatePaymentInfo(kbAccountId, kbPaymentId, paymentTransactions, transactionType, cieloResponsesRecord, response, deadline, context);
             } catch (SQLException e) {
                 logService.log(LogService.LOG_WARNING, "Failed to save new response from gateway");
             }
         }
-        
-        return paymentTransactions;
     }
 
 
@@ -133,9 +171,9 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         return executeFollowUpTransaction(TransactionType.CAPTURE,
                                           new TransactionExecutor<PaymentModificationResponse>() {
                                               @Override
-                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData) {
+                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
                                                   final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(context.getTenantId());
-                                                  return cieloClient.capture(paymentData, paymentId, amount, splitSettlementData);
+                                                  return cieloClient.capture(paymentData, paymentId, amount, splitSettlementData, deadline);
                                               }
                                           },
                                           kbAccountId,
@@ -148,12 +186,12 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
                                           context);
     }
 
-    private CieloPaymentMethodsRecord getcieloPaymentMethodsRecord(UUID kbPaymentMethodId, TenantContext context) {
+    private CieloPaymentMethodsRecord getcieloPaymentMethodsRecord(UUID kbPaymentMethodId, CieloDeadline deadline, TenantContext context) {
         CieloPaymentMethodsRecord paymentMethodsRecord = null;
 
         if (kbPaymentMethodId != null) {
             try {
-                paymentMethodsRecord = dao.getPaymentMethod(kbPaymentMethodId, context.getTenantId());
+                paymentMethodsRecord = dao.getPaymentMethod(kbPaymentMethodId, context.getTenantId(), deadline);
             } catch (final SQLException e) {
                 logService.log(LogService.LOG_WARNING, "Failed to retrieve payment method " + kbPaymentMethodId, e);
             }
@@ -172,9 +210,9 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         return executeFollowUpTransaction(TransactionType.VOID,
                                           new TransactionExecutor<PaymentModificationResponse>() {
                                               @Override
-                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData) {
+                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
                                                   final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(context.getTenantId());
-                                                  return cieloClient.cancel(paymentId, splitSettlementData);
+                                                  return cieloClient.cancel(paymentId, splitSettlementData, deadline);
                                               }
                                           },
                                           kbAccountId,
@@ -197,9 +235,9 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         return executeFollowUpTransaction(TransactionType.REFUND,
                                           new TransactionExecutor<PaymentModificationResponse>() {
                                               @Override
-                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData) {
+                                              public PaymentModificationResponse execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
                                                   final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(context.getTenantId());
-                                                  return cieloClient.refund(paymentData, paymentId, amount, splitSettlementData);
+                                                  return cieloClient.refund(paymentData, paymentId, amount, splitSettlementData, deadline);
                                               }
                                           },
                                           kbAccountId,
@@ -236,12 +274,13 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
     public void addPaymentMethod(final UUID kbAccountId, final UUID kbPaymentMethodId, final PaymentMethodPlugin paymentMethodProps, final boolean setDefault, final Iterable<PluginProperty> properties, final CallContext context) throws PaymentPluginApiException {
         final Map<String, String> safePropertiesMap = new HashMap<String, String>(PluginProperties.toStringMap(paymentMethodProps.getProperties(), properties));
         final CieloClient client = cieloConfigurationHandler.getConfigurable(context.getTenantId());
+        final CieloDeadline deadline = client.newDeadline();
 
-        final Account account = getAccount(kbAccountId, context);
+        final CieloAccountSnapshot account = getAccountSnapshot(kbAccountId, context);
         final PaymentInfo paymentInfo = buildPaymentInfo(account, paymentMethodProps.getProperties(), context);
 
         final UserData userData = toUserData(account, paymentMethodProps.getProperties());
-        final String token = client.tokenizeCreditCard(paymentInfo, userData);
+        final String token = client.tokenizeCreditCard(paymentInfo, userData, deadline);
         if (token == null) {
             throw new PaymentPluginApiException("Token not created", "Unable to create token");
         }
@@ -271,11 +310,11 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
 
     private abstract static class TransactionExecutor<T> {
 
-        public T execute(final PaymentData paymentData, final UserData userData, final SplitSettlementData splitSettlementData) {
+        public T execute(final PaymentData paymentData, final UserData userData, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
             throw new UnsupportedOperationException();
         }
 
-        public T execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData) {
+        public T execute(final PaymentData paymentData, final String paymentId, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
             throw new UnsupportedOperationException();
         }
     }
@@ -292,10 +331,10 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         return executeInitialTransaction(transactionType,
                                          new TransactionExecutor<PurchaseResult>() {
                                              @Override
-                                             public PurchaseResult execute(final PaymentData paymentData, final UserData userData, final SplitSettlementData splitSettlementData) {
+                                             public PurchaseResult execute(final PaymentData paymentData, final UserData userData, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
                                                  final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(context.getTenantId());
 
-                                                 return cieloClient.create(transactionType, paymentData, userData, splitSettlementData);
+                                                 return cieloClient.create(transactionType, paymentData, userData, splitSettlementData, deadline);
                                              }
                                          },
                                          kbAccountId,
@@ -318,19 +357,23 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
                                                                    final Currency currency,
                                                                    final Iterable<PluginProperty> properties,
                                                                    final TenantContext context) throws PaymentPluginApiException {
-        final Account account = getAccount(kbAccountId, context);
+        // Started before the Kill Bill lookups, which cannot be bounded but still use up the budget
+        final CieloDeadline deadline = cieloConfigurationHandler.getConfigurable(context.getTenantId()).newDeadline();
+        // Sent to Cielo as merchant order id: loaded while the rest of the request is prepared
+        final ListenableFuture<String> transactionExternalKey = transactionExternalKeys.fetch(kbPaymentId, kbTransactionId, properties, context);
+        final CieloAccountSnapshot account = getAccountSnapshot(kbAccountId, context);
 
-        final CieloPaymentMethodsRecord nonNullPaymentMethodsRecord = getcieloPaymentMethodsRecord(kbPaymentMethodId, context);
+        final CieloPaymentMethodsRecord nonNullPaymentMethodsRecord = getcieloPaymentMethodsRecord(kbPaymentMethodId, deadline, context);
         // Pull extra properties from the payment method (such as the customerId)
         final Iterable<PluginProperty> additionalPropertiesFromRecord = buildPaymentMethodPlugin(nonNullPaymentMethodsRecord).getProperties();
         //noinspection unchecked
         final Iterable<PluginProperty> mergedProperties = PluginProperties.merge(additionalPropertiesFromRecord, properties);
-        final PaymentData paymentData = buildPaymentData(account, kbPaymentId, kbTransactionId, nonNullPaymentMethodsRecord, amount, currency, mergedProperties, context);
+        final PaymentData paymentData = buildPaymentData(account, join(transactionExternalKey, String.format("kbPaymentId='%s'", kbPaymentId), deadline), nonNullPaymentMethodsRecord, amount, currency, mergedProperties, context);
         final UserData userData = toUserData(account, mergedProperties);
         final SplitSettlementData splitSettlementData = null;
         final DateTime utcNow = clock.getUTCNow();
 
-        final PurchaseResult response = transactionExecutor.execute(paymentData, userData, splitSettlementData);
+        final PurchaseResult response = transactionExecutor.execute(paymentData, userData, splitSettlementData, deadline);
 
         if (transactionType == TransactionType.PURCHASE
                 && response.getResult().isPresent()
@@ -338,7 +381,7 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
 
         }
         try {
-            dao.addResponse(kbAccountId, kbPaymentId, kbTransactionId, transactionType, amount, currency, response, utcNow, context.getTenantId());
+            dao.addResponse(kbAccountId, kbPaymentId, kbTransactionId, transactionType, amount, currency, response, utcNow, context.getTenantId(), deadline);
             return new CieloPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, transactionType, amount, currency, utcNow, response);
         } catch (final SQLException e) {
             throw new PaymentPluginApiException("Payment went through, but we encountered a database error. Payment details: " + response.toString(), e);
@@ -355,25 +398,41 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
                                                                     @Nullable final Currency currency,
                                                                     final Iterable<PluginProperty> properties,
                                                                     final TenantContext context) throws PaymentPluginApiException {
-        final Account account = getAccount(kbAccountId, context);
-
-        final String paymentId;
-        try {
-            final CieloResponsesRecord previousResponse = dao.getSuccessfulAuthorizationResponse(kbPaymentId, context.getTenantId());
-            if (previousResponse == null) {
-                throw new PaymentPluginApiException(null, "Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId);
+        final CieloDeadline deadline = cieloConfigurationHandler.getConfigurable(context.getTenantId()).newDeadline();
+        // Independent round trips: issued together, the call waits for the slowest rather than for all of them in turn
+        final ListenableFuture<CieloAccountSnapshot> accountLookup = lookups.submit("account", new Callable<CieloAccountSnapshot>() {
+            @Override
+            public CieloAccountSnapshot call() throws AccountApiException {
+                return accountSnapshots.get(kbAccountId, context);
             }
-            paymentId = previousResponse.getCieloPaymentId();
-        } catch (final SQLException e) {
-            throw new PaymentPluginApiException("Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId, e);
-        }
+        });
+        final ListenableFuture<CieloResponsesRecord> previousResponseLookup = lookups.submit("authorizationResponse", new Callable<CieloResponsesRecord>() {
+            @Override
+            public CieloResponsesRecord call() throws SQLException {
+                return dao.getSuccessfulAuthorizationResponse(kbPaymentId, context.getTenantId(), deadline);
+            }
+        });
+        final ListenableFuture<CieloPaymentMethodsRecord> paymentMethodLookup = lookups.submit("paymentMethod", new Callable<CieloPaymentMethodsRecord>() {
+            @Override
+            public CieloPaymentMethodsRecord call() {
+                return getcieloPaymentMethodsRecord(kbPaymentMethodId, deadline, context);
+            }
+        });
 
-        final CieloPaymentMethodsRecord nonNullPaymentMethodsRecord = getcieloPaymentMethodsRecord(kbPaymentMethodId, context);
-        final PaymentData paymentData = buildPaymentData(account, kbPaymentId, kbTransactionId, nonNullPaymentMethodsRecord, amount, currency, properties, context);
+        final CieloResponsesRecord previousResponse = join(previousResponseLookup, "previous payment response for kbTransactionId " + kbTransactionId, deadline);
+        if (previousResponse == null) {
+            throw new PaymentPluginApiException(null, "Unable to retrieve previous payment response for kbTransactionId " + kbTransactionId);
+        }
+        final String paymentId = previousResponse.getCieloPaymentId();
+        final CieloAccountSnapshot account = join(accountLookup, String.format("kbAccountId='%s'", kbAccountId), deadline);
+        final CieloPaymentMethodsRecord nonNullPaymentMethodsRecord = join(paymentMethodLookup, String.format("kbPaymentMethodId='%s'", kbPaymentMethodId), deadline);
+        // Not sent to Cielo for follow-up transactions, only logged: not worth loading the payment for
+        final String transactionExternalKey = transactionExternalKeys.getIfPresent(kbPaymentId, kbTransactionId);
+        final PaymentData paymentData = buildPaymentData(account, transactionExternalKey, nonNullPaymentMethodsRecord, amount, currency, properties, context);
         final SplitSettlementData splitSettlementData = null;
         final DateTime utcNow = clock.getUTCNow();
 
-        final PaymentModificationResponse response = transactionExecutor.execute(paymentData, paymentId, splitSettlementData);
+        final PaymentModificationResponse response = transactionExecutor.execute(paymentData, paymentId, splitSettlementData, deadline);
         final Optional<PaymentServiceProviderResult> paymentServiceProviderResult;
         if (response.isTechnicallySuccessful()) {
             paymentServiceProviderResult = Optional.of(PaymentServiceProviderResult.RECEIVED);
@@ -382,7 +441,7 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         }
 
         try {
-            dao.addResponse(kbAccountId, kbPaymentId, kbTransactionId, transactionType, amount, currency, response, utcNow, context.getTenantId());
+            dao.addResponse(kbAccountId, kbPaymentId, kbTransactionId, transactionType, amount, currency, response, utcNow, context.getTenantId(), deadline);
             return new CieloPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, transactionType, amount, currency, paymentServiceProviderResult, utcNow, response);
         } catch (final SQLException e) {
             throw new PaymentPluginApiException("Payment went through, but we encountered a database error. Payment details: " + (response.toString()), e);
@@ -397,32 +456,41 @@ public class CieloPaymentPluginApi extends PluginPaymentPluginApi<CieloResponses
         return record;
     }
 
-    private PaymentData<PaymentInfo> buildPaymentData(final AccountData account, final UUID kbPaymentId, final UUID kbTransactionId, final CieloPaymentMethodsRecord paymentMethodsRecord, final BigDecimal amount, final Currency currency, final Iterable<PluginProperty> properties, final TenantContext context) throws PaymentPluginApiException {
-        final Payment payment;
-        try {
-            payment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, false, false, properties, context);
-        } catch (final PaymentApiException e) {
-            throw new PaymentPluginApiException(String.format("Unable to retrieve kbPaymentId='%s'", kbPaymentId), e);
-        }
+    private PaymentData<PaymentInfo> buildPaymentData(final CieloAccountSnapshot account, @Nullable final String paymentTransactionExternalKey, final CieloPaymentMethodsRecord paymentMethodsRecord, final BigDecimal amount, final Currency currency, final Iterable<PluginProperty> properties, final TenantContext context) {
+        final PaymentInfo paymentInfo = buildPaymentInfo(account, paymentMethodsRecord, properties, context);
 
-        final PaymentTransaction paymentTransaction = Iterables.<PaymentTransaction>find(payment.getTransactions(),
-                                                                                         new Predicate<PaymentTransaction>() {
-                                                                                             @Override
-                                                                                             public boolean apply(final PaymentTransaction input) {
-                                                                                                 return kbTransactionId.equals(input.getId());
-                                                                                             }
-                                                                                         });
+        return new PaymentData<PaymentInfo>(amount, currency, paymentTransactionExternalKey, paymentInfo);
+    }
 
-        final PaymentInfo paymentInfo = buildPaymentInfo(account, paymentMethodsRecord, properties, context);
+    private CieloAccountSnapshot getAccountSnapshot(final UUID kbAccountId, final TenantContext context) {
+        try {
+            return accountSnapshots.get(kbAccountId, context);
+        } catch (final AccountApiException e) {
+            throw new RuntimeException(String.format("Failed to retrieve kbAccountId='%s'", kbAccountId), e);
+        }
+    }
 
-        return new PaymentData<PaymentInfo>(amount, currency, paymentTransaction.getExternalKey(), paymentInfo);
+    /**
+     * Waits for a lookup no longer than the deadline: the lookup itself is left to complete, or to time out on its own.
+     */
+    private static <T> T join(final ListenableFuture<T> lookup, final String description, final CieloDeadline deadline) throws PaymentPluginApiException {
+        try {
+            return deadline.isBounded() ? lookup.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : lookup.get();
+        } catch (final TimeoutException e) {
+            throw new PaymentPluginApiException("Timed out while retrieving " + description, e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PaymentPluginApiException("Interrupted while retrieving " + description, e);
+        } catch (final ExecutionException e) {
+            throw new PaymentPluginApiException("Unable to retrieve " + description, e.getCause());
+        }
     }
 
-    private PaymentInfo buildPaymentInfo(AccountData account, CieloPaymentMethodsRecord paymentMethodsRecord, Iterable<PluginProperty> properties, TenantContext context) {
+    private PaymentInfo buildPaymentInfo(CieloAccountSnapshot account, CieloPaymentMethodsRecord paymentMethodsRecord, Iterable<PluginProperty> properties, TenantContext context) {
         return PaymentInfoMappingService.toPaymentInfo(clock, account, paymentMethodsRecord, properties);
     }
 
-    private PaymentInfo buildPaymentInfo(AccountData account, Iterable<PluginProperty> properties, TenantContext context) {
+    private PaymentInfo buildPaymentInfo(CieloAccountSnapshot account, Iterable<PluginProperty> properties, TenantContext context) {
         return PaymentInfoMappingService.toPaymentInfo(clock, account, properties);
     }
 }
@@ -171,6 +171,11 @@ public class CieloPaymentTransactionInfoPlugin extends PluginPaymentTransactionI
         switch (cieloCallErrorStatus) {
             case REQUEST_NOT_SEND:
                 return PaymentPluginStatus.CANCELED;
+            case REQUEST_REJECTED:
+                // Never sent because of a local limit: worth retrying
+                return PaymentPluginStatus.PLUGIN_FAILURE;
+            case DEADLINE_EXCEEDED:
+                return PaymentPluginStatus.CANCELED;
             case RESPONSE_ABOUT_INVALID_REQUEST:
                 return PaymentPluginStatus.CANCELED;
             case RESPONSE_NOT_RECEIVED:
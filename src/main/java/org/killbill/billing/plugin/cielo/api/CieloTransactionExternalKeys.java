@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.util.callcontext.TenantContext;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * External keys of the Kill Bill payment transactions, which Cielo gets as merchant order id.
+ * <p>
+ * Kill Bill does not hand the key over to the plugin, so the payment has to be loaded to read it. The keys of all the
+ * transactions of a payment are kept for a short while after such a load, since Kill Bill usually calls the plugin
+ * again for the same payment (retries, janitor, follow-up transactions).
+ */
+public class CieloTransactionExternalKeys {
+
+    private static final long EXPIRATION_MINUTES = 10;
+    private static final long MAXIMUM_PAYMENTS = 10000;
+
+    private final OSGIKillbillAPI killbillAPI;
+    private final CieloLookupExecutor lookups;
+    private final Cache<UUID, Map<UUID, String>> keysByPaymentId = CacheBuilder.newBuilder()
+                                                                              .expireAfterWrite(EXPIRATION_MINUTES, TimeUnit.MINUTES)
+                                                                              .maximumSize(MAXIMUM_PAYMENTS)
+                                                                              .build();
+
+    public CieloTransactionExternalKeys(final OSGIKillbillAPI killbillAPI, final CieloLookupExecutor lookups) {
+        this.killbillAPI = killbillAPI;
+        this.lookups = lookups;
+    }
+
+    /**
+     * Returns right away: on a cache miss, the payment is loaded in the background while the caller prepares the call.
+     *
+     * @return the external key of the transaction, failed with a PaymentApiException if the payment cannot be loaded
+     */
+    public ListenableFuture<String> fetch(final UUID kbPaymentId, final UUID kbTransactionId, final Iterable<PluginProperty> properties, final TenantContext context) {
+        final String cachedKey = getIfPresent(kbPaymentId, kbTransactionId);
+        if (cachedKey != null) {
+            return Futures.immediateFuture(cachedKey);
+        }
+
+        return lookups.submit("payment", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                final Payment payment = killbillAPI.getPaymentApi().getPayment(kbPaymentId, false, false, properties, context);
+                final Map<UUID, String> keys = new HashMap<UUID, String>();
+                for (final PaymentTransaction transaction : payment.getTransactions()) {
+                    keys.put(transaction.getId(), transaction.getExternalKey());
+                }
+                keysByPaymentId.put(kbPaymentId, keys);
+
+                if (!keys.containsKey(kbTransactionId)) {
+                    throw new IllegalStateException(String.format("Transaction kbTransactionId='%s' not found in kbPaymentId='%s'", kbTransactionId, kbPaymentId));
+                }
+                return keys.get(kbTransactionId);
+            }
+        });
+    }
+
+    /**
+     * @return the external key if the payment was loaded recently, without loading it otherwise
+     */
+    @Nullable
+    public String getIfPresent(final UUID kbPaymentId, final UUID kbTransactionId) {
+        final Map<UUID, String> keys = keysByPaymentId.getIfPresent(kbPaymentId);
+        return keys == null ? null : keys.get(kbTransactionId);
+    }
+}
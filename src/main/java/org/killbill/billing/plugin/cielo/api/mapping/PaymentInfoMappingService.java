@@ -17,9 +17,9 @@
 
 package org.killbill.billing.plugin.cielo.api.mapping;
 
-import org.killbill.billing.account.api.AccountData;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.plugin.api.PluginProperties;
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshot;
 import org.killbill.billing.plugin.cielo.client.model.PaymentInfo;
 import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord;
 import org.killbill.clock.Clock;
@@ -32,11 +32,11 @@ import static org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi.*;
 
 public abstract class PaymentInfoMappingService {
 
-    public static PaymentInfo toPaymentInfo(final Clock clock, final AccountData account, final Iterable<PluginProperty> properties) {
+    public static PaymentInfo toPaymentInfo(final Clock clock, final CieloAccountSnapshot account, final Iterable<PluginProperty> properties) {
         return toPaymentInfo(clock, account, null, properties);
     }
 
-    public static PaymentInfo toPaymentInfo(final Clock clock, @Nullable final AccountData account, @Nullable final CieloPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
+    public static PaymentInfo toPaymentInfo(final Clock clock, @Nullable final CieloAccountSnapshot account, @Nullable final CieloPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
         final PaymentInfo paymentInfo;
 
 
@@ -52,7 +52,7 @@ public abstract class PaymentInfoMappingService {
         return paymentInfo;
     }
 
-    private static void setBillingAddress(@Nullable final AccountData account, final PaymentInfo paymentInfo, @Nullable final CieloPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
+    private static void setBillingAddress(@Nullable final CieloAccountSnapshot account, final PaymentInfo paymentInfo, @Nullable final CieloPaymentMethodsRecord paymentMethodsRecord, final Iterable<PluginProperty> properties) {
         String street = PluginProperties.getValue(PROPERTY_ADDRESS1, paymentMethodsRecord == null ? null : paymentMethodsRecord.getAddress1(), properties);
         if (street == null && account != null) {
             street = account.getAddress1();
@@ -20,8 +20,8 @@ package org.killbill.billing.plugin.cielo.api.mapping;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Optional;
-import org.killbill.billing.account.api.Account;
 import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshot;
 import org.killbill.billing.plugin.cielo.api.CieloPaymentPluginApi;
 import org.killbill.billing.plugin.cielo.client.model.UserData;
 import org.killbill.billing.plugin.api.PluginProperties;
@@ -31,7 +31,7 @@ import java.util.Locale;
 
 public abstract class UserDataMappingService {
 
-    public static UserData toUserData(@Nullable final Account account, final Iterable<PluginProperty> properties) {
+    public static UserData toUserData(@Nullable final CieloAccountSnapshot account, final Iterable<PluginProperty> properties) {
         final UserData userData = new UserData();
 
         // determine the customer id
@@ -82,7 +82,7 @@ public abstract class UserDataMappingService {
      * @return the customer id as an Optional
      */
     @VisibleForTesting
-    static Optional<String> toCustomerId(final String customerId, final Account account) {
+    static Optional<String> toCustomerId(final String customerId, final CieloAccountSnapshot account) {
         if (customerId != null) {
             return Optional.of(customerId);
         } else if (account != null) {
@@ -109,7 +109,7 @@ public abstract class UserDataMappingService {
      * @return the locale as an Optional
      */
     @VisibleForTesting
-    static Optional<Locale> toCustomerLocale(final String propertyLocaleString, final Account account) {
+    static Optional<Locale> toCustomerLocale(final String propertyLocaleString, final CieloAccountSnapshot account) {
         final String candidateString;
         if (propertyLocaleString != null) {
             candidateString = propertyLocaleString;
@@ -142,7 +142,7 @@ public abstract class UserDataMappingService {
      * @return the email as an Optional
      */
     @VisibleForTesting
-    static Optional<String> toCustomerEmail(final String propertyEmail, final Account account) {
+    static Optional<String> toCustomerEmail(final String propertyEmail, final CieloAccountSnapshot account) {
         if (propertyEmail != null) {
             return Optional.of(propertyEmail);
         } else if (account != null && account.getEmail() != null) {
@@ -166,7 +166,7 @@ public abstract class UserDataMappingService {
      * @return the first Name as an Optional
      */
     @VisibleForTesting
-    static Optional<String> toFirstName(final String propertyFirstName, final Account account) {
+    static Optional<String> toFirstName(final String propertyFirstName, final CieloAccountSnapshot account) {
         if (propertyFirstName != null) {
             return Optional.of(propertyFirstName);
         } else if (account != null && account.getName() != null) {
@@ -190,7 +190,7 @@ public abstract class UserDataMappingService {
      * @return the first Name as an Optional
      */
     @VisibleForTesting
-    static Optional<String> toLastName(final String propertyLastName, final Account account) {
+    static Optional<String> toLastName(final String propertyLastName, final CieloAccountSnapshot account) {
         if (propertyLastName != null) {
             return Optional.of(propertyLastName);
         } else if (account != null && account.getName() != null) {
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Sale;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Non-blocking counterpart of {@link CieloHttpTransport}: requests are multiplexed over a small NIO reactor,
+ * so that many calls can be in flight without holding one thread per call.
+ * <p>
+ * Requests and responses use the SDK model, so that results are interchangeable with the blocking calls.
+ */
+public class CieloAsyncTransport implements Closeable {
+
+    // A single reactor thread is plenty to drive hundreds of connections
+    private static final int IO_THREAD_COUNT = 1;
+
+    private final CieloConfigProperties config;
+    private final Supplier<CieloCredentials> credentials;
+    private final CieloJsonCodec codec;
+    private final CloseableHttpAsyncClient httpAsyncClient;
+
+    public CieloAsyncTransport(final CieloConfigProperties config, final Supplier<CieloCredentials> credentials, final CieloJsonCodec codec) {
+        this.config = Preconditions.checkNotNull(config, "config");
+        this.credentials = Preconditions.checkNotNull(credentials, "credentials");
+        this.codec = codec;
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                                                         .setConnectTimeout(config.getConnectTimeout())
+                                                         .setSocketTimeout(config.getSocketTimeout())
+                                                         .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                                                         .build();
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                                                               .setIoThreadCount(IO_THREAD_COUNT)
+                                                               .setConnectTimeout(config.getConnectTimeout())
+                                                               .setSoTimeout(config.getSocketTimeout())
+                                                               .setSoKeepAlive(true)
+                                                               .build();
+
+        this.httpAsyncClient = HttpAsyncClients.custom()
+                                               .setDefaultRequestConfig(requestConfig)
+                                               .setDefaultIOReactorConfig(ioReactorConfig)
+                                               .setMaxConnPerRoute(config.getMaxConnections())
+                                               .setMaxConnTotal(config.getMaxConnections() * 2)
+                                               .build();
+        this.httpAsyncClient.start();
+    }
+
+    public ListenableFuture<Sale> createSale(final Sale sale) {
+        final HttpPost request = new HttpPost(CieloHttpSupport.salesUrl(config));
+        try {
+            request.setEntity(CieloHttpSupport.bufferedEntity(codec.toByteArray(sale)));
+        } catch (final IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSale(content);
+            }
+        });
+    }
+
+    public ListenableFuture<Sale> querySale(final String paymentId) {
+        final HttpGet request = new HttpGet(CieloHttpSupport.saleQueryUrl(config, paymentId));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSale(content);
+            }
+        });
+    }
+
+    /**
+     * @return ids of the payments created with this merchant order id, oldest first
+     */
+    public ListenableFuture<List<String>> queryPaymentIdsByMerchantOrderId(final String merchantOrderId) {
+        final HttpGet request = new HttpGet(CieloHttpSupport.merchantOrderQueryUrl(config, merchantOrderId));
+        return execute(request, new CieloHttpSupport.ResponseReader<List<String>>() {
+            @Override
+            public List<String> read(final InputStream content) throws IOException {
+                return codec.readPaymentIds(content);
+            }
+        });
+    }
+
+    public ListenableFuture<Sale> captureSale(final String paymentId, final Integer amount) {
+        final HttpPut request = new HttpPut(CieloHttpSupport.captureUrl(config, paymentId, amount));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSaleUpdate(paymentId, content);
+            }
+        });
+    }
+
+    public ListenableFuture<Sale> cancelSale(final String paymentId) {
+        return cancelSale(paymentId, null);
+    }
+
+    /**
+     * Cielo refunds (partially or fully) through the void endpoint, with an amount.
+     */
+    public ListenableFuture<Sale> cancelSale(final String paymentId, final Integer amount) {
+        final HttpPut request = new HttpPut(CieloHttpSupport.voidUrl(config, paymentId, amount));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSaleUpdate(paymentId, content);
+            }
+        });
+    }
+
+    public ListenableFuture<CreditCard> tokenizeCard(final CreditCard card) {
+        final HttpPost request = new HttpPost(CieloHttpSupport.cardUrl(config));
+        try {
+            request.setEntity(CieloHttpSupport.bufferedEntity(codec.toByteArray(card)));
+        } catch (final IOException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return execute(request, new CieloHttpSupport.ResponseReader<CreditCard>() {
+            @Override
+            public CreditCard read(final InputStream content) throws IOException {
+                return codec.readCreditCard(content);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpAsyncClient.close();
+    }
+
+    private <T> ListenableFuture<T> execute(final HttpUriRequest request, final CieloHttpSupport.ResponseReader<T> reader) {
+        CieloHttpSupport.addHeaders(request, credentials.get());
+
+        final SettableFuture<T> future = SettableFuture.create();
+        httpAsyncClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(final HttpResponse response) {
+                try {
+                    future.set(CieloHttpSupport.readResponse(response, codec, reader));
+                } catch (final Exception e) {
+                    future.setException(e);
+                }
+            }
+
+            @Override
+            public void failed(final Exception e) {
+                future.setException(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+}
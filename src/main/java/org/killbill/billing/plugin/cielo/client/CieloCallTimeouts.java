@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
+
+/**
+ * Limits applying to the blocking call made by the current thread, on top of the configured connect and socket timeouts.
+ * <p>
+ * Like {@link CieloCallTimer}, it is bound to the thread making the call since the gateway methods only take the request.
+ */
+public final class CieloCallTimeouts {
+
+    private static final ThreadLocal<CieloCallTimeouts> CURRENT = new ThreadLocal<CieloCallTimeouts>();
+
+    private final CieloDeadline deadline;
+    private final int socketTimeout;
+
+    private CieloCallTimeouts(final CieloDeadline deadline, final int socketTimeout) {
+        this.deadline = deadline;
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * @param socketTimeout in milliseconds, replacing the configured one, -1 to keep it
+     */
+    public static CieloCallTimeouts start(final CieloDeadline deadline, final int socketTimeout) {
+        final CieloCallTimeouts timeouts = new CieloCallTimeouts(deadline, socketTimeout);
+        CURRENT.set(timeouts);
+        return timeouts;
+    }
+
+    public void stop() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * @return true if the configured timeouts apply as is, so that the default request configuration can be kept
+     */
+    static boolean isDefault() {
+        final CieloCallTimeouts timeouts = CURRENT.get();
+        return timeouts == null || (!timeouts.deadline.isBounded() && timeouts.socketTimeout < 0);
+    }
+
+    static int connectTimeout(final int configuredTimeout) {
+        final CieloCallTimeouts timeouts = CURRENT.get();
+        return timeouts == null ? configuredTimeout : timeouts.deadline.bound(configuredTimeout);
+    }
+
+    static int socketTimeout(final int configuredTimeout) {
+        final CieloCallTimeouts timeouts = CURRENT.get();
+        if (timeouts == null) {
+            return configuredTimeout;
+        }
+        return timeouts.deadline.bound(timeouts.socketTimeout < 0 ? configuredTimeout : timeouts.socketTimeout);
+    }
+}
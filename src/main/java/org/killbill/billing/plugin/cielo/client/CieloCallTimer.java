@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+/**
+ * Phase timings, in nanoseconds, of the blocking call made by the current thread.
+ * <p>
+ * The connection pool, the HTTP request executor and the response decoding report into the timer of their thread, since
+ * the SDK does not let anything be passed along with a call. Phases which did not happen, or cannot be observed with the
+ * transport in use, stay at -1.
+ */
+public final class CieloCallTimer {
+
+    private static final ThreadLocal<CieloCallTimer> CURRENT = new ThreadLocal<CieloCallTimer>();
+
+    private long connectNanos = -1;
+    private long requestWriteNanos = -1;
+    private long timeToFirstByteNanos = -1;
+    private long decodeNanos = -1;
+
+    private CieloCallTimer() {}
+
+    public static CieloCallTimer start() {
+        final CieloCallTimer timer = new CieloCallTimer();
+        CURRENT.set(timer);
+        return timer;
+    }
+
+    public void stop() {
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+    }
+
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    public long getRequestWriteNanos() {
+        return requestWriteNanos;
+    }
+
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    static void recordConnect(final long nanos) {
+        final CieloCallTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.connectNanos = add(timer.connectNanos, nanos);
+        }
+    }
+
+    static void recordRequestWrite(final long nanos) {
+        final CieloCallTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.requestWriteNanos = add(timer.requestWriteNanos, nanos);
+        }
+    }
+
+    static void recordTimeToFirstByte(final long nanos) {
+        final CieloCallTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.timeToFirstByteNanos = add(timer.timeToFirstByteNanos, nanos);
+        }
+    }
+
+    static void recordDecode(final long nanos) {
+        final CieloCallTimer timer = CURRENT.get();
+        if (timer != null) {
+            timer.decodeNanos = add(timer.decodeNanos, nanos);
+        }
+    }
+
+    // A request retried by HttpClient goes through the phases more than once
+    private static long add(final long current, final long nanos) {
+        return current < 0 ? nanos : current + nanos;
+    }
+}
@@ -24,11 +24,13 @@ import org.killbill.billing.plugin.cielo.client.payment.builder.CieloRequestFact
 import org.killbill.billing.plugin.cielo.client.payment.service.BaseCieloPaymentServiceProviderPort;
 import org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus;
 import org.killbill.billing.plugin.cielo.client.payment.service.CieloCallResult;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
 import org.killbill.billing.plugin.cielo.client.payment.service.CieloPaymentRequestSender;
 import org.killbill.billing.plugin.util.KillBillMoney;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import static org.killbill.billing.plugin.cielo.client.model.PurchaseResult.EXCEPTION_CLASS;
 import static org.killbill.billing.plugin.cielo.client.model.PurchaseResult.EXCEPTION_MESSAGE;
@@ -43,10 +45,19 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
     private static final java.lang.String HMAC_ALGORITHM = "";
     private CieloRequestFactory cieloRequestFactory;
     private CieloPaymentRequestSender cieloPaymentRequestSender;
+    private final long operationTimeout;
 
-    public CieloClient(final CieloRequestFactory cieloRequestFactory, CieloPaymentRequestSender cieloPaymentRequestSender) {
+    public CieloClient(final CieloRequestFactory cieloRequestFactory, CieloPaymentRequestSender cieloPaymentRequestSender, final long operationTimeout) {
         this.cieloRequestFactory = cieloRequestFactory;
         this.cieloPaymentRequestSender = cieloPaymentRequestSender;
+        this.operationTimeout = operationTimeout;
+    }
+
+    /**
+     * @return the deadline of a plugin operation starting now, shared by every Cielo call it makes
+     */
+    public CieloDeadline newDeadline() {
+        return CieloDeadline.after(operationTimeout);
     }
 
     @Override
@@ -54,13 +65,25 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         cieloPaymentRequestSender.close();
     }
 
-    public PurchaseResult create(TransactionType transactionType, PaymentData<Card> paymentData, UserData userData, final SplitSettlementData splitSettlementData) {
-        return authorisePurchaseOrCredit(transactionType, paymentData, userData, splitSettlementData);
+    public Map<String, Object> getStatistics() {
+        return cieloPaymentRequestSender.getStatistics();
+    }
+
+    public void startConnectionWarmup() {
+        cieloPaymentRequestSender.startConnectionWarmup();
+    }
+
+    public void rotateCredentials(final CieloCredentials credentials) {
+        cieloPaymentRequestSender.rotateCredentials(credentials);
     }
 
-    private PurchaseResult authorisePurchaseOrCredit(TransactionType transactionType, final PaymentData<Card> paymentData, final UserData userData, final SplitSettlementData splitSettlementData) {
+    public PurchaseResult create(TransactionType transactionType, PaymentData<Card> paymentData, UserData userData, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
+        return authorisePurchaseOrCredit(transactionType, paymentData, userData, splitSettlementData, deadline);
+    }
+
+    private PurchaseResult authorisePurchaseOrCredit(TransactionType transactionType, final PaymentData<Card> paymentData, final UserData userData, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
         Sale body = cieloRequestFactory.createPaymentRequest(paymentData, userData, splitSettlementData);
-        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.create(body);
+        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.create(body, deadline);
 
         if (!cieloCallResult.receivedWellFormedResponse()) {
             return handleTechnicalFailureAtPurchase(transactionType.toString(), userData, paymentData, cieloCallResult);
@@ -71,7 +94,7 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
 
         final PaymentServiceProviderResult paymentServiceProviderResult = PaymentServiceProviderResult.getPaymentResultForId(paymentResponse.getStatus().toString(), transactionType);
 
-        final Map<String, String> additionalData = new HashMap<String, String>();
+        final Map<String, String> additionalData = new HashMap<String, String>(cieloCallResult.getTimings().toAdditionalData());
 
         return new PurchaseResult(
                 paymentServiceProviderResult,
@@ -90,8 +113,8 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         return new PurchaseResult(paymentData.getPaymentTransactionExternalKey(), ingenicoCall);
     }
 
-    public PaymentModificationResponse capture(final PaymentData paymentData, final String paymentId, final BigDecimal amount, final SplitSettlementData splitSettlementData) {
-        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.capture(paymentId, toInteger(amount));
+    public PaymentModificationResponse capture(final PaymentData paymentData, final String paymentId, final BigDecimal amount, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
+        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.capture(paymentId, toInteger(amount), deadline);
 
         if (!cieloCallResult.receivedWellFormedResponse()) {
             return handleTechnicalFailureAtApprove(paymentId, paymentData, cieloCallResult);
@@ -102,7 +125,7 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
 
         final PaymentServiceProviderResult paymentServiceProviderResult = PaymentServiceProviderResult.getPaymentResultForId(paymentResponse.getStatus().toString(), null);
 
-        return new PaymentModificationResponse<Sale>(paymentServiceProviderResult, paymentResponse.getStatus().toString(), paymentId);
+        return new PaymentModificationResponse<Sale>(paymentServiceProviderResult, paymentResponse.getStatus().toString(), paymentId, new HashMap<Object, Object>(cieloCallResult.getTimings().toAdditionalData()));
     }
 
     private PaymentModificationResponse handleTechnicalFailureAtApprove(final String paymentId, final PaymentData paymentData, final CieloCallResult<Sale> ingenicoCall) {
@@ -110,8 +133,8 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         return new PaymentModificationResponse(paymentId, ingenicoCall, getModificationAdditionalErrorData(ingenicoCall));
     }
 
-    public PaymentModificationResponse cancel(final String paymentId, final SplitSettlementData splitSettlementData) {
-        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.cancel(paymentId);
+    public PaymentModificationResponse cancel(final String paymentId, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
+        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.cancel(paymentId, deadline);
         if (!cieloCallResult.receivedWellFormedResponse()) {
             return handleTechnicalFailureAtCancel(paymentId, cieloCallResult);
         }
@@ -123,8 +146,8 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         return new PaymentModificationResponse(paymentId, ingenicoCall, getModificationAdditionalErrorData(ingenicoCall));
     }
 
-    public PaymentModificationResponse refund(final PaymentData paymentData, final String paymentId, final BigDecimal amount, final SplitSettlementData splitSettlementData) {
-        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.refund(paymentId, toInteger(amount));
+    public PaymentModificationResponse refund(final PaymentData paymentData, final String paymentId, final BigDecimal amount, final SplitSettlementData splitSettlementData, final CieloDeadline deadline) {
+        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.refund(paymentId, toInteger(amount), deadline);
         if (!cieloCallResult.receivedWellFormedResponse()) {
             return handleTechnicalFailureAtRefund(paymentId, paymentData, cieloCallResult);
         }
@@ -146,14 +169,15 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         additionalDataMap.putAll(ImmutableMap.<Object, Object>of(INGENICO_CALL_ERROR_STATUS, responseStatus.isPresent() ? responseStatus.get() : "",
                                                                  EXCEPTION_CLASS, ingenicoCall.getExceptionClass().or(UNKNOWN),
                                                                  EXCEPTION_MESSAGE, ingenicoCall.getExceptionMessage().or(UNKNOWN)));
+        additionalDataMap.putAll(ingenicoCall.getTimings().toAdditionalData());
 
         return additionalDataMap;
     }
 
-    public String tokenizeCreditCard(PaymentInfo paymentInfo, UserData userData) throws PaymentPluginApiException {
+    public String tokenizeCreditCard(PaymentInfo paymentInfo, UserData userData, final CieloDeadline deadline) throws PaymentPluginApiException {
         CreditCard body = cieloRequestFactory.createTokenRequest(paymentInfo, userData);
         body.setCustomerName(userData.getFirstName() + " " + userData.getLastName());
-        final CieloCallResult<CreditCard> cieloCallResult = cieloPaymentRequestSender.createToken(body);
+        final CieloCallResult<CreditCard> cieloCallResult = cieloPaymentRequestSender.createToken(body, deadline);
         if (!cieloCallResult.receivedWellFormedResponse()) {
             if (cieloCallResult.getError().isPresent()) {
                 throw new PaymentPluginApiException(cieloCallResult.getError().get().getCode().toString(), cieloCallResult.getError().get().getMessage());
@@ -164,8 +188,8 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
         return cieloCallResult.getResult().get().getCardToken();
     }
 
-    public PaymentModificationResponse getPaymentInfo(final String paymentId, TransactionType transactionType) {
-        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.get(paymentId);
+    public PaymentModificationResponse getPaymentInfo(final String paymentId, TransactionType transactionType, final CieloDeadline deadline) {
+        final CieloCallResult<Sale> cieloCallResult = cieloPaymentRequestSender.get(paymentId, deadline);
         if (!cieloCallResult.receivedWellFormedResponse()) {
             return null;
         }
@@ -177,4 +201,35 @@ public class CieloClient extends BaseCieloPaymentServiceProviderPort implements
 
         return new PaymentModificationResponse(paymentServiceProviderResult, payment.getStatus().toString(), payment.getPaymentId());
     }
+
+    //
+    // Non-blocking variants, for callers (batch, reconciliation) that want to keep many requests in flight
+    //
+
+    public ListenableFuture<CieloCallResult<Sale>> createAsync(final PaymentData<Card> paymentData, final UserData userData, final SplitSettlementData splitSettlementData) {
+        final Sale body = cieloRequestFactory.createPaymentRequest(paymentData, userData, splitSettlementData);
+        return cieloPaymentRequestSender.createAsync(body);
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> captureAsync(final String paymentId, final BigDecimal amount) {
+        return cieloPaymentRequestSender.captureAsync(paymentId, toInteger(amount));
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> cancelAsync(final String paymentId) {
+        return cieloPaymentRequestSender.cancelAsync(paymentId);
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> refundAsync(final String paymentId, final BigDecimal amount) {
+        return cieloPaymentRequestSender.refundAsync(paymentId, toInteger(amount));
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> getPaymentInfoAsync(final String paymentId) {
+        return cieloPaymentRequestSender.getAsync(paymentId);
+    }
+
+    public ListenableFuture<CieloCallResult<CreditCard>> tokenizeCreditCardAsync(final PaymentInfo paymentInfo, final UserData userData) {
+        final CreditCard body = cieloRequestFactory.createTokenRequest(paymentInfo, userData);
+        body.setCustomerName(userData.getFirstName() + " " + userData.getLastName());
+        return cieloPaymentRequestSender.createTokenAsync(body);
+    }
 }
@@ -17,29 +17,154 @@
 
 package org.killbill.billing.plugin.cielo.client;
 
-import cieloecommerce.sdk.Merchant;
-import cieloecommerce.sdk.ecommerce.CieloEcommerce;
-import com.google.common.base.Preconditions;
-
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class CieloClientRegistry {
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.io.Closeables;
+
+/**
+ * Transports of a merchant. Safe to share across threads without locking: the blocking gateway is built upfront and
+ * published through a final field, the asynchronous transport is installed lazily by compare-and-set.
+ * <p>
+ * Credentials can be rotated while calls are in flight: each request reads them once, so calls already sent complete
+ * with the previous key and later ones use the new key.
+ */
+public class CieloClientRegistry implements Closeable {
 
     protected final CieloConfigProperties config;
-    private CieloEcommerce client;
+    private final CieloConnectionPool connectionPool;
+    private final CieloJsonCodec codec = new CieloJsonCodec();
+    private final AtomicReference<CieloCredentials> credentials;
+    private final Supplier<CieloCredentials> credentialsSupplier;
+    private final CieloGateway transport;
+    private final CieloFaultInjectingGateway faultInjectingGateway;
+    private final CieloGateway gateway;
+    private final CieloConnectionWarmer connectionWarmer;
+    private final AtomicReference<CieloAsyncTransport> asyncTransport = new AtomicReference<CieloAsyncTransport>();
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public CieloClientRegistry(final CieloConfigProperties config) {
         this.config = Preconditions.checkNotNull(config, "config");
+        this.credentials = new AtomicReference<CieloCredentials>(new CieloCredentials(config.getMerchantId(), config.getMerchantKey()));
+        this.credentialsSupplier = new Supplier<CieloCredentials>() {
+            @Override
+            public CieloCredentials get() {
+                return credentials.get();
+            }
+        };
+        this.connectionPool = new CieloConnectionPool(config);
+        this.transport = createGateway();
+        this.faultInjectingGateway = CieloFaultInjectingGateway.isEnabled(config) ? new CieloFaultInjectingGateway(config, transport, codec) : null;
+        this.gateway = faultInjectingGateway != null ? faultInjectingGateway : transport;
+        this.connectionWarmer = new CieloConnectionWarmer(config, connectionPool);
+    }
+
+    /**
+     * Opens the first connections in the background, see {@link CieloConnectionWarmer}.
+     */
+    public void startConnectionWarmup() {
+        connectionWarmer.start();
+    }
+
+    public CieloCredentials getCredentials() {
+        return credentials.get();
+    }
+
+    /**
+     * Switches to a new key of the same merchant, without interrupting calls in flight.
+     */
+    public void rotateCredentials(final CieloCredentials newCredentials) {
+        Preconditions.checkNotNull(newCredentials, "newCredentials");
+        Preconditions.checkArgument(Objects.equal(newCredentials.getMerchantId(), credentials.get().getMerchantId()),
+                                    "Cannot rotate to another merchant: %s", newCredentials);
+        credentials.set(newCredentials);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
     }
 
+    /**
+     * Releases the pooled connections and stops the transports. Calls still in flight fail: callers are expected to
+     * drain them first. Idempotent.
+     */
+    @Override
     public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            connectionWarmer.close();
+            if (gateway instanceof Closeable) {
+                Closeables.close((Closeable) gateway, true);
+            }
+            // A transport created concurrently with close() is closed by getAsyncTransport()
+            Closeables.close(asyncTransport.getAndSet(null), true);
+        } finally {
+            connectionPool.close();
+        }
+    }
+
+    public Map<String, Object> getConnectionPoolStatistics() {
+        return connectionPool.getStatistics();
+    }
+
+    public Map<String, Object> getConnectionWarmupStatistics() {
+        return connectionWarmer.getStatistics();
+    }
+
+    /**
+     * @return injected fault counts, null unless fault injection is enabled
+     */
+    public Map<String, Object> getFaultInjectionStatistics() {
+        return faultInjectingGateway == null ? null : faultInjectingGateway.getStatistics();
     }
 
-    public CieloEcommerce getCieloClient() {
-        if (this.client != null) return this.client;
+    public CieloGateway getGateway() {
+        return gateway;
+    }
+
+    // The NIO reactor is only started if asynchronous calls are actually made
+    public CieloAsyncTransport getAsyncTransport() {
+        final CieloAsyncTransport existing = asyncTransport.get();
+        if (existing != null) {
+            return existing;
+        }
+        Preconditions.checkState(!closed.get(), "Cielo client registry closed");
+
+        final CieloAsyncTransport created = new CieloAsyncTransport(config, credentialsSupplier, codec);
+        if (!asyncTransport.compareAndSet(null, created)) {
+            // Lost the race, the reactor we just started is not needed
+            closeQuietly(created);
+            return getAsyncTransport();
+        }
+        if (closed.get() && asyncTransport.compareAndSet(created, null)) {
+            closeQuietly(created);
+            throw new IllegalStateException("Cielo client registry closed");
+        }
+        return created;
+    }
+
+    private CieloGateway createGateway() {
+        if (config.useSdkTransport()) {
+            return new CieloSdkGateway(config, credentialsSupplier, connectionPool);
+        } else {
+            return new CieloHttpTransport(config, credentialsSupplier, connectionPool, codec);
+        }
+    }
 
-        Merchant merchant = new Merchant(config.getMerchantId(), config.getMerchantKey());
-        this.client = new CieloEcommerce(merchant, config.getEnvironment());
-        return this.client;
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            Closeables.close(closeable, true);
+        } catch (final IOException ignored) {
+            // Cannot happen, exceptions are swallowed
+        }
     }
 }
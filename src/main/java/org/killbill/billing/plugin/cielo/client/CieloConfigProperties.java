@@ -22,6 +22,8 @@ import cieloecommerce.sdk.ecommerce.Environment;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 public class CieloConfigProperties {
 
@@ -30,7 +32,70 @@ public class CieloConfigProperties {
     private static final String DEFAULT_ENVIRONMENT = "sandbox";
     private static final String DEFAULT_CONNECTION_TIMEOUT = "30000";
     private static final String DEFAULT_SOCKET_TIMEOUT = "60000";
-    private static final String DEFAULT_MAX_CONNECTIONS = "10";
+    private static final String DEFAULT_CONNECTION_REQUEST_TIMEOUT = "1000";
+    private static final String DEFAULT_IDLE_CONNECTION_TIMEOUT = "30000";
+    private static final String DEFAULT_KEEP_ALIVE_TIMEOUT = "60000";
+    private static final String DEFAULT_CALL_EXECUTOR_THREADS = "50";
+    private static final String DEFAULT_CALL_EXECUTOR_QUEUE_SIZE = "500";
+    private static final String DEFAULT_USE_VIRTUAL_THREADS = "true";
+    private static final String DEFAULT_CIRCUIT_BREAKER_ENABLED = "true";
+    private static final String DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "5";
+    private static final String DEFAULT_CIRCUIT_BREAKER_ERROR_RATE_THRESHOLD = "50";
+    private static final String DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = "20";
+    private static final String DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = "30000";
+    private static final String DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES = "1";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_ENABLED = "false";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_INITIAL_LIMIT = "20";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_MIN_LIMIT = "2";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_MAX_LIMIT = "200";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_MAX_WAIT = "1000";
+    private static final String DEFAULT_CONCURRENCY_LIMITER_LATENCY_TOLERANCE = "2.0";
+    private static final String DEFAULT_QUERY_HEDGING_ENABLED = "false";
+    private static final String DEFAULT_QUERY_HEDGING_DELAY = "0";
+    private static final String DEFAULT_QUERY_HEDGING_PERCENTILE = "95";
+    private static final String DEFAULT_QUERY_HEDGING_BUDGET_PERCENT = "10";
+    private static final String DEFAULT_RETRY_MAX_ATTEMPTS = "3";
+    private static final String DEFAULT_RETRY_INITIAL_BACKOFF = "100";
+    private static final String DEFAULT_RETRY_MAX_BACKOFF = "2000";
+    private static final String DEFAULT_RETRY_TIME_BUDGET = "10000";
+    private static final String DEFAULT_USE_SDK_TRANSPORT = "false";
+    private static final String DEFAULT_SHUTDOWN_GRACE_PERIOD = "10000";
+    private static final String DEFAULT_WARMUP_CONNECTIONS = "2";
+    private static final String DEFAULT_KEEP_ALIVE_PROBE_INTERVAL = "20000";
+    private static final String DEFAULT_JIT_WARMUP_ENABLED = "false";
+    private static final String DEFAULT_JIT_WARMUP_TIME_BUDGET = "5000";
+    private static final String DEFAULT_JIT_WARMUP_ITERATIONS = "20000";
+    private static final String DEFAULT_RATE_LIMIT_SALES_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_CAPTURES_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_QUERIES_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_TOKENIZATIONS_PER_SECOND = "0";
+    private static final String DEFAULT_RATE_LIMIT_BURST = "5";
+    private static final String DEFAULT_RATE_LIMIT_MAX_WAIT = "2000";
+    private static final String DEFAULT_RATE_LIMIT_SHARED = "false";
+    private static final String DEFAULT_RATE_LIMIT_LEASE_DURATION = "200";
+    private static final String DEFAULT_OPERATION_TIMEOUT = "0";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUTS_ENABLED = "false";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUT_PERCENTILE = "99.9";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUT_MULTIPLIER = "3";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUT_FLOOR = "2000";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUT_CEILING = "60000";
+    private static final String DEFAULT_ADAPTIVE_TIMEOUT_MIN_SAMPLES = "200";
+    private static final String DEFAULT_FAULT_INJECTION_ENABLED = "false";
+    private static final String DEFAULT_FAULT_RATE = "0";
+    private static final String DEFAULT_FAULT_LATENCY_SPIKE_MILLIS = "5000";
+    private static final String DEFAULT_FAULT_SLOW_FIRST_BYTE_MILLIS = "120000";
+    private static final String DEFAULT_LOOKUP_THREADS = "8";
+    private static final String DEFAULT_ACCOUNT_CACHE_SIZE = "10000";
+    private static final String DEFAULT_ACCOUNT_CACHE_EXPIRATION = "3600000";
+    private static final String DEFAULT_STATUS_REFRESH_TTL = "60000";
+    private static final String DEFAULT_STATUS_REFRESH_THREADS = "2";
+    private static final String DEFAULT_PENDING_POLL_ENABLED = "false";
+    private static final String DEFAULT_PENDING_POLL_INTERVAL = "10000";
+    private static final String DEFAULT_PENDING_POLL_THREADS = "4";
+    private static final String DEFAULT_PENDING_POLL_MAX_PER_RUN = "200";
+    private static final String DEFAULT_PENDING_POLL_INITIAL_BACKOFF = "10000";
+    private static final String DEFAULT_PENDING_POLL_MAX_BACKOFF = "3600000";
+    private static final String DEFAULT_PENDING_POLL_MAX_AGE = "604800000";
 
     private static final Map<String, Environment> ENV_MAP = new HashMap<String, Environment>() {
         {
@@ -41,18 +106,175 @@ public class CieloConfigProperties {
 
     private final String connectTimeout;
     private final String socketTimeout;
+    private final String connectionRequestTimeout;
     private final String maxConnections;
+    private final String idleConnectionTimeout;
+    private final String keepAliveTimeout;
+    private final String callExecutorThreads;
+    private final String callExecutorQueueSize;
+    private final String useVirtualThreads;
+    private final String circuitBreakerEnabled;
+    private final String circuitBreakerFailureThreshold;
+    private final String circuitBreakerErrorRateThreshold;
+    private final String circuitBreakerWindowSize;
+    private final String circuitBreakerOpenDuration;
+    private final String circuitBreakerHalfOpenProbes;
+    private final String concurrencyLimiterEnabled;
+    private final String concurrencyLimiterInitialLimit;
+    private final String concurrencyLimiterMinLimit;
+    private final String concurrencyLimiterMaxLimit;
+    private final String concurrencyLimiterMaxWait;
+    private final String concurrencyLimiterLatencyTolerance;
+    private final String queryHedgingEnabled;
+    private final String queryHedgingDelay;
+    private final String queryHedgingPercentile;
+    private final String queryHedgingBudgetPercent;
+    private final String retryMaxAttempts;
+    private final String retryInitialBackoff;
+    private final String retryMaxBackoff;
+    private final String retryTimeBudget;
+    private final String useSdkTransport;
+    private final String shutdownGracePeriod;
+    private final String warmupConnections;
+    private final String keepAliveProbeInterval;
+    private final String jitWarmupEnabled;
+    private final String jitWarmupTimeBudget;
+    private final String jitWarmupIterations;
+    private final String rateLimitSalesPerSecond;
+    private final String rateLimitCapturesPerSecond;
+    private final String rateLimitQueriesPerSecond;
+    private final String rateLimitTokenizationsPerSecond;
+    private final String rateLimitBurst;
+    private final String rateLimitMaxWait;
+    private final String rateLimitShared;
+    private final String rateLimitLeaseDuration;
+    private final String operationTimeout;
+    private final String adaptiveTimeoutsEnabled;
+    private final String adaptiveTimeoutPercentile;
+    private final String adaptiveTimeoutMultiplier;
+    private final String adaptiveTimeoutFloor;
+    private final String adaptiveTimeoutCeiling;
+    private final String adaptiveTimeoutMinSamples;
+    private final String faultInjectionEnabled;
+    private final String faultConnectRefusedRate;
+    private final String faultLatencySpikeRate;
+    private final String faultLatencySpikeMillis;
+    private final String faultSlowFirstByteRate;
+    private final String faultSlowFirstByteMillis;
+    private final String faultResetRate;
+    private final String faultMalformedResponseRate;
+    private final String lookupThreads;
+    private final String accountCacheSize;
+    private final String accountCacheExpiration;
+    private final String statusRefreshTtl;
+    private final String statusRefreshThreads;
+    private final String pendingPollEnabled;
+    private final String pendingPollInterval;
+    private final String pendingPollThreads;
+    private final String pendingPollMaxPerRun;
+    private final String pendingPollInitialBackoff;
+    private final String pendingPollMaxBackoff;
+    private final String pendingPollMaxAge;
     private final String merchantId;
     private final String merchantKey;
     private final Environment environment;
+    private final String apiUrl;
+    private final String apiQueryUrl;
+    private final SortedMap<String, String> clientSettings;
 
     public CieloConfigProperties(final Properties properties) {
         this.connectTimeout = properties.getProperty(PROPERTY_PREFIX + "connectTimeout", DEFAULT_CONNECTION_TIMEOUT);
         this.socketTimeout = properties.getProperty(PROPERTY_PREFIX + "socketTimeout", DEFAULT_SOCKET_TIMEOUT);
-        this.maxConnections = properties.getProperty(PROPERTY_PREFIX + "maxConnections", DEFAULT_MAX_CONNECTIONS);
+        this.connectionRequestTimeout = properties.getProperty(PROPERTY_PREFIX + "connectionRequestTimeout", DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+        // Defaults to the number of calls run at once, see getMaxConnections()
+        this.maxConnections = properties.getProperty(PROPERTY_PREFIX + "maxConnections");
+        this.idleConnectionTimeout = properties.getProperty(PROPERTY_PREFIX + "idleConnectionTimeout", DEFAULT_IDLE_CONNECTION_TIMEOUT);
+        this.keepAliveTimeout = properties.getProperty(PROPERTY_PREFIX + "keepAliveTimeout", DEFAULT_KEEP_ALIVE_TIMEOUT);
+        this.callExecutorThreads = properties.getProperty(PROPERTY_PREFIX + "callExecutorThreads", DEFAULT_CALL_EXECUTOR_THREADS);
+        this.callExecutorQueueSize = properties.getProperty(PROPERTY_PREFIX + "callExecutorQueueSize", DEFAULT_CALL_EXECUTOR_QUEUE_SIZE);
+        this.useVirtualThreads = properties.getProperty(PROPERTY_PREFIX + "useVirtualThreads", DEFAULT_USE_VIRTUAL_THREADS);
+        this.circuitBreakerEnabled = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerEnabled", DEFAULT_CIRCUIT_BREAKER_ENABLED);
+        this.circuitBreakerFailureThreshold = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerFailureThreshold", DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD);
+        this.circuitBreakerErrorRateThreshold = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerErrorRateThreshold", DEFAULT_CIRCUIT_BREAKER_ERROR_RATE_THRESHOLD);
+        this.circuitBreakerWindowSize = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerWindowSize", DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE);
+        this.circuitBreakerOpenDuration = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerOpenDuration", DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION);
+        this.circuitBreakerHalfOpenProbes = properties.getProperty(PROPERTY_PREFIX + "circuitBreakerHalfOpenProbes", DEFAULT_CIRCUIT_BREAKER_HALF_OPEN_PROBES);
+        this.concurrencyLimiterEnabled = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterEnabled", DEFAULT_CONCURRENCY_LIMITER_ENABLED);
+        this.concurrencyLimiterInitialLimit = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterInitialLimit", DEFAULT_CONCURRENCY_LIMITER_INITIAL_LIMIT);
+        this.concurrencyLimiterMinLimit = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterMinLimit", DEFAULT_CONCURRENCY_LIMITER_MIN_LIMIT);
+        this.concurrencyLimiterMaxLimit = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterMaxLimit", DEFAULT_CONCURRENCY_LIMITER_MAX_LIMIT);
+        this.concurrencyLimiterMaxWait = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterMaxWait", DEFAULT_CONCURRENCY_LIMITER_MAX_WAIT);
+        this.concurrencyLimiterLatencyTolerance = properties.getProperty(PROPERTY_PREFIX + "concurrencyLimiterLatencyTolerance", DEFAULT_CONCURRENCY_LIMITER_LATENCY_TOLERANCE);
+        this.queryHedgingEnabled = properties.getProperty(PROPERTY_PREFIX + "queryHedgingEnabled", DEFAULT_QUERY_HEDGING_ENABLED);
+        this.queryHedgingDelay = properties.getProperty(PROPERTY_PREFIX + "queryHedgingDelay", DEFAULT_QUERY_HEDGING_DELAY);
+        this.queryHedgingPercentile = properties.getProperty(PROPERTY_PREFIX + "queryHedgingPercentile", DEFAULT_QUERY_HEDGING_PERCENTILE);
+        this.queryHedgingBudgetPercent = properties.getProperty(PROPERTY_PREFIX + "queryHedgingBudgetPercent", DEFAULT_QUERY_HEDGING_BUDGET_PERCENT);
+        this.retryMaxAttempts = properties.getProperty(PROPERTY_PREFIX + "retryMaxAttempts", DEFAULT_RETRY_MAX_ATTEMPTS);
+        this.retryInitialBackoff = properties.getProperty(PROPERTY_PREFIX + "retryInitialBackoff", DEFAULT_RETRY_INITIAL_BACKOFF);
+        this.retryMaxBackoff = properties.getProperty(PROPERTY_PREFIX + "retryMaxBackoff", DEFAULT_RETRY_MAX_BACKOFF);
+        this.retryTimeBudget = properties.getProperty(PROPERTY_PREFIX + "retryTimeBudget", DEFAULT_RETRY_TIME_BUDGET);
+        this.useSdkTransport = properties.getProperty(PROPERTY_PREFIX + "useSdkTransport", DEFAULT_USE_SDK_TRANSPORT);
+        this.shutdownGracePeriod = properties.getProperty(PROPERTY_PREFIX + "shutdownGracePeriod", DEFAULT_SHUTDOWN_GRACE_PERIOD);
+        this.warmupConnections = properties.getProperty(PROPERTY_PREFIX + "warmupConnections", DEFAULT_WARMUP_CONNECTIONS);
+        this.keepAliveProbeInterval = properties.getProperty(PROPERTY_PREFIX + "keepAliveProbeInterval", DEFAULT_KEEP_ALIVE_PROBE_INTERVAL);
+        this.jitWarmupEnabled = properties.getProperty(PROPERTY_PREFIX + "jitWarmupEnabled", DEFAULT_JIT_WARMUP_ENABLED);
+        this.jitWarmupTimeBudget = properties.getProperty(PROPERTY_PREFIX + "jitWarmupTimeBudget", DEFAULT_JIT_WARMUP_TIME_BUDGET);
+        this.jitWarmupIterations = properties.getProperty(PROPERTY_PREFIX + "jitWarmupIterations", DEFAULT_JIT_WARMUP_ITERATIONS);
+        this.rateLimitSalesPerSecond = properties.getProperty(PROPERTY_PREFIX + "rateLimitSalesPerSecond", DEFAULT_RATE_LIMIT_SALES_PER_SECOND);
+        this.rateLimitCapturesPerSecond = properties.getProperty(PROPERTY_PREFIX + "rateLimitCapturesPerSecond", DEFAULT_RATE_LIMIT_CAPTURES_PER_SECOND);
+        this.rateLimitQueriesPerSecond = properties.getProperty(PROPERTY_PREFIX + "rateLimitQueriesPerSecond", DEFAULT_RATE_LIMIT_QUERIES_PER_SECOND);
+        this.rateLimitTokenizationsPerSecond = properties.getProperty(PROPERTY_PREFIX + "rateLimitTokenizationsPerSecond", DEFAULT_RATE_LIMIT_TOKENIZATIONS_PER_SECOND);
+        this.rateLimitBurst = properties.getProperty(PROPERTY_PREFIX + "rateLimitBurst", DEFAULT_RATE_LIMIT_BURST);
+        this.rateLimitMaxWait = properties.getProperty(PROPERTY_PREFIX + "rateLimitMaxWait", DEFAULT_RATE_LIMIT_MAX_WAIT);
+        this.rateLimitShared = properties.getProperty(PROPERTY_PREFIX + "rateLimitShared", DEFAULT_RATE_LIMIT_SHARED);
+        this.rateLimitLeaseDuration = properties.getProperty(PROPERTY_PREFIX + "rateLimitLeaseDuration", DEFAULT_RATE_LIMIT_LEASE_DURATION);
+        this.operationTimeout = properties.getProperty(PROPERTY_PREFIX + "operationTimeout", DEFAULT_OPERATION_TIMEOUT);
+        this.adaptiveTimeoutsEnabled = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutsEnabled", DEFAULT_ADAPTIVE_TIMEOUTS_ENABLED);
+        this.adaptiveTimeoutPercentile = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutPercentile", DEFAULT_ADAPTIVE_TIMEOUT_PERCENTILE);
+        this.adaptiveTimeoutMultiplier = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutMultiplier", DEFAULT_ADAPTIVE_TIMEOUT_MULTIPLIER);
+        this.adaptiveTimeoutFloor = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutFloor", DEFAULT_ADAPTIVE_TIMEOUT_FLOOR);
+        this.adaptiveTimeoutCeiling = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutCeiling", DEFAULT_ADAPTIVE_TIMEOUT_CEILING);
+        this.adaptiveTimeoutMinSamples = properties.getProperty(PROPERTY_PREFIX + "adaptiveTimeoutMinSamples", DEFAULT_ADAPTIVE_TIMEOUT_MIN_SAMPLES);
+        this.faultInjectionEnabled = properties.getProperty(PROPERTY_PREFIX + "faultInjectionEnabled", DEFAULT_FAULT_INJECTION_ENABLED);
+        this.faultConnectRefusedRate = properties.getProperty(PROPERTY_PREFIX + "faultConnectRefusedRate", DEFAULT_FAULT_RATE);
+        this.faultLatencySpikeRate = properties.getProperty(PROPERTY_PREFIX + "faultLatencySpikeRate", DEFAULT_FAULT_RATE);
+        this.faultLatencySpikeMillis = properties.getProperty(PROPERTY_PREFIX + "faultLatencySpikeMillis", DEFAULT_FAULT_LATENCY_SPIKE_MILLIS);
+        this.faultSlowFirstByteRate = properties.getProperty(PROPERTY_PREFIX + "faultSlowFirstByteRate", DEFAULT_FAULT_RATE);
+        this.faultSlowFirstByteMillis = properties.getProperty(PROPERTY_PREFIX + "faultSlowFirstByteMillis", DEFAULT_FAULT_SLOW_FIRST_BYTE_MILLIS);
+        this.faultResetRate = properties.getProperty(PROPERTY_PREFIX + "faultResetRate", DEFAULT_FAULT_RATE);
+        this.faultMalformedResponseRate = properties.getProperty(PROPERTY_PREFIX + "faultMalformedResponseRate", DEFAULT_FAULT_RATE);
+        this.lookupThreads = properties.getProperty(PROPERTY_PREFIX + "lookupThreads", DEFAULT_LOOKUP_THREADS);
+        this.accountCacheSize = properties.getProperty(PROPERTY_PREFIX + "accountCacheSize", DEFAULT_ACCOUNT_CACHE_SIZE);
+        this.accountCacheExpiration = properties.getProperty(PROPERTY_PREFIX + "accountCacheExpiration", DEFAULT_ACCOUNT_CACHE_EXPIRATION);
+        this.statusRefreshTtl = properties.getProperty(PROPERTY_PREFIX + "statusRefreshTtl", DEFAULT_STATUS_REFRESH_TTL);
+        this.statusRefreshThreads = properties.getProperty(PROPERTY_PREFIX + "statusRefreshThreads", DEFAULT_STATUS_REFRESH_THREADS);
+        this.pendingPollEnabled = properties.getProperty(PROPERTY_PREFIX + "pendingPollEnabled", DEFAULT_PENDING_POLL_ENABLED);
+        this.pendingPollInterval = properties.getProperty(PROPERTY_PREFIX + "pendingPollInterval", DEFAULT_PENDING_POLL_INTERVAL);
+        this.pendingPollThreads = properties.getProperty(PROPERTY_PREFIX + "pendingPollThreads", DEFAULT_PENDING_POLL_THREADS);
+        this.pendingPollMaxPerRun = properties.getProperty(PROPERTY_PREFIX + "pendingPollMaxPerRun", DEFAULT_PENDING_POLL_MAX_PER_RUN);
+        this.pendingPollInitialBackoff = properties.getProperty(PROPERTY_PREFIX + "pendingPollInitialBackoff", DEFAULT_PENDING_POLL_INITIAL_BACKOFF);
+        this.pendingPollMaxBackoff = properties.getProperty(PROPERTY_PREFIX + "pendingPollMaxBackoff", DEFAULT_PENDING_POLL_MAX_BACKOFF);
+        this.pendingPollMaxAge = properties.getProperty(PROPERTY_PREFIX + "pendingPollMaxAge", DEFAULT_PENDING_POLL_MAX_AGE);
         this.merchantId = properties.getProperty(PROPERTY_PREFIX + "merchantId");
         this.merchantKey = properties.getProperty(PROPERTY_PREFIX + "merchantKey");
         this.environment = ENV_MAP.get(properties.getProperty(PROPERTY_PREFIX + "environment", DEFAULT_ENVIRONMENT));
+        this.apiUrl = properties.getProperty(PROPERTY_PREFIX + "apiUrl");
+        this.apiQueryUrl = properties.getProperty(PROPERTY_PREFIX + "apiQueryUrl");
+
+        this.clientSettings = new TreeMap<String, String>();
+        for (final String name : properties.stringPropertyNames()) {
+            if (name.startsWith(PROPERTY_PREFIX) && !name.equals(PROPERTY_PREFIX + "merchantKey")) {
+                clientSettings.put(name, properties.getProperty(name));
+            }
+        }
+    }
+
+    /**
+     * @return the plugin properties, except the merchant key: two configurations of a tenant with the same settings
+     * only differ by a key rotation
+     */
+    public SortedMap<String, String> getClientSettings() {
+        return clientSettings;
     }
 
     public String getMerchantId() {
@@ -67,4 +289,309 @@ public class CieloConfigProperties {
         return environment;
     }
 
+    /**
+     * @return the base URL of the transactional API, the one of the environment unless overridden (e.g. to reach the emulator)
+     */
+    public String getApiUrl() {
+        return withTrailingSlash(apiUrl == null ? environment.getApiUrl() : apiUrl);
+    }
+
+    /**
+     * @return the base URL of the query API, the one of the environment unless overridden
+     */
+    public String getApiQueryUrl() {
+        return withTrailingSlash(apiQueryUrl == null ? environment.getApiQueryURL() : apiQueryUrl);
+    }
+
+    private static String withTrailingSlash(final String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    public int getConnectTimeout() {
+        return Integer.parseInt(connectTimeout);
+    }
+
+    public int getSocketTimeout() {
+        return Integer.parseInt(socketTimeout);
+    }
+
+    public int getConnectionRequestTimeout() {
+        return Integer.parseInt(connectionRequestTimeout);
+    }
+
+    /**
+     * Connections per Cielo host: unless configured, as many as the calls the executor runs at once, so that calls
+     * never wait for a connection.
+     */
+    public int getMaxConnections() {
+        return maxConnections == null ? getCallExecutorThreads() : Integer.parseInt(maxConnections);
+    }
+
+    public long getIdleConnectionTimeout() {
+        return Long.parseLong(idleConnectionTimeout);
+    }
+
+    public long getKeepAliveTimeout() {
+        return Long.parseLong(keepAliveTimeout);
+    }
+
+    public int getCallExecutorThreads() {
+        return Integer.parseInt(callExecutorThreads);
+    }
+
+    public int getCallExecutorQueueSize() {
+        return Integer.parseInt(callExecutorQueueSize);
+    }
+
+    public boolean useVirtualThreads() {
+        return Boolean.parseBoolean(useVirtualThreads);
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return Boolean.parseBoolean(circuitBreakerEnabled);
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return Integer.parseInt(circuitBreakerFailureThreshold);
+    }
+
+    public int getCircuitBreakerErrorRateThreshold() {
+        return Integer.parseInt(circuitBreakerErrorRateThreshold);
+    }
+
+    public int getCircuitBreakerWindowSize() {
+        return Integer.parseInt(circuitBreakerWindowSize);
+    }
+
+    public long getCircuitBreakerOpenDuration() {
+        return Long.parseLong(circuitBreakerOpenDuration);
+    }
+
+    public int getCircuitBreakerHalfOpenProbes() {
+        return Integer.parseInt(circuitBreakerHalfOpenProbes);
+    }
+
+    public boolean isConcurrencyLimiterEnabled() {
+        return Boolean.parseBoolean(concurrencyLimiterEnabled);
+    }
+
+    public int getConcurrencyLimiterInitialLimit() {
+        return Integer.parseInt(concurrencyLimiterInitialLimit);
+    }
+
+    public int getConcurrencyLimiterMinLimit() {
+        return Integer.parseInt(concurrencyLimiterMinLimit);
+    }
+
+    public int getConcurrencyLimiterMaxLimit() {
+        return Integer.parseInt(concurrencyLimiterMaxLimit);
+    }
+
+    public long getConcurrencyLimiterMaxWait() {
+        return Long.parseLong(concurrencyLimiterMaxWait);
+    }
+
+    public double getConcurrencyLimiterLatencyTolerance() {
+        return Double.parseDouble(concurrencyLimiterLatencyTolerance);
+    }
+
+    public boolean isQueryHedgingEnabled() {
+        return Boolean.parseBoolean(queryHedgingEnabled);
+    }
+
+    public long getQueryHedgingDelay() {
+        return Long.parseLong(queryHedgingDelay);
+    }
+
+    public double getQueryHedgingPercentile() {
+        return Double.parseDouble(queryHedgingPercentile);
+    }
+
+    public int getQueryHedgingBudgetPercent() {
+        return Integer.parseInt(queryHedgingBudgetPercent);
+    }
+
+    public int getRetryMaxAttempts() {
+        return Integer.parseInt(retryMaxAttempts);
+    }
+
+    public long getRetryInitialBackoff() {
+        return Long.parseLong(retryInitialBackoff);
+    }
+
+    public long getRetryMaxBackoff() {
+        return Long.parseLong(retryMaxBackoff);
+    }
+
+    public long getRetryTimeBudget() {
+        return Long.parseLong(retryTimeBudget);
+    }
+
+    public boolean useSdkTransport() {
+        return Boolean.parseBoolean(useSdkTransport);
+    }
+
+    public long getShutdownGracePeriod() {
+        return Long.parseLong(shutdownGracePeriod);
+    }
+
+    public int getWarmupConnections() {
+        return Integer.parseInt(warmupConnections);
+    }
+
+    public long getKeepAliveProbeInterval() {
+        return Long.parseLong(keepAliveProbeInterval);
+    }
+
+    public boolean isJitWarmupEnabled() {
+        return Boolean.parseBoolean(jitWarmupEnabled);
+    }
+
+    public long getJitWarmupTimeBudget() {
+        return Long.parseLong(jitWarmupTimeBudget);
+    }
+
+    public int getJitWarmupIterations() {
+        return Integer.parseInt(jitWarmupIterations);
+    }
+
+    public double getRateLimitSalesPerSecond() {
+        return Double.parseDouble(rateLimitSalesPerSecond);
+    }
+
+    public double getRateLimitCapturesPerSecond() {
+        return Double.parseDouble(rateLimitCapturesPerSecond);
+    }
+
+    public double getRateLimitQueriesPerSecond() {
+        return Double.parseDouble(rateLimitQueriesPerSecond);
+    }
+
+    public double getRateLimitTokenizationsPerSecond() {
+        return Double.parseDouble(rateLimitTokenizationsPerSecond);
+    }
+
+    public int getRateLimitBurst() {
+        return Integer.parseInt(rateLimitBurst);
+    }
+
+    public long getRateLimitMaxWait() {
+        return Long.parseLong(rateLimitMaxWait);
+    }
+
+    public boolean isRateLimitShared() {
+        return Boolean.parseBoolean(rateLimitShared);
+    }
+
+    public long getRateLimitLeaseDuration() {
+        return Long.parseLong(rateLimitLeaseDuration);
+    }
+
+    public long getOperationTimeout() {
+        return Long.parseLong(operationTimeout);
+    }
+
+    public boolean isAdaptiveTimeoutsEnabled() {
+        return Boolean.parseBoolean(adaptiveTimeoutsEnabled);
+    }
+
+    public double getAdaptiveTimeoutPercentile() {
+        return Double.parseDouble(adaptiveTimeoutPercentile);
+    }
+
+    public double getAdaptiveTimeoutMultiplier() {
+        return Double.parseDouble(adaptiveTimeoutMultiplier);
+    }
+
+    public int getAdaptiveTimeoutFloor() {
+        return Integer.parseInt(adaptiveTimeoutFloor);
+    }
+
+    public int getAdaptiveTimeoutCeiling() {
+        return Integer.parseInt(adaptiveTimeoutCeiling);
+    }
+
+    public int getAdaptiveTimeoutMinSamples() {
+        return Integer.parseInt(adaptiveTimeoutMinSamples);
+    }
+
+    public boolean isFaultInjectionEnabled() {
+        return Boolean.parseBoolean(faultInjectionEnabled);
+    }
+
+    public double getFaultConnectRefusedRate() {
+        return Double.parseDouble(faultConnectRefusedRate);
+    }
+
+    public double getFaultLatencySpikeRate() {
+        return Double.parseDouble(faultLatencySpikeRate);
+    }
+
+    public long getFaultLatencySpikeMillis() {
+        return Long.parseLong(faultLatencySpikeMillis);
+    }
+
+    public double getFaultSlowFirstByteRate() {
+        return Double.parseDouble(faultSlowFirstByteRate);
+    }
+
+    public long getFaultSlowFirstByteMillis() {
+        return Long.parseLong(faultSlowFirstByteMillis);
+    }
+
+    public double getFaultResetRate() {
+        return Double.parseDouble(faultResetRate);
+    }
+
+    public double getFaultMalformedResponseRate() {
+        return Double.parseDouble(faultMalformedResponseRate);
+    }
+
+    public int getLookupThreads() {
+        return Integer.parseInt(lookupThreads);
+    }
+
+    public long getAccountCacheSize() {
+        return Long.parseLong(accountCacheSize);
+    }
+
+    public long getAccountCacheExpiration() {
+        return Long.parseLong(accountCacheExpiration);
+    }
+
+    public long getStatusRefreshTtl() {
+        return Long.parseLong(statusRefreshTtl);
+    }
+
+    public int getStatusRefreshThreads() {
+        return Integer.parseInt(statusRefreshThreads);
+    }
+
+    public boolean isPendingPollEnabled() {
+        return Boolean.parseBoolean(pendingPollEnabled);
+    }
+
+    public long getPendingPollInterval() {
+        return Long.parseLong(pendingPollInterval);
+    }
+
+    public int getPendingPollThreads() {
+        return Integer.parseInt(pendingPollThreads);
+    }
+
+    public int getPendingPollMaxPerRun() {
+        return Integer.parseInt(pendingPollMaxPerRun);
+    }
+
+    public long getPendingPollInitialBackoff() {
+        return Long.parseLong(pendingPollInitialBackoff);
+    }
+
+    public long getPendingPollMaxBackoff() {
+        return Long.parseLong(pendingPollMaxBackoff);
+    }
+
+    public long getPendingPollMaxAge() {
+        return Long.parseLong(pendingPollMaxAge);
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keep-alive connection pool shared by all the calls made on behalf of a merchant.
+ * <p>
+ * The Cielo SDK creates a new HttpClient (hence a new connection and TLS handshake) for every request
+ * unless one is provided: this pool is handed over to the SDK so that connections are reused and
+ * the configured timeouts are actually enforced.
+ */
+public class CieloConnectionPool implements Closeable {
+
+    // Cielo serves transactions and queries from two different hosts
+    private static final int ROUTES_PER_MERCHANT = 2;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public CieloConnectionPool(final CieloConfigProperties config) {
+        Preconditions.checkNotNull(config, "config");
+
+        this.connectionManager = new TimedConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(config.getMaxConnections());
+        this.connectionManager.setMaxTotal(config.getMaxConnections() * ROUTES_PER_MERCHANT);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                                                         .setConnectTimeout(config.getConnectTimeout())
+                                                         .setSocketTimeout(config.getSocketTimeout())
+                                                         .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                                                         .build();
+
+        this.httpClient = HttpClients.custom()
+                                     .setConnectionManager(connectionManager)
+                                     .setRequestExecutor(new TimedRequestExecutor())
+                                     .setDefaultRequestConfig(requestConfig)
+                                     .setKeepAliveStrategy(new BoundedKeepAliveStrategy(config.getKeepAliveTimeout()))
+                                     .evictExpiredConnections()
+                                     .evictIdleConnections(config.getIdleConnectionTimeout(), TimeUnit.MILLISECONDS)
+                                     .build();
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    PoolingHttpClientConnectionManager getConnectionManager() {
+        return connectionManager;
+    }
+
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    public Map<String, Object> getStatistics() {
+        final PoolStats stats = connectionManager.getTotalStats();
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("leased", stats.getLeased());
+        statistics.put("available", stats.getAvailable());
+        statistics.put("pending", stats.getPending());
+        statistics.put("max", stats.getMax());
+        return statistics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Also shuts down the connection manager and the idle connection evictor
+        httpClient.close();
+    }
+
+    /**
+     * Honors the Keep-Alive header sent by Cielo, but never keeps a connection longer than configured.
+     */
+    private static final class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long keepAliveTimeout;
+
+        private BoundedKeepAliveStrategy(final long keepAliveTimeout) {
+            this.keepAliveTimeout = keepAliveTimeout;
+        }
+
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            final long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveTimeout) : keepAliveTimeout;
+        }
+    }
+
+    /**
+     * Reports the TCP connect and TLS handshake time to the {@link CieloCallTimer} of the calling thread.
+     */
+    private static final class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+
+        @Override
+        public void connect(final HttpClientConnection managedConn, final HttpRoute route, final int connectTimeout, final HttpContext context) throws IOException {
+            final long startedAt = System.nanoTime();
+            try {
+                super.connect(managedConn, route, connectTimeout, context);
+            } finally {
+                CieloCallTimer.recordConnect(System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    /**
+     * Reports the request write time and the time to the first byte of the response (its headers) to the
+     * {@link CieloCallTimer} of the calling thread. The response body is read while decoding.
+     */
+    private static final class TimedRequestExecutor extends HttpRequestExecutor {
+
+        @Override
+        protected HttpResponse doSendRequest(final HttpRequest request, final HttpClientConnection conn, final HttpContext context) throws IOException, HttpException {
+            final long startedAt = System.nanoTime();
+            try {
+                return super.doSendRequest(request, conn, context);
+            } finally {
+                CieloCallTimer.recordRequestWrite(System.nanoTime() - startedAt);
+            }
+        }
+
+        @Override
+        protected HttpResponse doReceiveResponse(final HttpRequest request, final HttpClientConnection conn, final HttpContext context) throws HttpException, IOException {
+            final long startedAt = System.nanoTime();
+            try {
+                return super.doReceiveResponse(request, conn, context);
+            } finally {
+                CieloCallTimer.recordTimeToFirstByte(System.nanoTime() - startedAt);
+            }
+        }
+    }
+}
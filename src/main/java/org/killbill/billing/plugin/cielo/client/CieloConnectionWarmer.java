@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Opens connections to Cielo ahead of the first payments, so that they do not pay for the DNS resolution, the TCP connect
+ * and the TLS handshake, then keeps them open while the merchant is idle by sending a HEAD request over each of them.
+ * <p>
+ * Everything runs on a background thread: a failed warm-up only means that the first calls open their own connections.
+ */
+public class CieloConnectionWarmer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloConnectionWarmer.class);
+
+    enum State {
+        PENDING,
+        WARMING,
+        WARM,
+        FAILED
+    }
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final List<HttpRoute> routes;
+    private final int connectionsPerRoute;
+    private final long keepAliveProbeInterval;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final long keepAliveTimeout;
+    private final HttpRequestExecutor requestExecutor = new HttpRequestExecutor();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile State state = State.PENDING;
+    private volatile long warmupMillis = -1;
+    private final AtomicInteger warmedConnections = new AtomicInteger();
+    private final AtomicInteger failedConnections = new AtomicInteger();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+
+    public CieloConnectionWarmer(final CieloConfigProperties config, final CieloConnectionPool connectionPool) {
+        this.connectionManager = connectionPool.getConnectionManager();
+        this.routes = routes(config);
+        this.connectionsPerRoute = Math.min(config.getWarmupConnections(), config.getMaxConnections());
+        this.keepAliveProbeInterval = config.getKeepAliveProbeInterval();
+        this.connectTimeout = config.getConnectTimeout();
+        this.socketTimeout = config.getSocketTimeout();
+        this.keepAliveTimeout = config.getKeepAliveTimeout();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("cielo-connection-warmer-%d")
+                                                                                             .setDaemon(true)
+                                                                                             .build());
+    }
+
+    /**
+     * Returns right away, the connections are opened in the background.
+     */
+    public void start() {
+        if (connectionsPerRoute <= 0) {
+            return;
+        }
+
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmUp();
+            }
+        });
+        if (keepAliveProbeInterval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    probe();
+                }
+            }, keepAliveProbeInterval, keepAliveProbeInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("state", state.toString());
+        statistics.put("targetConnections", connectionsPerRoute * routes.size());
+        statistics.put("warmedConnections", warmedConnections.get());
+        statistics.put("failedConnections", failedConnections.get());
+        statistics.put("warmupMillis", warmupMillis);
+        statistics.put("probes", probes.get());
+        statistics.put("failedProbes", failedProbes.get());
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void warmUp() {
+        state = State.WARMING;
+        final long startedAt = System.nanoTime();
+        for (final HttpRoute route : routes) {
+            // Leased together, otherwise the pool would hand over the same connection again
+            final List<HttpClientConnection> connections = lease(route, connectionsPerRoute);
+            try {
+                for (final HttpClientConnection connection : connections) {
+                    if (connect(connection, route)) {
+                        warmedConnections.incrementAndGet();
+                    } else {
+                        failedConnections.incrementAndGet();
+                    }
+                }
+            } finally {
+                release(connections);
+            }
+        }
+        warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        state = warmedConnections.get() > 0 ? State.WARM : State.FAILED;
+        logger.info("Cielo connection warm-up {}: {} connections opened, {} failed, in {} ms", state, warmedConnections.get(), failedConnections.get(), warmupMillis);
+    }
+
+    private void probe() {
+        for (final HttpRoute route : routes) {
+            // Connections in use are warm already, and the pool should not be held while the merchant is busy
+            if (connectionManager.getStats(route).getLeased() > 0) {
+                continue;
+            }
+
+            final List<HttpClientConnection> connections = lease(route, connectionsPerRoute);
+            try {
+                for (final HttpClientConnection connection : connections) {
+                    probes.incrementAndGet();
+                    if (!connection.isOpen() && !connect(connection, route)) {
+                        failedProbes.incrementAndGet();
+                    } else if (!sendProbe(connection, route)) {
+                        failedProbes.incrementAndGet();
+                        closeQuietly(connection);
+                    }
+                }
+            } finally {
+                release(connections);
+            }
+        }
+    }
+
+    private List<HttpClientConnection> lease(final HttpRoute route, final int count) {
+        final List<HttpClientConnection> connections = new ArrayList<HttpClientConnection>(count);
+        for (int i = 0; i < count; i++) {
+            final ConnectionRequest request = connectionManager.requestConnection(route, null);
+            try {
+                connections.add(request.get(connectTimeout, TimeUnit.MILLISECONDS));
+            } catch (final ConnectionPoolTimeoutException e) {
+                // Pool exhausted by actual calls
+                break;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final ExecutionException e) {
+                logger.debug("Unable to lease a connection to {}", route, e);
+                break;
+            }
+        }
+        return connections;
+    }
+
+    private boolean connect(final HttpClientConnection connection, final HttpRoute route) {
+        if (connection.isOpen()) {
+            return true;
+        }
+        try {
+            final HttpClientContext context = HttpClientContext.create();
+            connectionManager.connect(connection, route, connectTimeout, context);
+            connectionManager.routeComplete(connection, route, context);
+            return true;
+        } catch (final IOException e) {
+            logger.debug("Unable to open a connection to {}", route, e);
+            closeQuietly(connection);
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the connection can be kept
+     */
+    private boolean sendProbe(final HttpClientConnection connection, final HttpRoute route) {
+        final BasicHttpRequest request = new BasicHttpRequest("HEAD", "/");
+        request.addHeader("Host", route.getTargetHost().toHostString());
+        request.addHeader("User-Agent", CieloHttpSupport.USER_AGENT);
+        try {
+            final HttpClientContext context = HttpClientContext.create();
+            connection.setSocketTimeout(socketTimeout);
+            final HttpResponse response = requestExecutor.execute(request, connection, context);
+            return DefaultConnectionReuseStrategy.INSTANCE.keepAlive(response, context);
+        } catch (final Exception e) {
+            logger.debug("Keep-alive probe to {} failed", route, e);
+            return false;
+        }
+    }
+
+    private void release(final List<HttpClientConnection> connections) {
+        for (final HttpClientConnection connection : connections) {
+            connectionManager.releaseConnection(connection, null, keepAliveTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void closeQuietly(final HttpClientConnection connection) {
+        try {
+            connection.close();
+        } catch (final IOException ignored) {
+            // Released as closed, the pool discards it
+        }
+    }
+
+    private static List<HttpRoute> routes(final CieloConfigProperties config) {
+        final Set<HttpRoute> routes = new LinkedHashSet<HttpRoute>();
+        for (final String url : new String[]{config.getApiUrl(), config.getApiQueryUrl()}) {
+            final URI uri = URI.create(url);
+            final boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            final int port = uri.getPort() > 0 ? uri.getPort() : (secure ? 443 : 80);
+            // Same route as the one HttpClient computes for the calls, so that they get the warmed connections
+            routes.add(new HttpRoute(new HttpHost(uri.getHost(), port, uri.getScheme()), null, secure));
+        }
+        return new ArrayList<HttpRoute>(routes);
+    }
+}
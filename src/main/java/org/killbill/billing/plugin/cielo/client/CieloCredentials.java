@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import com.google.common.base.Objects;
+
+/**
+ * Merchant id and key sent along with every call. Immutable, so that they can be swapped atomically.
+ */
+public final class CieloCredentials {
+
+    private final String merchantId;
+    private final String merchantKey;
+
+    public CieloCredentials(final String merchantId, final String merchantKey) {
+        this.merchantId = merchantId;
+        this.merchantKey = merchantKey;
+    }
+
+    public String getMerchantId() {
+        return merchantId;
+    }
+
+    public String getMerchantKey() {
+        return merchantKey;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final CieloCredentials that = (CieloCredentials) o;
+        return Objects.equal(merchantId, that.merchantId) && Objects.equal(merchantKey, that.merchantKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(merchantId, merchantKey);
+    }
+
+    @Override
+    public String toString() {
+        // Never log the key
+        return "CieloCredentials{merchantId='" + merchantId + "'}";
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Environment;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+import org.apache.http.MalformedChunkCodingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Closeables;
+
+/**
+ * Gateway decorator failing a share of the calls the way an unreliable network or Cielo would, to check the error
+ * statuses, the timeouts and the resilience features under load.
+ * <p>
+ * Faults are raised as the exceptions the transports actually throw, at the point of the call where they would happen:
+ * <ul>
+ * <li>connect refusal: before anything is sent</li>
+ * <li>latency spike: extra delay before the request is sent</li>
+ * <li>slow first byte: the request goes through, then the response is delayed, past the socket timeout if long enough</li>
+ * <li>reset: the request goes through, then the connection breaks while the response is read</li>
+ * <li>malformed JSON: the request goes through, then a truncated response is handed to the decoder</li>
+ * </ul>
+ * Ignored against the production environment.
+ */
+public class CieloFaultInjectingGateway implements CieloGateway, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloFaultInjectingGateway.class);
+
+    private static final byte[] MALFORMED_SALE = "{\"MerchantOrderId\":\"0\",\"Payment\":{\"PaymentId\":\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MALFORMED_CARD = "{\"CardToken\":".getBytes(StandardCharsets.UTF_8);
+
+    private final CieloGateway delegate;
+    private final CieloConfigProperties config;
+    private final CieloJsonCodec codec;
+    private final double connectRefusedRate;
+    private final double latencySpikeRate;
+    private final long latencySpikeMillis;
+    private final double slowFirstByteRate;
+    private final long slowFirstByteMillis;
+    private final double resetRate;
+    private final double malformedResponseRate;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong connectRefusals = new AtomicLong();
+    private final AtomicLong latencySpikes = new AtomicLong();
+    private final AtomicLong slowFirstBytes = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong malformedResponses = new AtomicLong();
+
+    public CieloFaultInjectingGateway(final CieloConfigProperties config, final CieloGateway delegate, final CieloJsonCodec codec) {
+        this.delegate = delegate;
+        this.config = config;
+        this.codec = codec;
+        this.connectRefusedRate = config.getFaultConnectRefusedRate();
+        this.latencySpikeRate = config.getFaultLatencySpikeRate();
+        this.latencySpikeMillis = config.getFaultLatencySpikeMillis();
+        this.slowFirstByteRate = config.getFaultSlowFirstByteRate();
+        this.slowFirstByteMillis = config.getFaultSlowFirstByteMillis();
+        this.resetRate = config.getFaultResetRate();
+        this.malformedResponseRate = config.getFaultMalformedResponseRate();
+        logger.warn("Cielo fault injection enabled for merchant {}: calls will fail on purpose", config.getMerchantId());
+    }
+
+    public static boolean isEnabled(final CieloConfigProperties config) {
+        if (!config.isFaultInjectionEnabled()) {
+            return false;
+        }
+        if (config.getEnvironment() == Environment.PRODUCTION) {
+            logger.warn("Cielo fault injection is not available in production, ignoring it for merchant {}", config.getMerchantId());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Sale createSale(final Sale sale) throws CieloRequestException, IOException {
+        beforeSend();
+        return afterSend(delegate.createSale(sale));
+    }
+
+    @Override
+    public Sale querySale(final String paymentId) throws CieloRequestException, IOException {
+        beforeSend();
+        return afterSend(delegate.querySale(paymentId));
+    }
+
+    @Override
+    public Sale captureSale(final String paymentId, final Integer amount) throws CieloRequestException, IOException {
+        beforeSend();
+        return afterSend(delegate.captureSale(paymentId, amount));
+    }
+
+    @Override
+    public Sale cancelSale(final String paymentId) throws CieloRequestException, IOException {
+        beforeSend();
+        return afterSend(delegate.cancelSale(paymentId));
+    }
+
+    @Override
+    public CreditCard tokenizeCard(final CreditCard card) throws CieloRequestException, IOException {
+        beforeSend();
+        final CreditCard result = delegate.tokenizeCard(card);
+        if (afterSendFails()) {
+            return codec.readCreditCard(new ByteArrayInputStream(MALFORMED_CARD));
+        }
+        return result;
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("calls", calls.get());
+        statistics.put("connectRefusals", connectRefusals.get());
+        statistics.put("latencySpikes", latencySpikes.get());
+        statistics.put("slowFirstBytes", slowFirstBytes.get());
+        statistics.put("resets", resets.get());
+        statistics.put("malformedResponses", malformedResponses.get());
+        return statistics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            Closeables.close((Closeable) delegate, true);
+        }
+    }
+
+    private void beforeSend() throws IOException {
+        calls.incrementAndGet();
+        if (draw(connectRefusedRate)) {
+            connectRefusals.incrementAndGet();
+            throw new ConnectException("Connection refused (Connection refused)");
+        }
+        if (draw(latencySpikeRate)) {
+            latencySpikes.incrementAndGet();
+            sleep(latencySpikeMillis);
+        }
+    }
+
+    private Sale afterSend(final Sale result) throws IOException {
+        if (afterSendFails()) {
+            return codec.readSale(new ByteArrayInputStream(MALFORMED_SALE));
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the response must be replaced by a malformed one, other faults are thrown
+     */
+    private boolean afterSendFails() throws IOException {
+        if (draw(slowFirstByteRate)) {
+            slowFirstBytes.incrementAndGet();
+            final int socketTimeout = CieloCallTimeouts.socketTimeout(config.getSocketTimeout());
+            if (socketTimeout > 0 && slowFirstByteMillis >= socketTimeout) {
+                sleep(socketTimeout);
+                throw new SocketTimeoutException("Read timed out");
+            }
+            sleep(slowFirstByteMillis);
+        }
+        if (draw(resetRate)) {
+            resets.incrementAndGet();
+            // Either way HttpClient reports a connection broken while the body is read
+            if (ThreadLocalRandom.current().nextBoolean()) {
+                throw new SocketException("Connection reset");
+            }
+            throw new MalformedChunkCodingException("Bogus chunk size");
+        }
+        if (draw(malformedResponseRate)) {
+            malformedResponses.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean draw(final double rate) {
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static void sleep(final long millis) throws InterruptedIOException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while injecting a delay");
+        }
+    }
+}
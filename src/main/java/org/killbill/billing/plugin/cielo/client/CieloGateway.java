@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.IOException;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+
+/**
+ * Blocking calls to the Cielo API, whatever the underlying transport.
+ * <p>
+ * Implementations report failures the same way the Cielo SDK does (CieloRequestException when Cielo rejects the request,
+ * IOException otherwise), so that they map to the same CieloCallErrorStatus.
+ */
+public interface CieloGateway {
+
+    Sale createSale(Sale sale) throws CieloRequestException, IOException;
+
+    Sale querySale(String paymentId) throws CieloRequestException, IOException;
+
+    Sale captureSale(String paymentId, Integer amount) throws CieloRequestException, IOException;
+
+    Sale cancelSale(String paymentId) throws CieloRequestException, IOException;
+
+    CreditCard tokenizeCard(CreditCard card) throws CieloRequestException, IOException;
+}
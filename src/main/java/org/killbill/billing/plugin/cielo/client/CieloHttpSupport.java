@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+
+import cieloecommerce.sdk.ecommerce.request.CieloError;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import com.google.common.net.UrlEscapers;
+
+/**
+ * Request and response handling shared by the plugin transports.
+ */
+final class CieloHttpSupport {
+
+    static final String USER_AGENT = "CieloEcommerce/3.0 Killbill plugin";
+
+    private CieloHttpSupport() {}
+
+    interface ResponseReader<T> {
+
+        T read(InputStream content) throws IOException;
+    }
+
+    static String salesUrl(final CieloConfigProperties config) {
+        return config.getApiUrl() + "1/sales/";
+    }
+
+    static String saleQueryUrl(final CieloConfigProperties config, final String paymentId) {
+        return config.getApiQueryUrl() + "1/sales/" + paymentId;
+    }
+
+    static String merchantOrderQueryUrl(final CieloConfigProperties config, final String merchantOrderId) {
+        return config.getApiQueryUrl() + "1/sales?merchantOrderId=" + UrlEscapers.urlFormParameterEscaper().escape(merchantOrderId);
+    }
+
+    static String captureUrl(final CieloConfigProperties config, final String paymentId, final Integer amount) {
+        return config.getApiUrl() + "1/sales/" + paymentId + "/capture" + (amount == null ? "" : "?amount=" + amount);
+    }
+
+    static String voidUrl(final CieloConfigProperties config, final String paymentId, final Integer amount) {
+        return config.getApiUrl() + "1/sales/" + paymentId + "/void" + (amount == null ? "" : "?amount=" + amount);
+    }
+
+    static String cardUrl(final CieloConfigProperties config) {
+        return config.getApiUrl() + "1/card/";
+    }
+
+    /**
+     * Credentials are read once per request, so that a request never mixes the id and key of two rotations.
+     */
+    static void addHeaders(final HttpRequest request, final CieloCredentials credentials) {
+        request.addHeader("Accept", "application/json");
+        request.addHeader("User-Agent", USER_AGENT);
+        request.addHeader("MerchantId", credentials.getMerchantId());
+        request.addHeader("MerchantKey", credentials.getMerchantKey());
+        request.addHeader("RequestId", UUID.randomUUID().toString());
+    }
+
+    /**
+     * Request body encoded upfront: it is sent with a Content-Length rather than chunked, and can be sent again
+     * (retries, redirects).
+     */
+    static HttpEntity bufferedEntity(final byte[] json) {
+        return new ByteArrayEntity(json, ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * Same status code handling as the SDK requests, so that failures map to the same CieloCallErrorStatus.
+     */
+    static <T> T readResponse(final HttpResponse response, final CieloJsonCodec codec, final ResponseReader<T> reader) throws IOException, CieloRequestException {
+        final HttpEntity entity = response.getEntity();
+        final long startedAt = System.nanoTime();
+        try {
+            return decodeResponse(response.getStatusLine().getStatusCode(), entity == null ? null : entity.getContent(), codec, reader);
+        } finally {
+            CieloCallTimer.recordDecode(System.nanoTime() - startedAt);
+        }
+    }
+
+    private static <T> T decodeResponse(final int statusCode, @Nullable final InputStream content, final CieloJsonCodec codec, final ResponseReader<T> reader) throws IOException, CieloRequestException {
+        switch (statusCode) {
+            case 200:
+            case 201:
+                if (content == null) {
+                    throw new IOException("Invalid Http response " + statusCode + ": no content");
+                }
+                return reader.read(content);
+            case 400:
+                final List<CieloError> errors = content == null ? null : codec.readErrors(content);
+                CieloRequestException exception = null;
+                if (errors != null) {
+                    for (final CieloError error : errors) {
+                        exception = new CieloRequestException(error.getMessage(), error, exception);
+                    }
+                }
+                if (exception != null) {
+                    throw exception;
+                }
+                throw new IOException("Invalid Http response " + statusCode);
+            case 404:
+                throw new CieloRequestException("Not found", new CieloError(404, "Not found"), null);
+            default:
+                throw new IOException("Invalid Http response " + statusCode);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+/**
+ * Blocking calls over the pooled connections of the merchant, using the plugin streaming codec rather than the SDK mapping.
+ */
+public class CieloHttpTransport implements CieloGateway {
+
+    private final CieloConfigProperties config;
+    private final Supplier<CieloCredentials> credentials;
+    private final CloseableHttpClient httpClient;
+    private final CieloJsonCodec codec;
+
+    public CieloHttpTransport(final CieloConfigProperties config, final Supplier<CieloCredentials> credentials, final CieloConnectionPool connectionPool, final CieloJsonCodec codec) {
+        this.config = Preconditions.checkNotNull(config, "config");
+        this.credentials = Preconditions.checkNotNull(credentials, "credentials");
+        this.httpClient = connectionPool.getHttpClient();
+        this.codec = codec;
+    }
+
+    @Override
+    public Sale createSale(final Sale sale) throws CieloRequestException, IOException {
+        final HttpPost request = new HttpPost(CieloHttpSupport.salesUrl(config));
+        request.setEntity(CieloHttpSupport.bufferedEntity(codec.toByteArray(sale)));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSale(content);
+            }
+        });
+    }
+
+    @Override
+    public Sale querySale(final String paymentId) throws CieloRequestException, IOException {
+        final HttpGet request = new HttpGet(CieloHttpSupport.saleQueryUrl(config, paymentId));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSale(content);
+            }
+        });
+    }
+
+    @Override
+    public Sale captureSale(final String paymentId, final Integer amount) throws CieloRequestException, IOException {
+        final HttpPut request = new HttpPut(CieloHttpSupport.captureUrl(config, paymentId, amount));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSaleUpdate(paymentId, content);
+            }
+        });
+    }
+
+    @Override
+    public Sale cancelSale(final String paymentId) throws CieloRequestException, IOException {
+        final HttpPut request = new HttpPut(CieloHttpSupport.voidUrl(config, paymentId, null));
+        return execute(request, new CieloHttpSupport.ResponseReader<Sale>() {
+            @Override
+            public Sale read(final InputStream content) throws IOException {
+                return codec.readSaleUpdate(paymentId, content);
+            }
+        });
+    }
+
+    @Override
+    public CreditCard tokenizeCard(final CreditCard card) throws CieloRequestException, IOException {
+        final HttpPost request = new HttpPost(CieloHttpSupport.cardUrl(config));
+        request.setEntity(CieloHttpSupport.bufferedEntity(codec.toByteArray(card)));
+        return execute(request, new CieloHttpSupport.ResponseReader<CreditCard>() {
+            @Override
+            public CreditCard read(final InputStream content) throws IOException {
+                return codec.readCreditCard(content);
+            }
+        });
+    }
+
+    private <T> T execute(final HttpRequestBase request, final CieloHttpSupport.ResponseReader<T> reader) throws CieloRequestException, IOException {
+        CieloHttpSupport.addHeaders(request, credentials.get());
+        if (!CieloCallTimeouts.isDefault()) {
+            final int connectTimeout = CieloCallTimeouts.connectTimeout(config.getConnectTimeout());
+            request.setConfig(RequestConfig.custom()
+                                           .setConnectTimeout(connectTimeout)
+                                           .setSocketTimeout(CieloCallTimeouts.socketTimeout(config.getSocketTimeout()))
+                                           .setConnectionRequestTimeout(CieloCallTimeouts.connectTimeout(config.getConnectionRequestTimeout()))
+                                           .build());
+        }
+
+        final CloseableHttpResponse response = httpClient.execute(request);
+        try {
+            return CieloHttpSupport.readResponse(response, codec, reader);
+        } finally {
+            // Drain whatever was skipped, so that the connection goes back to the pool
+            EntityUtils.consumeQuietly(response.getEntity());
+            response.close();
+        }
+    }
+}
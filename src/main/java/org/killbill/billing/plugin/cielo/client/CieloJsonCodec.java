@@ -0,0 +1,357 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import cieloecommerce.sdk.ecommerce.Address;
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Customer;
+import cieloecommerce.sdk.ecommerce.Payment;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloError;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Streaming JSON mapping of the Cielo requests and responses, in place of the Gson serialization of whole SDK objects.
+ * <p>
+ * Requests are written field by field into a buffer of their own, then copied into a byte array, so that they are sent
+ * with a Content-Length and can be sent again. Only the response fields the plugin reads are extracted: the rest of the
+ * response is skipped without being materialized. The extracted fields are gathered into a small Gson tree, which Gson
+ * maps to the SDK model so that results stay interchangeable with the SDK ones: that mapping is reflective, and each
+ * call still allocates its buffer, its tree and its results.
+ */
+public class CieloJsonCodec {
+
+    // Fields of the Payment object read by CieloClient and the DAO
+    private static final Set<String> PAYMENT_FIELDS = ImmutableSet.of("PaymentId",
+                                                                      "Status",
+                                                                      "ReturnCode",
+                                                                      "ReturnMessage",
+                                                                      "ProviderReturnCode",
+                                                                      "ProviderReturnMessage",
+                                                                      "AuthorizationCode",
+                                                                      "ProofOfSale",
+                                                                      "Tid",
+                                                                      "Amount",
+                                                                      "CapturedAmount",
+                                                                      "ReceivedDate");
+    private static final Set<String> CREDIT_CARD_FIELDS = ImmutableSet.of("CardToken", "Brand");
+
+    // Large enough for a sale with a customer and its addresses
+    private static final int REQUEST_BUFFER_SIZE = 1024;
+
+    private final JsonFactory jsonFactory;
+    private final Gson gson = new Gson();
+
+    public CieloJsonCodec() {
+        this.jsonFactory = new JsonFactory();
+        // The connection is owned by HttpClient
+        this.jsonFactory.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    //
+    // Requests (only the fields set by PaymentRequestBuilder, CreateTokenRequestBuilder and the converters)
+    //
+
+    public void writeSale(final Sale sale, final OutputStream out) throws IOException {
+        final JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+        try {
+            generator.writeStartObject();
+            writeString(generator, "MerchantOrderId", sale.getMerchantOrderId());
+            if (sale.getCustomer() != null) {
+                generator.writeFieldName("Customer");
+                writeCustomer(generator, sale.getCustomer());
+            }
+            if (sale.getPayment() != null) {
+                generator.writeFieldName("Payment");
+                writePayment(generator, sale.getPayment());
+            }
+            generator.writeEndObject();
+        } finally {
+            generator.close();
+        }
+    }
+
+    public void writeCreditCard(final CreditCard card, final OutputStream out) throws IOException {
+        final JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+        try {
+            writeCreditCard(generator, card);
+        } finally {
+            generator.close();
+        }
+    }
+
+    public byte[] toByteArray(final Sale sale) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(REQUEST_BUFFER_SIZE);
+        writeSale(sale, out);
+        return out.toByteArray();
+    }
+
+    public byte[] toByteArray(final CreditCard card) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(REQUEST_BUFFER_SIZE);
+        writeCreditCard(card, out);
+        return out.toByteArray();
+    }
+
+    private void writeCustomer(final JsonGenerator generator, final Customer customer) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "Name", customer.getName());
+        writeString(generator, "Email", customer.getEmail());
+        writeString(generator, "Birthdate", customer.getBirthDate());
+        writeString(generator, "Identity", customer.getIdentity());
+        writeString(generator, "IdentityType", customer.getIdentityType());
+        if (customer.getAddress() != null) {
+            generator.writeFieldName("Address");
+            writeAddress(generator, customer.getAddress());
+        }
+        if (customer.getDeliveryAddress() != null) {
+            generator.writeFieldName("DeliveryAddress");
+            writeAddress(generator, customer.getDeliveryAddress());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeAddress(final JsonGenerator generator, final Address address) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "Street", address.getStreet());
+        writeString(generator, "Number", address.getNumber());
+        writeString(generator, "Complement", address.getComplement());
+        writeString(generator, "ZipCode", address.getZipCode());
+        writeString(generator, "City", address.getCity());
+        writeString(generator, "State", address.getState());
+        writeString(generator, "Country", address.getCountry());
+        generator.writeEndObject();
+    }
+
+    private void writePayment(final JsonGenerator generator, final Payment payment) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "Type", payment.getType() == null ? null : payment.getType().toString());
+        writeNumber(generator, "Amount", payment.getAmount());
+        writeNumber(generator, "Installments", payment.getInstallments());
+        writeBoolean(generator, "Capture", payment.getCapture());
+        writeBoolean(generator, "Recurrent", payment.getRecurrent());
+        writeString(generator, "SoftDescriptor", payment.getSoftDescriptor());
+        if (payment.getCreditCard() != null) {
+            generator.writeFieldName("CreditCard");
+            writeCreditCard(generator, payment.getCreditCard());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeCreditCard(final JsonGenerator generator, final CreditCard card) throws IOException {
+        generator.writeStartObject();
+        writeString(generator, "CustomerName", card.getCustomerName());
+        writeString(generator, "CardNumber", card.getCardNumber());
+        writeString(generator, "Holder", card.getHolder());
+        writeString(generator, "ExpirationDate", card.getExpirationDate());
+        writeString(generator, "SecurityCode", card.getSecurityCode());
+        writeBoolean(generator, "SaveCard", card.getSaveCard());
+        writeString(generator, "Brand", card.getBrand());
+        writeString(generator, "CardToken", card.getCardToken());
+        generator.writeEndObject();
+    }
+
+    // Like Gson, null fields are omitted
+
+    private static void writeString(final JsonGenerator generator, final String field, final String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(field, value);
+        }
+    }
+
+    private static void writeNumber(final JsonGenerator generator, final String field, final Integer value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(field, value);
+        }
+    }
+
+    private static void writeBoolean(final JsonGenerator generator, final String field, final Boolean value) throws IOException {
+        if (value != null) {
+            generator.writeBooleanField(field, value);
+        }
+    }
+
+    //
+    // Responses
+    //
+
+    /**
+     * Sale returned by the creation and the query endpoints.
+     */
+    public Sale readSale(final InputStream in) throws IOException {
+        final JsonObject sale = new JsonObject();
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            expectStartObject(parser, parser.nextToken());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("Payment".equals(field) && token == JsonToken.START_OBJECT) {
+                    sale.add("Payment", readFields(parser, PAYMENT_FIELDS));
+                } else if ("MerchantOrderId".equals(field)) {
+                    copyScalar(parser, token, field, sale);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return gson.fromJson(sale, Sale.class);
+    }
+
+    /**
+     * Capture and void return a status update rather than a full sale: it is wrapped so that callers can read
+     * the payment status the same way as for the other calls.
+     */
+    public Sale readSaleUpdate(final String paymentId, final InputStream in) throws IOException {
+        final JsonObject payment;
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            expectStartObject(parser, parser.nextToken());
+            payment = readFields(parser, PAYMENT_FIELDS);
+        } finally {
+            parser.close();
+        }
+        payment.addProperty("PaymentId", paymentId);
+
+        final JsonObject sale = new JsonObject();
+        sale.add("Payment", payment);
+        return gson.fromJson(sale, Sale.class);
+    }
+
+    public CreditCard readCreditCard(final InputStream in) throws IOException {
+        final JsonObject card;
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            expectStartObject(parser, parser.nextToken());
+            card = readFields(parser, CREDIT_CARD_FIELDS);
+        } finally {
+            parser.close();
+        }
+        return gson.fromJson(card, CreditCard.class);
+    }
+
+    /**
+     * @return ids listed by the query by merchant order id, in the order returned by Cielo
+     */
+    public List<String> readPaymentIds(final InputStream in) throws IOException {
+        final List<String> paymentIds = new ArrayList<String>();
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            expectStartObject(parser, parser.nextToken());
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if (!"Payments".equals(field) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    final JsonObject payment = readFields(parser, ImmutableSet.of("PaymentId"));
+                    if (payment.has("PaymentId")) {
+                        paymentIds.add(payment.get("PaymentId").getAsString());
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        return paymentIds;
+    }
+
+    /**
+     * Errors returned by Cielo along with a 400.
+     */
+    public List<CieloError> readErrors(final InputStream in) throws IOException {
+        final List<CieloError> errors = new ArrayList<CieloError>();
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return errors;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final JsonObject error = readFields(parser, ImmutableSet.of("Code", "Message"));
+                errors.add(new CieloError(error.has("Code") ? error.get("Code").getAsInt() : 0,
+                                          error.has("Message") ? error.get("Message").getAsString() : null));
+            }
+        } finally {
+            parser.close();
+        }
+        return errors;
+    }
+
+    /**
+     * Read the scalar fields of interest of the current object, skipping everything else.
+     */
+    private static JsonObject readFields(final JsonParser parser, final Set<String> fields) throws IOException {
+        final JsonObject object = new JsonObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if (fields.contains(field)) {
+                copyScalar(parser, token, field, object);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return object;
+    }
+
+    private static void copyScalar(final JsonParser parser, final JsonToken token, final String field, final JsonObject target) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                target.addProperty(field, parser.getText());
+                break;
+            case VALUE_NUMBER_INT:
+                target.addProperty(field, parser.getLongValue());
+                break;
+            case VALUE_NUMBER_FLOAT:
+                target.addProperty(field, parser.getDecimalValue());
+                break;
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                target.addProperty(field, parser.getBooleanValue());
+                break;
+            default:
+                parser.skipChildren();
+                break;
+        }
+    }
+
+    private static void expectStartObject(final JsonParser parser, final JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            throw new IOException("Invalid Http response: expected a JSON object at " + parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cieloecommerce.sdk.Merchant;
+import cieloecommerce.sdk.ecommerce.CieloEcommerce;
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Calls through the Cielo SDK, over the pooled connections of the merchant.
+ * <p>
+ * The SDK binds the merchant credentials at construction: a new SDK client is built after a rotation, the previous one
+ * finishing the calls it already started. Its requests are not exposed either, so the {@link CieloCallTimeouts} of a call
+ * cannot shorten the configured timeouts: only the wait of the caller is bounded.
+ */
+public class CieloSdkGateway implements CieloGateway {
+
+    private final CieloConfigProperties config;
+    private final Supplier<CieloCredentials> credentials;
+    private final CieloConnectionPool connectionPool;
+    private final AtomicReference<SdkClient> current = new AtomicReference<SdkClient>();
+
+    public CieloSdkGateway(final CieloConfigProperties config, final Supplier<CieloCredentials> credentials, final CieloConnectionPool connectionPool) {
+        this.config = config;
+        this.credentials = credentials;
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public Sale createSale(final Sale sale) throws CieloRequestException, IOException {
+        return client().createSale(sale);
+    }
+
+    @Override
+    public Sale querySale(final String paymentId) throws CieloRequestException, IOException {
+        return client().querySale(paymentId);
+    }
+
+    @Override
+    public Sale captureSale(final String paymentId, final Integer amount) throws CieloRequestException, IOException {
+        return client().captureSale(paymentId, amount);
+    }
+
+    @Override
+    public Sale cancelSale(final String paymentId) throws CieloRequestException, IOException {
+        return client().cancelSale(paymentId);
+    }
+
+    @Override
+    public CreditCard tokenizeCard(final CreditCard card) throws CieloRequestException, IOException {
+        return client().tokenizeCard(card);
+    }
+
+    private CieloEcommerce client() {
+        final CieloCredentials latest = credentials.get();
+        final SdkClient existing = current.get();
+        if (existing != null && existing.credentials.equals(latest)) {
+            return existing.client;
+        }
+
+        // Racing threads may each build one, they are cheap and stateless
+        final SdkClient created = new SdkClient(latest, config, connectionPool);
+        current.compareAndSet(existing, created);
+        return created.client;
+    }
+
+    private static final class SdkClient {
+
+        private final CieloCredentials credentials;
+        private final CieloEcommerce client;
+
+        private SdkClient(final CieloCredentials credentials, final CieloConfigProperties config, final CieloConnectionPool connectionPool) {
+            this.credentials = credentials;
+            this.client = new CieloEcommerce(new Merchant(credentials.getMerchantId(), credentials.getMerchantKey()), config.getEnvironment());
+            this.client.setHttpClient(connectionPool.getHttpClient());
+        }
+    }
+}
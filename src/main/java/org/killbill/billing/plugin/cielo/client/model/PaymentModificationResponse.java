@@ -44,6 +44,10 @@ public class PaymentModificationResponse<T> {
         this(Optional.of(result), paymentId, status, null, new HashMap<Object, Object>());
     }
 
+    public PaymentModificationResponse(final PaymentServiceProviderResult result, final String status, final String paymentId, final Map<Object, Object> additionalData) {
+        this(Optional.of(result), paymentId, status, null, additionalData);
+    }
+
     private PaymentModificationResponse(Optional<PaymentServiceProviderResult> result,
                                         final String paymentId,
                                         final String status,
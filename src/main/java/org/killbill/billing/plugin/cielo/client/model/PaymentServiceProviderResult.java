@@ -22,6 +22,8 @@ import java.util.Map;
 
 import org.killbill.billing.payment.api.TransactionType;
 
+import com.google.common.primitives.Ints;
+
 public enum PaymentServiceProviderResult {
 
     AUTHORISED(new Integer[] {2, 10, 11, 20}),
@@ -56,7 +58,8 @@ public enum PaymentServiceProviderResult {
             return ERROR;
         }
 
-        PaymentServiceProviderResult result = REVERSE_LOOKUP.get(id);
+        // Cielo statuses are numeric, the lookup is keyed by their integer value
+        PaymentServiceProviderResult result = REVERSE_LOOKUP.get(Ints.tryParse(id));
         if (result != null) {
             if ((transactionType == TransactionType.AUTHORIZE
                  || transactionType == TransactionType.CAPTURE)
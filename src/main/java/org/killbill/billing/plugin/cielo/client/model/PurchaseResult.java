@@ -74,9 +74,12 @@ public class PurchaseResult {
              null,
              paymentTransactionExternalKey,
              cieloCallResult.getResponseStatus().isPresent() ? cieloCallResult.getResponseStatus().get() : null,
-             ImmutableMap.<String, String>of(INGENICO_CALL_ERROR_STATUS, cieloCallResult.getResponseStatus().isPresent() ? cieloCallResult.getResponseStatus().get().name() : UNKNOWN,
-                                             EXCEPTION_CLASS, cieloCallResult.getExceptionClass().isPresent() ? cieloCallResult.getExceptionClass().get() : UNKNOWN,
-                                             EXCEPTION_MESSAGE, cieloCallResult.getExceptionMessage().isPresent() ? cieloCallResult.getExceptionMessage().get() : UNKNOWN));
+             ImmutableMap.<String, String>builder()
+                         .put(INGENICO_CALL_ERROR_STATUS, cieloCallResult.getResponseStatus().isPresent() ? cieloCallResult.getResponseStatus().get().name() : UNKNOWN)
+                         .put(EXCEPTION_CLASS, cieloCallResult.getExceptionClass().isPresent() ? cieloCallResult.getExceptionClass().get() : UNKNOWN)
+                         .put(EXCEPTION_MESSAGE, cieloCallResult.getExceptionMessage().isPresent() ? cieloCallResult.getExceptionMessage().get() : UNKNOWN)
+                         .putAll(cieloCallResult.getTimings().toAdditionalData())
+                         .build());
     }
 
 
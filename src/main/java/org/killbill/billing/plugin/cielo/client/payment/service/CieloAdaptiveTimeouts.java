@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Socket timeouts following the latencies Cielo actually shows for the merchant: a percentile of the recent calls of each
+ * operation times a multiplier, kept between a floor and a ceiling.
+ * <p>
+ * Until enough calls were seen, the configured socket timeout applies. Calls which timed out are recorded as taking
+ * the whole timeout, so that the timeout grows back when Cielo slows down instead of cutting every call short.
+ */
+public class CieloAdaptiveTimeouts {
+
+    private static final int LATENCY_WINDOW_SIZE = 2000;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final double multiplier;
+    private final int floorMillis;
+    private final int ceilingMillis;
+    private final int minSamples;
+    private final Map<CieloOperation, OperationLatencies> latencies = new EnumMap<CieloOperation, OperationLatencies>(CieloOperation.class);
+
+    public CieloAdaptiveTimeouts(final CieloConfigProperties config) {
+        this.enabled = config.isAdaptiveTimeoutsEnabled();
+        this.percentile = config.getAdaptiveTimeoutPercentile();
+        this.multiplier = config.getAdaptiveTimeoutMultiplier();
+        this.floorMillis = config.getAdaptiveTimeoutFloor();
+        this.ceilingMillis = Math.max(floorMillis, config.getAdaptiveTimeoutCeiling());
+        this.minSamples = config.getAdaptiveTimeoutMinSamples();
+        for (final CieloOperation operation : CieloOperation.values()) {
+            latencies.put(operation, new OperationLatencies());
+        }
+    }
+
+    /**
+     * @return the socket timeout of the next call, in milliseconds, -1 to use the configured one
+     */
+    public int getSocketTimeout(final CieloOperation operation) {
+        if (!enabled) {
+            return -1;
+        }
+        final CieloLatencyRecorder recorder = latencies.get(operation).recorder;
+        if (recorder.getSampleCount() < minSamples) {
+            return -1;
+        }
+        final long timeoutMillis = (long) Math.ceil(recorder.getPercentile(percentile) * multiplier);
+        return (int) Math.max(floorMillis, Math.min(ceilingMillis, timeoutMillis));
+    }
+
+    /**
+     * @param socketTimeout the timeout the call was made with, as returned by {@link #getSocketTimeout(CieloOperation)}
+     */
+    public void record(final CieloOperation operation, final long durationMillis, final Exception failure, final int socketTimeout) {
+        if (!enabled) {
+            return;
+        }
+        final OperationLatencies operationLatencies = latencies.get(operation);
+        final Throwable rootCause = failure == null ? null : Throwables.getRootCause(failure);
+        if (rootCause == null || rootCause instanceof CieloRequestException) {
+            // Errors returned by Cielo took a round trip as well
+            operationLatencies.recorder.record(durationMillis);
+        } else if (rootCause instanceof SocketTimeoutException && socketTimeout > 0 && durationMillis >= socketTimeout) {
+            // Cut short by our own timeout, not by the deadline: the call took at least that long
+            operationLatencies.recorder.record(durationMillis);
+            operationLatencies.timeouts.incrementAndGet();
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("enabled", enabled);
+        for (final CieloOperation operation : CieloOperation.values()) {
+            final OperationLatencies operationLatencies = latencies.get(operation);
+            final Map<String, Object> operationStatistics = new LinkedHashMap<String, Object>();
+            operationStatistics.put("samples", operationLatencies.recorder.getSampleCount());
+            operationStatistics.put("percentileMillis", operationLatencies.recorder.getPercentile(percentile));
+            operationStatistics.put("socketTimeoutMillis", getSocketTimeout(operation));
+            operationStatistics.put("timeouts", operationLatencies.timeouts.get());
+            statistics.put(operation.toString().toLowerCase(), operationStatistics);
+        }
+        return statistics;
+    }
+
+    private static final class OperationLatencies {
+
+        private final CieloLatencyRecorder recorder = new CieloLatencyRecorder(LATENCY_WINDOW_SIZE);
+        private final AtomicLong timeouts = new AtomicLong();
+    }
+}
@@ -22,6 +22,14 @@ public enum CieloCallErrorStatus {
      * Request never reached Ingenico (e.g. connection failure or unknown host).
      */
     REQUEST_NOT_SEND,
+    /**
+     * Request was deliberately not sent to Cielo by the plugin (e.g. too many calls already in flight).
+     */
+    REQUEST_REJECTED,
+    /**
+     * Request was not sent to Cielo because the time budget of the payment operation was already spent.
+     */
+    DEADLINE_EXCEEDED,
     /**
      * Ingenicos response indicates an invalid sale sent by us (e.g. a non user field like pspRef was empty).
      */
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the blocking Cielo SDK calls on plugin threads. This is a bulkhead only: the Kill Bill payment thread still
+ * waits for the result (bounded by the operation deadline), so no Kill Bill thread is freed. What it buys is a cap
+ * on the calls in flight towards Cielo, and a caller which can give up waiting on a call stuck in a socket read.
+ * <p>
+ * Virtual threads are used when the JVM supports them, a bounded pool of platform threads otherwise. In both cases,
+ * at most {@code callExecutorThreads} calls run at once, which is also the default size of the connection pool: calls
+ * wait here for their turn rather than in the pool for a connection. The number of calls in flight (running and
+ * waiting) is capped as well, and calls above it are rejected right away.
+ */
+public class CieloCallExecutor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloCallExecutor.class);
+
+    private final ExecutorService executorService;
+    private final boolean virtualThreads;
+    private final int maxThreads;
+    private final int maxQueuedCalls;
+    private final long shutdownGracePeriod;
+    // Only used with virtual threads, the platform pool is bounded by its threads and its queue
+    private final Semaphore inFlightPermits;
+    private final Semaphore runningPermits;
+
+    private final AtomicInteger activeCalls = new AtomicInteger();
+    private final AtomicInteger queuedCalls = new AtomicInteger();
+    private final AtomicLong completedCalls = new AtomicLong();
+    private final AtomicLong rejectedCalls = new AtomicLong();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    public CieloCallExecutor(final CieloConfigProperties config) {
+        this.maxThreads = config.getCallExecutorThreads();
+        this.maxQueuedCalls = config.getCallExecutorQueueSize();
+        this.shutdownGracePeriod = config.getShutdownGracePeriod();
+
+        final ExecutorService virtualThreadExecutor = config.useVirtualThreads() ? newVirtualThreadPerTaskExecutor() : null;
+        if (virtualThreadExecutor != null) {
+            this.executorService = virtualThreadExecutor;
+            this.virtualThreads = true;
+            this.inFlightPermits = new Semaphore(maxThreads + maxQueuedCalls);
+            this.runningPermits = new Semaphore(maxThreads);
+        } else {
+            final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxThreads,
+                                                                                 maxThreads,
+                                                                                 60L,
+                                                                                 TimeUnit.SECONDS,
+                                                                                 new ArrayBlockingQueue<Runnable>(maxQueuedCalls),
+                                                                                 new ThreadFactoryBuilder().setNameFormat("cielo-call-%d")
+                                                                                                           .setDaemon(true)
+                                                                                                           .build(),
+                                                                                 new ThreadPoolExecutor.AbortPolicy());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            this.executorService = threadPoolExecutor;
+            this.virtualThreads = false;
+            this.inFlightPermits = null;
+            this.runningPermits = null;
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException if too many calls are already in flight
+     */
+    public <T> Future<T> submit(final Callable<T> call) {
+        if (inFlightPermits != null && !inFlightPermits.tryAcquire()) {
+            rejectedCalls.incrementAndGet();
+            throw new RejectedExecutionException("Too many Cielo calls in flight");
+        }
+
+        final long submittedAt = System.nanoTime();
+        queuedCalls.incrementAndGet();
+        try {
+            return executorService.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        if (runningPermits != null) {
+                            // A virtual thread is cheap to park: it waits here like a task in the queue would
+                            runningPermits.acquire();
+                        }
+                    } catch (final InterruptedException e) {
+                        queuedCalls.decrementAndGet();
+                        inFlightPermits.release();
+                        throw e;
+                    }
+                    queuedCalls.decrementAndGet();
+                    recordQueueWait(System.nanoTime() - submittedAt);
+
+                    activeCalls.incrementAndGet();
+                    try {
+                        return call.call();
+                    } finally {
+                        activeCalls.decrementAndGet();
+                        completedCalls.incrementAndGet();
+                        if (inFlightPermits != null) {
+                            runningPermits.release();
+                            inFlightPermits.release();
+                        }
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            queuedCalls.decrementAndGet();
+            rejectedCalls.incrementAndGet();
+            if (inFlightPermits != null) {
+                inFlightPermits.release();
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        final long completed = completedCalls.get();
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("virtualThreads", virtualThreads);
+        statistics.put("maxThreads", maxThreads);
+        statistics.put("maxQueuedCalls", maxQueuedCalls);
+        statistics.put("activeCalls", activeCalls.get());
+        statistics.put("queuedCalls", queuedCalls.get());
+        statistics.put("completedCalls", completed);
+        statistics.put("rejectedCalls", rejectedCalls.get());
+        statistics.put("avgQueueWaitMicros", completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalQueueWaitNanos.get() / completed));
+        statistics.put("maxQueueWaitMicros", TimeUnit.NANOSECONDS.toMicros(maxQueueWaitNanos.get()));
+        return statistics;
+    }
+
+    /**
+     * Stops accepting calls and waits up to the shutdown grace period for those in flight, before interrupting them.
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(shutdownGracePeriod, TimeUnit.MILLISECONDS)) {
+                logger.warn("Cielo calls still in flight after {} ms, interrupting them", shutdownGracePeriod);
+                executorService.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordQueueWait(final long waitNanos) {
+        totalQueueWaitNanos.addAndGet(waitNanos);
+        long currentMax = maxQueueWaitNanos.get();
+        while (waitNanos > currentMax && !maxQueueWaitNanos.compareAndSet(currentMax, waitNanos)) {
+            currentMax = maxQueueWaitNanos.get();
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is only available on Java 21+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (final NoSuchMethodException e) {
+            return null;
+        } catch (final Exception e) {
+            logger.warn("Unable to create a virtual thread executor, falling back to platform threads", e);
+            return null;
+        }
+    }
+}
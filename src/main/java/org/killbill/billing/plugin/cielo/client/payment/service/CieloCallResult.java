@@ -28,6 +28,11 @@ public interface CieloCallResult<T> {
 
     long getDuration();
 
+    /**
+     * Breakdown of the duration of the (last) attempt.
+     */
+    CieloCallTimings getTimings();
+
     String getPaymentId();
 
     String getStatus();
@@ -47,12 +52,22 @@ public interface CieloCallResult<T> {
 abstract class CieloCallBase<T> implements CieloCallResult<T> {
     private final String paymentId;
     private final String status;
+    private CieloCallTimings timings = CieloCallTimings.NOT_MEASURED;
 
     public CieloCallBase(String paymentId, String status) {
         this.paymentId = paymentId;
         this.status = status;
     }
 
+    @Override
+    public CieloCallTimings getTimings() {
+        return timings;
+    }
+
+    public void setTimings(final CieloCallTimings timings) {
+        this.timings = timings;
+    }
+
     @Override
     public Optional<T> getResult() {
         throw new UnsupportedOperationException();
@@ -141,7 +156,7 @@ class SuccessfulCieloCall<T> extends CieloCallBase {
 
     @Override
     public Optional<CieloError> getError() {
-        return null;
+        return Optional.absent();
     }
 
     @Override
@@ -208,11 +223,11 @@ class UnSuccessfulCieloCall<T> extends CieloCallBase {
 
     @Override
     public Optional<String> getExceptionMessage() {
-        return Optional.of(exceptionMessage);
+        return Optional.fromNullable(exceptionMessage);
     }
 
     public Optional<CieloError> getError() {
-        return Optional.of(error);
+        return Optional.fromNullable(error);
     }
 
     @Override
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.killbill.billing.plugin.cielo.client.CieloCallTimer;
+
+/**
+ * Where the time of a Cielo call went, in nanoseconds: -1 for phases which were not measured.
+ * <p>
+ * Queue wait, connect and decode are on our side, request write and time to first byte mostly on the network and Cielo side.
+ */
+public class CieloCallTimings {
+
+    public static final String QUEUE_WAIT_NANOS = "queueWaitNanos";
+    public static final String CONNECT_NANOS = "connectNanos";
+    public static final String REQUEST_WRITE_NANOS = "requestWriteNanos";
+    public static final String TIME_TO_FIRST_BYTE_NANOS = "timeToFirstByteNanos";
+    public static final String DECODE_NANOS = "decodeNanos";
+    public static final String TOTAL_NANOS = "totalNanos";
+
+    public static final CieloCallTimings NOT_MEASURED = new CieloCallTimings(-1, -1, -1, -1, -1, -1);
+
+    private final long queueWaitNanos;
+    private final long connectNanos;
+    private final long requestWriteNanos;
+    private final long timeToFirstByteNanos;
+    private final long decodeNanos;
+    private final long totalNanos;
+
+    public CieloCallTimings(final long queueWaitNanos,
+                            final long connectNanos,
+                            final long requestWriteNanos,
+                            final long timeToFirstByteNanos,
+                            final long decodeNanos,
+                            final long totalNanos) {
+        this.queueWaitNanos = queueWaitNanos;
+        this.connectNanos = connectNanos;
+        this.requestWriteNanos = requestWriteNanos;
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+        this.decodeNanos = decodeNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    static CieloCallTimings of(final long queueWaitNanos, final CieloCallTimer timer, final long totalNanos) {
+        return new CieloCallTimings(queueWaitNanos,
+                                    timer.getConnectNanos(),
+                                    timer.getRequestWriteNanos(),
+                                    timer.getTimeToFirstByteNanos(),
+                                    timer.getDecodeNanos(),
+                                    totalNanos);
+    }
+
+    static CieloCallTimings totalOnly(final long totalNanos) {
+        return new CieloCallTimings(-1, -1, -1, -1, -1, totalNanos);
+    }
+
+    public long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    public long getRequestWriteNanos() {
+        return requestWriteNanos;
+    }
+
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the measured phases, as stored in the additional data of the responses
+     */
+    public Map<String, String> toAdditionalData() {
+        final Map<String, String> additionalData = new LinkedHashMap<String, String>();
+        putIfMeasured(additionalData, QUEUE_WAIT_NANOS, queueWaitNanos);
+        putIfMeasured(additionalData, CONNECT_NANOS, connectNanos);
+        putIfMeasured(additionalData, REQUEST_WRITE_NANOS, requestWriteNanos);
+        putIfMeasured(additionalData, TIME_TO_FIRST_BYTE_NANOS, timeToFirstByteNanos);
+        putIfMeasured(additionalData, DECODE_NANOS, decodeNanos);
+        putIfMeasured(additionalData, TOTAL_NANOS, totalNanos);
+        return additionalData;
+    }
+
+    private static void putIfMeasured(final Map<String, String> additionalData, final String key, final long nanos) {
+        if (nanos >= 0) {
+            additionalData.put(key, String.valueOf(nanos));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CieloCallTimings" + toAdditionalData();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+/**
+ * Circuit breaker for the calls made on behalf of a merchant (merchant id and environment).
+ * <p>
+ * The circuit opens after too many consecutive connectivity failures (or failures which could not be classified), or
+ * when the failure rate over the last calls is too high. While it is open, calls are rejected without reaching Cielo. Once the open duration has elapsed,
+ * a limited number of probes is let through: the circuit closes on the first successful probe and opens again
+ * on the first failed one.
+ */
+public class CieloCircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloCircuitBreaker.class);
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String merchantKey;
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final int errorRateThreshold;
+    private final long openDurationNanos;
+    private final int halfOpenProbes;
+
+    // Outcomes of the last calls (true for a failure), used for the error rate
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private int probesInFlight;
+    private long timesOpened;
+    private long rejectedCalls;
+
+    public CieloCircuitBreaker(final CieloConfigProperties config) {
+        this.merchantKey = config.getMerchantId() + "/" + config.getEnvironment();
+        this.enabled = config.isCircuitBreakerEnabled();
+        this.failureThreshold = config.getCircuitBreakerFailureThreshold();
+        this.errorRateThreshold = config.getCircuitBreakerErrorRateThreshold();
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(config.getCircuitBreakerOpenDuration());
+        this.halfOpenProbes = config.getCircuitBreakerHalfOpenProbes();
+        this.window = new boolean[config.getCircuitBreakerWindowSize()];
+    }
+
+    /**
+     * @return false if the call must not be attempted
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (!enabled) {
+            return true;
+        }
+
+        if (state == State.OPEN && System.nanoTime() - openedAtNanos >= openDurationNanos) {
+            logger.info("Cielo circuit breaker for merchant {} is now half-open", merchantKey);
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+        }
+
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (probesInFlight < halfOpenProbes) {
+                    probesInFlight++;
+                    return true;
+                }
+                rejectedCalls++;
+                return false;
+            default:
+                rejectedCalls++;
+                return false;
+        }
+    }
+
+    /**
+     * Record the outcome of a call for which a permission was acquired.
+     */
+    public void onResult(final CieloCallResult<?> result) {
+        final Optional<CieloCallErrorStatus> responseStatus = result.getResponseStatus();
+        if (!responseStatus.isPresent()) {
+            onSuccess();
+            return;
+        }
+
+        switch (responseStatus.get()) {
+            case REQUEST_NOT_SEND:
+            case RESPONSE_NOT_RECEIVED:
+            case RESPONSE_INVALID:
+            // No telling whether Cielo answered: never taken as a sign that it is healthy
+            case UNKNOWN_FAILURE:
+                onFailure();
+                break;
+            case REQUEST_REJECTED:
+            case DEADLINE_EXCEEDED:
+                onIgnored();
+                break;
+            default:
+                // Cielo answered, even if not favorably
+                onSuccess();
+                break;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("merchant", merchantKey);
+        statistics.put("enabled", enabled);
+        statistics.put("state", state);
+        statistics.put("consecutiveFailures", consecutiveFailures);
+        statistics.put("errorRatePercent", windowCount == 0 ? 0 : (100 * windowFailures) / windowCount);
+        statistics.put("timesOpened", timesOpened);
+        statistics.put("rejectedCalls", rejectedCalls);
+        return statistics;
+    }
+
+    public String getMerchantKey() {
+        return merchantKey;
+    }
+
+    private synchronized void onSuccess() {
+        if (!enabled) {
+            return;
+        }
+
+        if (state == State.HALF_OPEN) {
+            logger.info("Cielo circuit breaker for merchant {} is now closed", merchantKey);
+            state = State.CLOSED;
+            resetWindow();
+        }
+        consecutiveFailures = 0;
+        record(false);
+    }
+
+    private synchronized void onFailure() {
+        if (!enabled) {
+            return;
+        }
+
+        consecutiveFailures++;
+        record(true);
+
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED && (consecutiveFailures >= failureThreshold || errorRateExceeded())) {
+            open();
+        }
+    }
+
+    private synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+    private void open() {
+        logger.warn("Cielo circuit breaker for merchant {} is now open ({} consecutive failures, {}/{} failed calls)",
+                    merchantKey, consecutiveFailures, windowFailures, windowCount);
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+        timesOpened++;
+    }
+
+    private boolean errorRateExceeded() {
+        // Only meaningful once the window is full
+        return windowCount == window.length && (100 * windowFailures) >= errorRateThreshold * windowCount;
+    }
+
+    private void record(final boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < window.length; i++) {
+            window[i] = false;
+        }
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+
+import com.google.common.base.Optional;
+
+/**
+ * Adaptive bulkhead limiting the number of concurrent calls made on behalf of a merchant.
+ * <p>
+ * The limit follows an AIMD scheme: it grows by one while calls complete in a timely fashion and the limit is actually
+ * used, and shrinks multiplicatively on congestion. Congestion is either a connectivity failure, or a run of calls much
+ * slower than the long-term average latency (gradient), which is how Cielo usually degrades before timing out: a single
+ * slow call is an outlier, not congestion.
+ * <p>
+ * Latencies are tracked per operation, since a sale takes much longer than a query: otherwise a few sales among queries
+ * would look like slow calls, and queries after sales like an improvement.
+ */
+public class CieloConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+    // Weight of a new sample in the long-term average latency
+    private static final double LATENCY_SMOOTHING = 0.05;
+    // Consecutive slow calls taken as sustained latency
+    private static final int SLOW_CALLS_BEFORE_BACKOFF = 5;
+
+    private final String merchantKey;
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long maxWaitNanos;
+    private final double latencyTolerance;
+
+    private final Map<CieloOperation, OperationLatency> latencies = new EnumMap<CieloOperation, OperationLatency>(CieloOperation.class);
+
+    private int limit;
+    private int inFlight;
+    private long rejectedCalls;
+    private long congestionEvents;
+
+    public CieloConcurrencyLimiter(final CieloConfigProperties config) {
+        this.merchantKey = config.getMerchantId() + "/" + config.getEnvironment();
+        this.enabled = config.isConcurrencyLimiterEnabled();
+        this.minLimit = config.getConcurrencyLimiterMinLimit();
+        this.maxLimit = config.getConcurrencyLimiterMaxLimit();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getConcurrencyLimiterMaxWait());
+        this.latencyTolerance = config.getConcurrencyLimiterLatencyTolerance();
+        this.limit = Math.max(minLimit, Math.min(maxLimit, config.getConcurrencyLimiterInitialLimit()));
+        for (final CieloOperation operation : CieloOperation.values()) {
+            latencies.put(operation, new OperationLatency());
+        }
+    }
+
+    /**
+     * Wait (up to the configured maximum wait) for the number of calls in flight to go below the limit.
+     *
+     * @return false if the call must not be attempted
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(maxWaitNanos);
+    }
+
+    /**
+     * Same as {@link #tryAcquire()}, without waiting past the deadline.
+     */
+    public boolean tryAcquire(final CieloDeadline deadline) {
+        return tryAcquire(deadline.boundNanos(maxWaitNanos));
+    }
+
+    /**
+     * Never waits, for callers which must not block.
+     */
+    public boolean tryAcquireNow() {
+        return tryAcquire(0);
+    }
+
+    /**
+     * Release the slot acquired for a call, and adjust the limit according to its outcome.
+     *
+     * @param operation operation of the call, whose latencies its own is compared to
+     * @param result    outcome of the call, null if it never completed
+     */
+    public synchronized void release(final CieloOperation operation, @Nullable final CieloCallResult<?> result) {
+        if (!enabled) {
+            return;
+        }
+
+        final int inFlightAtCompletion = inFlight;
+        inFlight--;
+        notifyAll();
+
+        if (result == null) {
+            return;
+        }
+
+        final Optional<CieloCallErrorStatus> responseStatus = result.getResponseStatus();
+        if (responseStatus.isPresent() && (responseStatus.get() == CieloCallErrorStatus.REQUEST_REJECTED ||
+                                           responseStatus.get() == CieloCallErrorStatus.DEADLINE_EXCEEDED)) {
+            // Never reached Cielo, nothing to learn from it
+            return;
+        }
+
+        final boolean dropped = responseStatus.isPresent() && (responseStatus.get() == CieloCallErrorStatus.RESPONSE_NOT_RECEIVED ||
+                                                               responseStatus.get() == CieloCallErrorStatus.REQUEST_NOT_SEND);
+        final OperationLatency latency = latencies.get(operation);
+        final long duration = result.getDuration();
+        final boolean tooSlow = latency.averageMillis > 0 && duration > latency.averageMillis * latencyTolerance;
+        latency.consecutiveSlowCalls = tooSlow ? latency.consecutiveSlowCalls + 1 : 0;
+
+        if (dropped || latency.consecutiveSlowCalls >= SLOW_CALLS_BEFORE_BACKOFF) {
+            congestionEvents++;
+            latency.consecutiveSlowCalls = 0;
+            limit = Math.max(minLimit, (int) (limit * BACKOFF_RATIO));
+        } else if (!tooSlow && inFlightAtCompletion * 2 >= limit) {
+            // Only probe for more capacity if the current limit is actually used
+            limit = Math.min(maxLimit, limit + 1);
+        }
+
+        if (!dropped) {
+            latency.averageMillis = latency.averageMillis == 0 ? duration : latency.averageMillis + LATENCY_SMOOTHING * (duration - latency.averageMillis);
+        }
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("merchant", merchantKey);
+        statistics.put("enabled", enabled);
+        statistics.put("limit", limit);
+        statistics.put("inFlight", inFlight);
+        final Map<String, Object> averageLatencies = new LinkedHashMap<String, Object>();
+        for (final CieloOperation operation : CieloOperation.values()) {
+            averageLatencies.put(operation.toString().toLowerCase(), (long) latencies.get(operation).averageMillis);
+        }
+        statistics.put("averageLatencyMillis", averageLatencies);
+        statistics.put("congestionEvents", congestionEvents);
+        statistics.put("rejectedCalls", rejectedCalls);
+        return statistics;
+    }
+
+    public String getMerchantKey() {
+        return merchantKey;
+    }
+
+    private synchronized boolean tryAcquire(final long timeoutNanos) {
+        if (!enabled) {
+            return true;
+        }
+
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (inFlight >= limit) {
+            final long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                rejectedCalls++;
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedCalls++;
+                return false;
+            }
+        }
+
+        inFlight++;
+        return true;
+    }
+
+    // Guarded by the limiter
+    private static final class OperationLatency {
+
+        private double averageMillis;
+        private int consecutiveSlowCalls;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time left to complete a payment operation, from the plugin API entry point down to the Cielo call.
+ * <p>
+ * Each stage (database queries, waits for a permit or a slot, retries, connect and socket timeouts) only gets what
+ * remains, and the Cielo call is not attempted once nothing does.
+ */
+public final class CieloDeadline {
+
+    /**
+     * No time limit, stages only use their configured timeouts.
+     */
+    public static final CieloDeadline NONE = new CieloDeadline(false, 0);
+
+    private final boolean bounded;
+    private final long expiresAtNanos;
+
+    private CieloDeadline(final boolean bounded, final long expiresAtNanos) {
+        this.bounded = bounded;
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * @param budgetMillis time allowed from now, 0 or less for no limit
+     */
+    public static CieloDeadline after(final long budgetMillis) {
+        return budgetMillis > 0 ? new CieloDeadline(true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis)) : NONE;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public boolean isExpired() {
+        return bounded && System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    public long remainingNanos() {
+        return bounded ? Math.max(0, expiresAtNanos - System.nanoTime()) : Long.MAX_VALUE;
+    }
+
+    public long remainingMillis() {
+        return bounded ? TimeUnit.NANOSECONDS.toMillis(remainingNanos()) : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the timeout, shortened to the time left (at least one millisecond, 0 meaning no timeout to most clients)
+     */
+    public int bound(final int timeoutMillis) {
+        if (!bounded) {
+            return timeoutMillis;
+        }
+        final long remainingMillis = Math.max(1, remainingMillis());
+        return timeoutMillis <= 0 ? (int) Math.min(Integer.MAX_VALUE, remainingMillis) : (int) Math.min(timeoutMillis, remainingMillis);
+    }
+
+    /**
+     * @return the wait, shortened to the time left
+     */
+    public long boundNanos(final long timeoutNanos) {
+        return Math.min(timeoutNanos, remainingNanos());
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "CieloDeadline{remainingMillis=" + remainingMillis() + "}" : "CieloDeadline{none}";
+    }
+}
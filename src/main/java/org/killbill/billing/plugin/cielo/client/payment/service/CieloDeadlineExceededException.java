@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Thrown instead of calling Cielo when the time budget of the payment operation is already spent.
+ */
+public class CieloDeadlineExceededException extends TimeoutException {
+
+    public CieloDeadlineExceededException(final String stage) {
+        super("Deadline exceeded before " + stage);
+    }
+}
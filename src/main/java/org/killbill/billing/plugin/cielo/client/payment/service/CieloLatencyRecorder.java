@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.Arrays;
+
+/**
+ * Latency percentiles over the last calls (sliding window of samples, in milliseconds).
+ */
+public class CieloLatencyRecorder {
+
+    // Percentiles are only recomputed every so many samples
+    private static final int SORT_INTERVAL = 32;
+
+    private final long[] samples;
+    private int position;
+    private int count;
+
+    private long[] sortedSamples;
+    private int samplesSinceSort;
+
+    public CieloLatencyRecorder(final int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void record(final long durationMillis) {
+        samples[position] = durationMillis;
+        position = (position + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+        samplesSinceSort++;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in milliseconds, -1 if nothing was recorded yet
+     */
+    public synchronized long getPercentile(final double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+
+        if (sortedSamples == null || samplesSinceSort >= SORT_INTERVAL) {
+            sortedSamples = Arrays.copyOf(samples, count);
+            Arrays.sort(sortedSamples);
+            samplesSinceSort = 0;
+        }
+
+        final int index = (int) Math.ceil(percentile / 100 * sortedSamples.length) - 1;
+        return sortedSamples[Math.max(0, Math.min(sortedSamples.length - 1, index))];
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+}
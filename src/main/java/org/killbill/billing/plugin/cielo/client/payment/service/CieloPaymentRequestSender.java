@@ -21,26 +21,68 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
+import java.net.NoRouteToHostException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nullable;
 
-import cieloecommerce.sdk.ecommerce.CieloEcommerce;
 import cieloecommerce.sdk.ecommerce.CreditCard;
 import cieloecommerce.sdk.ecommerce.CreditCardToken;
+import cieloecommerce.sdk.ecommerce.Payment;
 import cieloecommerce.sdk.ecommerce.Sale;
 import cieloecommerce.sdk.ecommerce.request.CieloError;
 import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.MalformedChunkCodingException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.killbill.billing.payment.api.PaymentResponse;
+import org.killbill.billing.plugin.cielo.client.CieloAsyncTransport;
+import org.killbill.billing.plugin.cielo.client.CieloCallTimeouts;
+import org.killbill.billing.plugin.cielo.client.CieloCallTimer;
 import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
+import org.killbill.billing.plugin.cielo.client.CieloCredentials;
+import org.killbill.billing.plugin.cielo.client.CieloGateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.JsonParseException;
 
+import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.DEADLINE_EXCEEDED;
 import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.REQUEST_NOT_SEND;
+import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.REQUEST_REJECTED;
 import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.RESPONSE_ABOUT_INVALID_REQUEST;
 import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.RESPONSE_INVALID;
 import static org.killbill.billing.plugin.cielo.client.payment.service.CieloCallErrorStatus.RESPONSE_NOT_RECEIVED;
@@ -50,128 +92,657 @@ public class CieloPaymentRequestSender implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(CieloPaymentRequestSender.class);
 
+    // Cielo payment statuses telling whether a capture or a void went through
+    private static final Integer PAYMENT_CONFIRMED = 2;
+    private static final Integer VOIDED = 10;
+    private static final Integer REFUNDED = 11;
+    // Statuses a sale can have right after its creation: not yet voided, refunded or aborted
+    private static final Set<Integer> CREATED_SALE_STATUSES = ImmutableSet.of(0, 1, 2, 3, 12, 20);
+
+    // Cielo dates sales in Brasilia time, to the second
+    private static final DateTimeFormatter RECEIVED_DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").withZone(DateTimeZone.forID("America/Sao_Paulo"));
+    // Leeway for the clock skew between Cielo and us
+    private static final long RECEIVED_DATE_TOLERANCE_MILLIS = 120000;
+
+    // Left to the transport to fail on its own shortened timeouts, before giving up on the attempt
+    private static final long DEADLINE_GRACE_MILLIS = 500;
+
     private final CieloClientRegistry cieloClientRegistry;
+    private final CieloCallExecutor cieloCallExecutor;
+    private final CieloCircuitBreaker cieloCircuitBreaker;
+    private final CieloConcurrencyLimiter cieloConcurrencyLimiter;
+    private final CieloRateLimiter cieloRateLimiter;
+    private final CieloAdaptiveTimeouts cieloAdaptiveTimeouts;
+    private final CieloQueryHedger cieloQueryHedger;
+    private final CieloRetryPolicy cieloRetryPolicy;
+    private final CieloSingleFlight<String, CieloCallResult<Sale>> saleQueries = new CieloSingleFlight<String, CieloCallResult<Sale>>();
 
-    public CieloPaymentRequestSender(final CieloClientRegistry cieloClientRegistry) {
+    public CieloPaymentRequestSender(final CieloClientRegistry cieloClientRegistry,
+                                     final CieloCallExecutor cieloCallExecutor,
+                                     final CieloCircuitBreaker cieloCircuitBreaker,
+                                     final CieloConcurrencyLimiter cieloConcurrencyLimiter,
+                                     final CieloRateLimiter cieloRateLimiter,
+                                     final CieloAdaptiveTimeouts cieloAdaptiveTimeouts,
+                                     final CieloQueryHedger cieloQueryHedger,
+                                     final CieloRetryPolicy cieloRetryPolicy) {
         this.cieloClientRegistry = cieloClientRegistry;
+        this.cieloCallExecutor = cieloCallExecutor;
+        this.cieloCircuitBreaker = cieloCircuitBreaker;
+        this.cieloConcurrencyLimiter = cieloConcurrencyLimiter;
+        this.cieloRateLimiter = cieloRateLimiter;
+        this.cieloAdaptiveTimeouts = cieloAdaptiveTimeouts;
+        this.cieloQueryHedger = cieloQueryHedger;
+        this.cieloRetryPolicy = cieloRetryPolicy;
     }
 
-    public CieloCallResult<Sale> create(final Sale sale) {
-        return callCielo(new IngenicoCall<CieloEcommerce, Sale>() {
+    /**
+     * If Cielo may have created the sale without us getting the response, it is looked up by merchant order id
+     * (the transaction external key). It is never created again: if the lookup finds nothing, Cielo may just not
+     * have indexed it yet, and the transaction is left for Kill Bill to fix later on.
+     */
+    public CieloCallResult<Sale> create(final Sale sale, final CieloDeadline deadline) {
+        final String merchantOrderId = sale.getMerchantOrderId();
+        return callCieloWithRetries(CieloOperation.SALE, new IngenicoCall<CieloGateway, Sale>() {
             @Override
-            public Sale apply(final CieloEcommerce client) throws CieloRequestException, IOException {
+            public Sale apply(final CieloGateway client) throws CieloRequestException, IOException {
                 return client.createSale(sale);
             }
-        });
+        }, merchantOrderId == null ? null : new SaleCreationLookup(sale, new DateTime(DateTimeZone.UTC)), false, deadline);
     }
 
-    public CieloCallResult<Sale> capture(final  String paymentId, final Integer amount) {
-        return callCielo(new IngenicoCall<CieloEcommerce, Sale>() {
+    public CieloCallResult<Sale> capture(final  String paymentId, final Integer amount, final CieloDeadline deadline) {
+        return callCieloWithRetries(CieloOperation.CAPTURE, new IngenicoCall<CieloGateway, Sale>() {
             @Override
-            public Sale apply(final CieloEcommerce client) throws CieloRequestException, IOException {
+            public Sale apply(final CieloGateway client) throws CieloRequestException, IOException {
                 return client.captureSale(paymentId, amount);
             }
+        }, new SaleStatusLookup(paymentId, PAYMENT_CONFIRMED), false, deadline);
+    }
+
+    /**
+     * Queries are read-only: concurrent queries for the same payment share a single call, and if hedging is enabled,
+     * a slow query is duplicated and the first answer wins. Queries joining one in progress wait for it no longer than
+     * their own deadline.
+     */
+    public CieloCallResult<Sale> get(final String paymentId, final CieloDeadline deadline) {
+        try {
+            return saleQueries.execute(paymentId, deadline, new Supplier<CieloCallResult<Sale>>() {
+                @Override
+                public CieloCallResult<Sale> get() {
+                    cieloQueryHedger.onQuery();
+                    return callCieloWithRetries(CieloOperation.QUERY, new IngenicoCall<CieloGateway, Sale>() {
+                        @Override
+                        public Sale apply(final CieloGateway client) throws CieloRequestException, IOException {
+                            return client.querySale(paymentId);
+                        }
+                    }, cieloQueryHedger.getHedgeDelayMillis(), null, true, deadline);
+                }
+            });
+        } catch (final CieloDeadlineExceededException e) {
+            return mapExceptionToCallResult(e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return mapExceptionToCallResult(e);
+        }
+    }
+
+    /**
+     * Refunds are not supported yet: nothing is sent to Cielo, and neither the limits nor the circuit breaker are involved.
+     */
+    public CieloCallResult<Sale> refund(final String paymentId, final Integer amount, final CieloDeadline deadline) {
+        return refundNotSupported(paymentId);
+    }
+
+    public CieloCallResult<Sale> cancel(final  String paymentId, final CieloDeadline deadline) {
+        return callCieloWithRetries(CieloOperation.CAPTURE, new IngenicoCall<CieloGateway, Sale>() {
+            @Override
+            public Sale apply(final CieloGateway client) throws CieloRequestException, IOException {
+                return client.cancelSale(paymentId);
+            }
+        }, new SaleStatusLookup(paymentId, VOIDED, REFUNDED), false, deadline);
+    }
+
+    /**
+     * No way to tell whether a token was created: only retried if the request was not sent.
+     */
+    public CieloCallResult<CreditCard> createToken(final CreditCard createTokenRequest, final CieloDeadline deadline) {
+        return callCieloWithRetries(CieloOperation.TOKENIZE, new IngenicoCall<CieloGateway, CreditCard>() {
+            @Override
+            public CreditCard apply(final CieloGateway client) throws CieloRequestException, IOException {
+                return client.tokenizeCard(createTokenRequest);
+            }
+        }, null, false, deadline);
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> createAsync(final Sale sale) {
+        return callCieloAsync(CieloOperation.SALE, new AsyncIngenicoCall<Sale>() {
+            @Override
+            public ListenableFuture<Sale> apply(final CieloAsyncTransport transport) {
+                return transport.createSale(sale);
+            }
         });
     }
 
-    public CieloCallResult<Sale> get(final String paymentId) {
-        return callCielo(new IngenicoCall<CieloEcommerce, Sale>() {
+    public ListenableFuture<CieloCallResult<Sale>> captureAsync(final String paymentId, final Integer amount) {
+        return callCieloAsync(CieloOperation.CAPTURE, new AsyncIngenicoCall<Sale>() {
             @Override
-            public Sale apply(final CieloEcommerce client) throws CieloRequestException, IOException {
-                return client.querySale(paymentId);
+            public ListenableFuture<Sale> apply(final CieloAsyncTransport transport) {
+                return transport.captureSale(paymentId, amount);
             }
         });
     }
 
-    public CieloCallResult<Sale> refund(final String paymentId, final Integer amount) {
-        return callCielo(new IngenicoCall<CieloEcommerce, Sale>() {
+    public ListenableFuture<CieloCallResult<Sale>> getAsync(final String paymentId) {
+        return callCieloAsync(CieloOperation.QUERY, new AsyncIngenicoCall<Sale>() {
             @Override
-            public Sale apply(final CieloEcommerce client) throws CieloRequestException, IOException {
-                //return client.refund(paymentId, amount);
-                return null;
+            public ListenableFuture<Sale> apply(final CieloAsyncTransport transport) {
+                return transport.querySale(paymentId);
             }
         });
     }
 
-    public CieloCallResult<Sale> cancel(final  String paymentId) {
-        return callCielo(new IngenicoCall<CieloEcommerce, Sale>() {
+    /**
+     * Same as {@link #refund(String, Integer, CieloDeadline)}.
+     */
+    public ListenableFuture<CieloCallResult<Sale>> refundAsync(final String paymentId, final Integer amount) {
+        return Futures.immediateFuture(refundNotSupported(paymentId));
+    }
+
+    public ListenableFuture<CieloCallResult<Sale>> cancelAsync(final String paymentId) {
+        return callCieloAsync(CieloOperation.CAPTURE, new AsyncIngenicoCall<Sale>() {
             @Override
-            public Sale apply(final CieloEcommerce client) throws CieloRequestException, IOException {
-                return client.cancelSale(paymentId);
+            public ListenableFuture<Sale> apply(final CieloAsyncTransport transport) {
+                return transport.cancelSale(paymentId);
             }
         });
     }
 
-    public CieloCallResult<CreditCard> createToken(final CreditCard createTokenRequest) {
-        return callCielo(new IngenicoCall<CieloEcommerce, CreditCard>() {
+    public ListenableFuture<CieloCallResult<CreditCard>> createTokenAsync(final CreditCard createTokenRequest) {
+        return callCieloAsync(CieloOperation.TOKENIZE, new AsyncIngenicoCall<CreditCard>() {
             @Override
-            public CreditCard apply(final CieloEcommerce client) throws CieloRequestException, IOException {
-                return client.tokenizeCard(createTokenRequest);
+            public ListenableFuture<CreditCard> apply(final CieloAsyncTransport transport) {
+                return transport.tokenizeCard(createTokenRequest);
             }
         });
     }
 
-    private <T> CieloCallResult<T> callCielo(final IngenicoCall<CieloEcommerce, T> ingenicoCall) {
-        final long startTime = System.currentTimeMillis();
+    private <T> CieloCallResult<T> callCielo(final CieloOperation operation, final IngenicoCall<CieloGateway, T> ingenicoCall, final CieloDeadline deadline) {
+        return callCielo(operation, ingenicoCall, -1, deadline);
+    }
+
+    private <T> CieloCallResult<T> callCieloWithRetries(final CieloOperation operation,
+                                                        final IngenicoCall<CieloGateway, T> ingenicoCall,
+                                                        @Nullable final OutcomeLookup<T> outcomeLookup,
+                                                        final boolean idempotent,
+                                                        final CieloDeadline deadline) {
+        return callCieloWithRetries(operation, ingenicoCall, -1, outcomeLookup, idempotent, deadline);
+    }
+
+    /**
+     * Calls which were not sent (connection refused or timed out, no pooled connection leased in time, unknown host) are
+     * always retried. Calls which may have reached Cielo (no or invalid response) are
+     * retried if they are idempotent, or if the outcome lookup proves they did not go through: if they did, its result is used instead.
+     * No retry is started if its backoff would not leave any time before the deadline.
+     *
+     * @param outcomeLookup result of the call if it went through, null if there is no way to tell
+     */
+    private <T> CieloCallResult<T> callCieloWithRetries(final CieloOperation operation,
+                                                        final IngenicoCall<CieloGateway, T> ingenicoCall,
+                                                        final long hedgeDelayMillis,
+                                                        @Nullable final OutcomeLookup<T> outcomeLookup,
+                                                        final boolean idempotent,
+                                                        final CieloDeadline deadline) {
+        final long startTime = System.nanoTime();
+        CieloCallResult<T> result = callCielo(operation, ingenicoCall, hedgeDelayMillis, deadline);
+        for (int attempts = 1; ; attempts++) {
+            final Optional<CieloCallErrorStatus> responseStatus = result.getResponseStatus();
+            if (!responseStatus.isPresent()) {
+                return result;
+            }
+
+            if (responseStatus.get() != REQUEST_NOT_SEND) {
+                if (responseStatus.get() != RESPONSE_NOT_RECEIVED && responseStatus.get() != RESPONSE_INVALID) {
+                    return result;
+                }
+                if (!idempotent) {
+                    if (outcomeLookup == null) {
+                        return result;
+                    }
+                    final CieloCallResult<Optional<T>> lookupResult = callCielo(CieloOperation.QUERY, outcomeLookup, deadline);
+                    if (!lookupResult.getResult().isPresent()) {
+                        // Still ambiguous: leave it to Kill Bill to fix the transaction later on
+                        return result;
+                    }
+                    if (lookupResult.getResult().get().isPresent()) {
+                        cieloRetryPolicy.onRecoveredByLookup();
+                        final SuccessfulCieloCall<T> recoveredResult = new SuccessfulCieloCall<T>(lookupResult.getResult().get().get(), millisSince(startTime));
+                        recoveredResult.setTimings(lookupResult.getTimings());
+                        return recoveredResult;
+                    }
+                    if (!outcomeLookup.provesAbsence()) {
+                        return result;
+                    }
+                }
+            }
+
+            final long backoffMillis = cieloRetryPolicy.getBackoffMillis(attempts, millisSince(startTime));
+            if (backoffMillis < 0 || backoffMillis >= deadline.remainingMillis()) {
+                return result;
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return result;
+            }
+
+            logger.info("Retrying Cielo call after {} (attempt {})", responseStatus.get(), attempts + 1);
+            cieloRetryPolicy.onRetry();
+            result = callCielo(operation, ingenicoCall, hedgeDelayMillis, deadline);
+        }
+    }
+
+    /**
+     * @param hedgeDelayMillis delay after which the call is attempted a second time, -1 to never hedge it
+     */
+    private <T> CieloCallResult<T> callCielo(final CieloOperation operation, final IngenicoCall<CieloGateway, T> ingenicoCall, final long hedgeDelayMillis, final CieloDeadline deadline) {
+        if (deadline.isExpired()) {
+            return deadlineExceededCall("calling Cielo");
+        }
+        // While the circuit is open, calls are rejected right away rather than after waiting for a permit
+        if (!cieloCircuitBreaker.tryAcquirePermission()) {
+            return circuitOpenCall();
+        }
+        // Waiting for a permit before taking a concurrency slot, so that none is held meanwhile
+        if (!cieloRateLimiter.tryAcquire(operation, deadline)) {
+            final CieloCallResult<T> rateLimitedResult = rateLimitedCall(operation);
+            // Gives back the half-open probe, if it was one
+            cieloCircuitBreaker.onResult(rateLimitedResult);
+            return rateLimitedResult;
+        }
+        if (!cieloConcurrencyLimiter.tryAcquire(deadline)) {
+            final CieloCallResult<T> rejectedResult = concurrencyLimitedCall();
+            cieloCircuitBreaker.onResult(rejectedResult);
+            return rejectedResult;
+        }
+
+        CieloCallResult<T> result = null;
         try {
-            final CieloEcommerce client = cieloClientRegistry.getCieloClient();
-            final T result = ingenicoCall.apply(client);
+            result = hedgeDelayMillis < 0 ? doCallCielo(operation, ingenicoCall, deadline) : doCallCieloHedged(operation, ingenicoCall, hedgeDelayMillis, deadline);
+        } finally {
+            cieloConcurrencyLimiter.release(operation, result);
+        }
+        cieloCircuitBreaker.onResult(result);
+        return result;
+    }
+
+    private <T> CieloCallResult<T> doCallCielo(final CieloOperation operation, final IngenicoCall<CieloGateway, T> ingenicoCall, final CieloDeadline deadline) {
+        final long startTime = System.nanoTime();
+        CieloCallTimings timings = null;
+        try {
+            final CieloGateway client = cieloClientRegistry.getGateway();
+            final Future<CallAttempt<T>> submittedAttempt = cieloCallExecutor.submit(timedAttempt(operation, client, ingenicoCall, false, deadline));
+            final CallAttempt<T> attempt = deadline.isBounded() ? submittedAttempt.get(deadline.remainingMillis() + DEADLINE_GRACE_MILLIS, TimeUnit.MILLISECONDS) : submittedAttempt.get();
+            timings = attempt.timings;
+            if (attempt.failure != null) {
+                throw attempt.failure;
+            }
 
-            final long duration = System.currentTimeMillis() - startTime;
-            return new SuccessfulCieloCall<T>(result, duration);
+            final SuccessfulCieloCall<T> successfulResult = new SuccessfulCieloCall<T>(attempt.result, millisSince(startTime));
+            successfulResult.setTimings(timings);
+            return successfulResult;
         } catch (final Exception e) {
-            final long duration = System.currentTimeMillis() - startTime;
+            if (e instanceof InterruptedException) {
+                // The call itself keeps running on the executor: its socket timeout bounds it
+                Thread.currentThread().interrupt();
+            }
             logger.warn("Exception during Ingenico sale", e);
 
             final UnSuccessfulCieloCall<T> unsuccessfulResult = mapExceptionToCallResult(e);
-            unsuccessfulResult.setDuration(duration);
+            unsuccessfulResult.setDuration(millisSince(startTime));
+            unsuccessfulResult.setTimings(timings != null ? timings : CieloCallTimings.totalOnly(System.nanoTime() - startTime));
             return unsuccessfulResult;
         }
     }
 
+    private <T> CieloCallResult<T> doCallCieloHedged(final CieloOperation operation, final IngenicoCall<CieloGateway, T> ingenicoCall, final long hedgeDelayMillis, final CieloDeadline deadline) {
+        final long startTime = System.nanoTime();
+        CieloCallTimings timings = null;
+        // Large enough for both attempts, so that the losing one never blocks
+        final BlockingQueue<CallAttempt<T>> attempts = new ArrayBlockingQueue<CallAttempt<T>>(2);
+        try {
+            final CieloGateway client = cieloClientRegistry.getGateway();
+            submitAttempt(operation, client, ingenicoCall, attempts, false, deadline);
+            int pendingAttempts = 1;
+
+            CallAttempt<T> attempt = attempts.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS);
+            if (attempt == null) {
+                if (submitHedge(operation, client, ingenicoCall, attempts, deadline)) {
+                    pendingAttempts++;
+                }
+                attempt = nextAttempt(attempts, deadline);
+            }
+            pendingAttempts--;
+
+            // First answer wins, unless it is a failure and the other attempt may still succeed.
+            // The losing attempt is left to complete: interrupting it would not abort the blocking socket read anyway
+            while (attempt.failure != null && pendingAttempts > 0) {
+                attempt = nextAttempt(attempts, deadline);
+                pendingAttempts--;
+            }
+            if (attempt.hedge) {
+                cieloQueryHedger.onHedgeWon();
+            }
+            timings = attempt.timings;
+            if (attempt.failure != null) {
+                throw attempt.failure;
+            }
+
+            final SuccessfulCieloCall<T> successfulResult = new SuccessfulCieloCall<T>(attempt.result, millisSince(startTime));
+            successfulResult.setTimings(timings);
+            return successfulResult;
+        } catch (final Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.warn("Exception during Ingenico sale", e);
+
+            final UnSuccessfulCieloCall<T> unsuccessfulResult = mapExceptionToCallResult(e);
+            unsuccessfulResult.setDuration(millisSince(startTime));
+            unsuccessfulResult.setTimings(timings != null ? timings : CieloCallTimings.totalOnly(System.nanoTime() - startTime));
+            return unsuccessfulResult;
+        }
+    }
+
+    /**
+     * The hedge is extra load: it is only sent if the hedging budget, the rate limit and the concurrency limit all allow it.
+     */
+    private <T> boolean submitHedge(final CieloOperation operation, final CieloGateway client, final IngenicoCall<CieloGateway, T> ingenicoCall, final BlockingQueue<CallAttempt<T>> attempts, final CieloDeadline deadline) {
+        if (!cieloQueryHedger.tryAcquireHedge() || !cieloRateLimiter.tryAcquireNow(operation) || !cieloConcurrencyLimiter.tryAcquireNow()) {
+            return false;
+        }
+        try {
+            submitAttempt(operation, client, ingenicoCall, attempts, true, deadline);
+            return true;
+        } catch (final RejectedExecutionException e) {
+            cieloConcurrencyLimiter.release(operation, null);
+            return false;
+        }
+    }
+
+    private <T> void submitAttempt(final CieloOperation operation, final CieloGateway client, final IngenicoCall<CieloGateway, T> ingenicoCall, final BlockingQueue<CallAttempt<T>> attempts, final boolean hedge, final CieloDeadline deadline) {
+        final Callable<CallAttempt<T>> attempt = timedAttempt(operation, client, ingenicoCall, hedge, deadline);
+        cieloCallExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    attempts.offer(attempt.call());
+                } finally {
+                    if (hedge) {
+                        cieloConcurrencyLimiter.release(operation, null);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The attempt never throws: failures are returned along with the timings measured until then.
+     * It is not sent if the deadline passed while it was queued, otherwise its timeouts are shortened to the time left.
+     * Its socket timeout follows the latencies observed for the operation, and its own latency is recorded in turn
+     * (also for the hedging delay, if it is the first attempt of a sale query).
+     */
+    private <T> Callable<CallAttempt<T>> timedAttempt(final CieloOperation operation, final CieloGateway client, final IngenicoCall<CieloGateway, T> ingenicoCall, final boolean hedge, final CieloDeadline deadline) {
+        final long submittedAt = System.nanoTime();
+        return new Callable<CallAttempt<T>>() {
+            @Override
+            public CallAttempt<T> call() {
+                final long startedAt = System.nanoTime();
+                final CieloCallTimer timer = CieloCallTimer.start();
+                final int socketTimeout = cieloAdaptiveTimeouts.getSocketTimeout(operation);
+                final CieloCallTimeouts timeouts = CieloCallTimeouts.start(deadline, socketTimeout);
+                T result = null;
+                Exception failure = null;
+                try {
+                    if (deadline.isExpired()) {
+                        failure = new CieloDeadlineExceededException("leaving the call queue");
+                    } else {
+                        result = ingenicoCall.apply(client);
+                    }
+                } catch (final Exception e) {
+                    failure = e;
+                } finally {
+                    timeouts.stop();
+                    timer.stop();
+                }
+                final long latencyMillis = millisSince(startedAt);
+                if (!(failure instanceof CieloDeadlineExceededException)) {
+                    cieloAdaptiveTimeouts.record(operation, latencyMillis, failure, socketTimeout);
+                }
+                // Outcome lookups are queries too, but they may take several calls
+                if (operation == CieloOperation.QUERY && !hedge && failure == null && !(ingenicoCall instanceof OutcomeLookup)) {
+                    cieloQueryHedger.recordPrimaryAttempt(latencyMillis);
+                }
+                final CieloCallTimings timings = CieloCallTimings.of(startedAt - submittedAt, timer, System.nanoTime() - submittedAt);
+                return new CallAttempt<T>(result, failure, hedge, timings);
+            }
+        };
+    }
+
+    private <T> ListenableFuture<CieloCallResult<T>> callCieloAsync(final CieloOperation operation, final AsyncIngenicoCall<T> ingenicoCall) {
+        // Callers of the asynchronous API must not block: don't wait for a permit or a slot
+        if (!cieloCircuitBreaker.tryAcquirePermission()) {
+            return Futures.immediateFuture(this.<T>circuitOpenCall());
+        }
+        if (!cieloRateLimiter.tryAcquireNow(operation)) {
+            final CieloCallResult<T> rateLimitedResult = rateLimitedCall(operation);
+            cieloCircuitBreaker.onResult(rateLimitedResult);
+            return Futures.immediateFuture(rateLimitedResult);
+        }
+        if (!cieloConcurrencyLimiter.tryAcquireNow()) {
+            final CieloCallResult<T> rejectedResult = concurrencyLimitedCall();
+            cieloCircuitBreaker.onResult(rejectedResult);
+            return Futures.immediateFuture(rejectedResult);
+        }
+
+        final long startTime = System.nanoTime();
+        final SettableFuture<CieloCallResult<T>> callResult = SettableFuture.create();
+
+        ListenableFuture<T> response;
+        try {
+            response = ingenicoCall.apply(cieloClientRegistry.getAsyncTransport());
+        } catch (final Exception e) {
+            response = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(response, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T result) {
+                // Phases run on the I/O reactor, only the total is known
+                final SuccessfulCieloCall<T> successfulResult = new SuccessfulCieloCall<T>(result, millisSince(startTime));
+                successfulResult.setTimings(CieloCallTimings.totalOnly(System.nanoTime() - startTime));
+                cieloConcurrencyLimiter.release(operation, successfulResult);
+                cieloCircuitBreaker.onResult(successfulResult);
+                callResult.set(successfulResult);
+            }
+
+            @Override
+            public void onFailure(final Throwable t) {
+                logger.warn("Exception during Ingenico sale", t);
+
+                final UnSuccessfulCieloCall<T> unsuccessfulResult = mapExceptionToCallResult(t);
+                unsuccessfulResult.setDuration(millisSince(startTime));
+                unsuccessfulResult.setTimings(CieloCallTimings.totalOnly(System.nanoTime() - startTime));
+                cieloConcurrencyLimiter.release(operation, unsuccessfulResult);
+                cieloCircuitBreaker.onResult(unsuccessfulResult);
+                callResult.set(unsuccessfulResult);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return callResult;
+    }
+
+    private List<String> queryPaymentIdsByMerchantOrderId(final String merchantOrderId) throws CieloRequestException, IOException {
+        try {
+            return cieloClientRegistry.getAsyncTransport().queryPaymentIdsByMerchantOrderId(merchantOrderId).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while looking up merchant order " + merchantOrderId);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof CieloRequestException) {
+                final CieloError error = ((CieloRequestException) cause).getError();
+                if (error != null && Integer.valueOf(404).equals(error.getCode())) {
+                    return Collections.emptyList();
+                }
+                throw (CieloRequestException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private CieloCallResult<Sale> refundNotSupported(final String paymentId) {
+        return new UnSuccessfulCieloCall<Sale>(UNKNOWN_FAILURE, new UnsupportedOperationException("Refunds are not supported yet, payment " + paymentId));
+    }
+
+    private <T> CieloCallResult<T> circuitOpenCall() {
+        return new UnSuccessfulCieloCall<T>(REQUEST_REJECTED, new CieloCircuitOpenException(cieloCircuitBreaker.getMerchantKey()));
+    }
+
+    /**
+     * Waits for the next attempt to complete, no longer than the deadline allows.
+     */
+    private static <T> CallAttempt<T> nextAttempt(final BlockingQueue<CallAttempt<T>> attempts, final CieloDeadline deadline) throws InterruptedException, TimeoutException {
+        if (!deadline.isBounded()) {
+            return attempts.take();
+        }
+        final CallAttempt<T> attempt = attempts.poll(deadline.remainingMillis() + DEADLINE_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        if (attempt == null) {
+            throw new TimeoutException("No response from Cielo before the deadline");
+        }
+        return attempt;
+    }
+
+    private <T> CieloCallResult<T> deadlineExceededCall(final String stage) {
+        return new UnSuccessfulCieloCall<T>(DEADLINE_EXCEEDED, new CieloDeadlineExceededException(stage));
+    }
+
+    private <T> CieloCallResult<T> rateLimitedCall(final CieloOperation operation) {
+        return new UnSuccessfulCieloCall<T>(REQUEST_REJECTED, new CieloRateLimitException(cieloRateLimiter.getMerchantKey(), operation));
+    }
+
+    private <T> CieloCallResult<T> concurrencyLimitedCall() {
+        return new UnSuccessfulCieloCall<T>(REQUEST_REJECTED, new CieloConcurrencyLimitException(cieloConcurrencyLimiter.getMerchantKey()));
+    }
+
     /**
-     * Educated guess approach to transform CXF exceptions into error status codes.
-     * In the future if we encounter further different cases it makes sense to change this if/else structure to a map with lookup.
+     * Maps a failed call to its error status, from the types of the exceptions in its causal chain, outermost first:
+     * HttpClient wraps the socket exceptions into its own (e.g. a connect timeout into a ConnectTimeoutException), and
+     * the wrapper is what tells whether the request was sent.
      */
-    private <T> UnSuccessfulCieloCall<T> mapExceptionToCallResult(final Exception e) {
+    private <T> UnSuccessfulCieloCall<T> mapExceptionToCallResult(final Throwable e) {
         //noinspection ThrowableResultOfMethodCallIgnored
         final Throwable rootCause = Throwables.getRootCause(e);
-        final String errorMessage = rootCause.getMessage();
-        if (rootCause instanceof ConnectException) {
-            return new UnSuccessfulCieloCall<T>(REQUEST_NOT_SEND, rootCause);
-        } else if (rootCause instanceof SocketTimeoutException) {
-            // read timeout
-            if (errorMessage.contains("Read timed out")) {
-                return new UnSuccessfulCieloCall<T>(RESPONSE_NOT_RECEIVED, rootCause);
-            } else if (errorMessage.contains("Unexpected end of file from server")) {
-                return new UnSuccessfulCieloCall<T>(RESPONSE_INVALID, rootCause);
-            }
-        } else if (rootCause instanceof SocketException) {
-            if (errorMessage.contains("Unexpected end of file from server")) {
-                return new UnSuccessfulCieloCall<T>(RESPONSE_INVALID, rootCause);
-            }
-        } else if (rootCause instanceof UnknownHostException) {
-            return new UnSuccessfulCieloCall<T>(REQUEST_NOT_SEND, rootCause);
-        } else if (rootCause instanceof IllegalArgumentException) {
-            return new UnSuccessfulCieloCall<T>(RESPONSE_ABOUT_INVALID_REQUEST, rootCause);
-        } else if (rootCause instanceof CieloRequestException) {
-            CieloErrors errors = parseApiError((CieloRequestException) rootCause);
-            return new UnSuccessfulCieloCall<T>(RESPONSE_ABOUT_INVALID_REQUEST, rootCause, errors.getError(), errors.getPaymentId(), errors.getStatus());
-        } else if (rootCause instanceof IOException) {
-            if (errorMessage.contains("Invalid Http response")) {
-                // unparsable data as response
-                return new UnSuccessfulCieloCall<T>(RESPONSE_INVALID, rootCause);
-            } else if (errorMessage.contains("Bogus chunk size")) {
-                return new UnSuccessfulCieloCall<T>(RESPONSE_INVALID, rootCause);
+        for (final Throwable cause : Throwables.getCausalChain(e)) {
+            if (cause instanceof CieloRequestException) {
+                final CieloErrors errors = parseApiError((CieloRequestException) cause);
+                return new UnSuccessfulCieloCall<T>(RESPONSE_ABOUT_INVALID_REQUEST, cause, errors.getError(), errors.getPaymentId(), errors.getStatus());
+            }
+            final CieloCallErrorStatus status = errorStatus(cause);
+            if (status != null) {
+                return new UnSuccessfulCieloCall<T>(status, rootCause);
             }
         }
 
         return new UnSuccessfulCieloCall<T>(UNKNOWN_FAILURE, rootCause);
     }
 
+    /**
+     * @return error status of the exception, null if it does not tell (e.g. a wrapper, the cause may)
+     */
+    @VisibleForTesting
+    static CieloCallErrorStatus errorStatus(final Throwable e) {
+        final String errorMessage = Strings.nullToEmpty(e.getMessage());
+        if (e instanceof CieloDeadlineExceededException) {
+            return DEADLINE_EXCEEDED;
+        } else if (e instanceof TimeoutException) {
+            // gave up waiting for the attempt, which may still complete
+            return RESPONSE_NOT_RECEIVED;
+        } else if (e instanceof ConnectTimeoutException) {
+            // connect timeout, or no pooled connection leased in time (ConnectionPoolTimeoutException)
+            return REQUEST_NOT_SEND;
+        } else if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof UnknownHostException) {
+            // includes HttpHostConnectException
+            return REQUEST_NOT_SEND;
+        } else if (e instanceof SocketTimeoutException) {
+            // raw socket timeouts, HttpClient wraps the connect ones
+            return errorMessage.contains("connect timed out") ? REQUEST_NOT_SEND : RESPONSE_NOT_RECEIVED;
+        } else if (e instanceof NoHttpResponseException) {
+            // connection closed by Cielo before any response
+            return RESPONSE_NOT_RECEIVED;
+        } else if (e instanceof MalformedChunkCodingException || e instanceof ConnectionClosedException) {
+            // response cut short
+            return RESPONSE_INVALID;
+        } else if (e instanceof SocketException) {
+            // connection reset or broken once established: the request may have been sent
+            return errorMessage.contains("Unexpected end of file from server") ? RESPONSE_INVALID : RESPONSE_NOT_RECEIVED;
+        } else if (e instanceof JsonProcessingException || e instanceof JsonParseException) {
+            // response body cut short or not JSON (Jackson while streaming it, Gson while mapping it to the SDK model)
+            return RESPONSE_INVALID;
+        } else if (e instanceof RejectedExecutionException) {
+            return REQUEST_REJECTED;
+        } else if (e instanceof IllegalArgumentException) {
+            return RESPONSE_ABOUT_INVALID_REQUEST;
+        } else if (e instanceof IOException) {
+            if (errorMessage.contains("Invalid Http response") || errorMessage.contains("Bogus chunk size")
+                || errorMessage.contains("Unexpected end of file from server")) {
+                // unparsable data as response
+                return RESPONSE_INVALID;
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("connectionPool", cieloClientRegistry.getConnectionPoolStatistics());
+        statistics.put("connectionWarmup", cieloClientRegistry.getConnectionWarmupStatistics());
+        final Map<String, Object> faultInjectionStatistics = cieloClientRegistry.getFaultInjectionStatistics();
+        if (faultInjectionStatistics != null) {
+            statistics.put("faultInjection", faultInjectionStatistics);
+        }
+        statistics.put("callExecutor", cieloCallExecutor.getStatistics());
+        statistics.put("circuitBreaker", cieloCircuitBreaker.getStatistics());
+        statistics.put("concurrencyLimiter", cieloConcurrencyLimiter.getStatistics());
+        statistics.put("rateLimiter", cieloRateLimiter.getStatistics());
+        statistics.put("adaptiveTimeouts", cieloAdaptiveTimeouts.getStatistics());
+        statistics.put("queryHedging", cieloQueryHedger.getStatistics());
+        statistics.put("retries", cieloRetryPolicy.getStatistics());
+        statistics.put("queryCoalescing", saleQueries.getStatistics());
+        return statistics;
+    }
+
+    public void startConnectionWarmup() {
+        cieloClientRegistry.startConnectionWarmup();
+    }
+
+    public void rotateCredentials(final CieloCredentials credentials) {
+        cieloClientRegistry.rotateCredentials(credentials);
+    }
+
+    /**
+     * Lets the calls in flight complete (within the shutdown grace period) before releasing the connections.
+     */
     @Override
     public void close() throws IOException {
-        cieloClientRegistry.close();
+        try {
+            cieloCallExecutor.close();
+        } finally {
+            cieloClientRegistry.close();
+        }
     }
 
     private interface IngenicoCall<T, R> {
@@ -179,6 +750,131 @@ public class CieloPaymentRequestSender implements Closeable {
         R apply(T t) throws CieloRequestException, IOException;
     }
 
+    private interface AsyncIngenicoCall<R> {
+
+        ListenableFuture<R> apply(CieloAsyncTransport transport);
+    }
+
+    /**
+     * Result of a call which may have gone through without us getting the response.
+     */
+    private interface OutcomeLookup<R> extends IngenicoCall<CieloGateway, Optional<R>> {
+
+        /**
+         * @return whether finding nothing proves that the call did not go through, so that it can be sent again
+         */
+        boolean provesAbsence();
+    }
+
+    /**
+     * Tells whether a capture or a void went through, from the current status of the sale.
+     */
+    private static final class SaleStatusLookup implements OutcomeLookup<Sale> {
+
+        private final String paymentId;
+        private final List<Integer> expectedStatuses;
+
+        private SaleStatusLookup(final String paymentId, final Integer... expectedStatuses) {
+            this.paymentId = paymentId;
+            this.expectedStatuses = Arrays.asList(expectedStatuses);
+        }
+
+        @Override
+        public Optional<Sale> apply(final CieloGateway client) throws CieloRequestException, IOException {
+            final Sale sale = client.querySale(paymentId);
+            if (sale.getPayment() != null && expectedStatuses.contains(sale.getPayment().getStatus())) {
+                return Optional.of(sale);
+            }
+            return Optional.absent();
+        }
+
+        @Override
+        public boolean provesAbsence() {
+            return true;
+        }
+    }
+
+    /**
+     * Finds the sale created by an attempt among the ones sharing its merchant order id: other sales (e.g. earlier
+     * attempts of the same transaction) are told apart by their amount, their creation date and their status.
+     */
+    private final class SaleCreationLookup implements OutcomeLookup<Sale> {
+
+        private final Sale sale;
+        private final DateTime attemptedAt;
+
+        private SaleCreationLookup(final Sale sale, final DateTime attemptedAt) {
+            this.sale = sale;
+            this.attemptedAt = attemptedAt;
+        }
+
+        @Override
+        public Optional<Sale> apply(final CieloGateway client) throws CieloRequestException, IOException {
+            final List<String> paymentIds = queryPaymentIdsByMerchantOrderId(sale.getMerchantOrderId());
+            // Latest first
+            for (int i = paymentIds.size() - 1; i >= 0; i--) {
+                final Sale candidate = client.querySale(paymentIds.get(i));
+                if (isCreatedByAttempt(candidate)) {
+                    return Optional.of(candidate);
+                }
+            }
+            return Optional.absent();
+        }
+
+        @Override
+        public boolean provesAbsence() {
+            // Cielo may not have indexed the sale yet
+            return false;
+        }
+
+        private boolean isCreatedByAttempt(final Sale candidate) {
+            final Payment payment = candidate.getPayment();
+            if (payment == null || payment.getAmount() == null || !payment.getAmount().equals(sale.getPayment().getAmount())) {
+                return false;
+            }
+            if (payment.getStatus() == null || !CREATED_SALE_STATUSES.contains(payment.getStatus())) {
+                return false;
+            }
+
+            final DateTime receivedDate = parseReceivedDate(payment.getReceivedDate());
+            return receivedDate != null &&
+                   !receivedDate.isBefore(attemptedAt.minus(RECEIVED_DATE_TOLERANCE_MILLIS)) &&
+                   !receivedDate.isAfter(new DateTime(DateTimeZone.UTC).plus(RECEIVED_DATE_TOLERANCE_MILLIS));
+        }
+    }
+
+    @Nullable
+    private static DateTime parseReceivedDate(@Nullable final String receivedDate) {
+        if (receivedDate == null) {
+            return null;
+        }
+        try {
+            return RECEIVED_DATE_FORMAT.parseDateTime(receivedDate);
+        } catch (final IllegalArgumentException e) {
+            logger.warn("Unexpected Cielo ReceivedDate {}", receivedDate);
+            return null;
+        }
+    }
+
+    private static long millisSince(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static final class CallAttempt<T> {
+
+        private final T result;
+        private final Exception failure;
+        private final boolean hedge;
+        private final CieloCallTimings timings;
+
+        private CallAttempt(final T result, final Exception failure, final boolean hedge, final CieloCallTimings timings) {
+            this.result = result;
+            this.failure = failure;
+            this.hedge = hedge;
+            this.timings = timings;
+        }
+    }
+
     private static class CieloErrors {
         final private CieloError error;
         final private String status;
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+
+/**
+ * Decides when a sale query still pending should be duplicated (hedged), and how much extra traffic this may add.
+ * <p>
+ * Queries are read-only, so whichever attempt answers first can be used. Unless a fixed delay is configured, the hedge
+ * is sent once the query has been pending longer than the configured percentile of the latencies of the recent first attempts.
+ */
+public class CieloQueryHedger {
+
+    private static final int LATENCY_WINDOW_SIZE = 1000;
+    // Don't trust the observed percentile before that many samples
+    private static final int MIN_SAMPLES = 20;
+
+    private final boolean enabled;
+    private final long fixedDelayMillis;
+    private final double percentile;
+    private final int budgetPercent;
+    private final CieloLatencyRecorder latencies = new CieloLatencyRecorder(LATENCY_WINDOW_SIZE);
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong hedgedQueries = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesOverBudget = new AtomicLong();
+
+    public CieloQueryHedger(final CieloConfigProperties config) {
+        this.enabled = config.isQueryHedgingEnabled();
+        this.fixedDelayMillis = config.getQueryHedgingDelay();
+        this.percentile = config.getQueryHedgingPercentile();
+        this.budgetPercent = config.getQueryHedgingBudgetPercent();
+    }
+
+    /**
+     * @return how long to wait for a query before hedging it, -1 if it must not be hedged
+     */
+    public long getHedgeDelayMillis() {
+        if (!enabled) {
+            return -1;
+        }
+        if (fixedDelayMillis > 0) {
+            return fixedDelayMillis;
+        }
+        return latencies.getSampleCount() < MIN_SAMPLES ? -1 : latencies.getPercentile(percentile);
+    }
+
+    /**
+     * @return false if hedging one more query would exceed the budget
+     */
+    public boolean tryAcquireHedge() {
+        if (hedgedQueries.get() * 100 >= budgetPercent * Math.max(1, queries.get())) {
+            hedgesOverBudget.incrementAndGet();
+            return false;
+        }
+        hedgedQueries.incrementAndGet();
+        return true;
+    }
+
+    public void onHedgeWon() {
+        hedgeWins.incrementAndGet();
+    }
+
+    public void onQuery() {
+        queries.incrementAndGet();
+    }
+
+    /**
+     * Record the latency of a successful first attempt, measured until it completes even if a hedge answered before.
+     * The duration of the whole query is cut short by the hedge (and stretched by the retries): the delay would end up
+     * following its own value rather than the latency of Cielo.
+     */
+    public void recordPrimaryAttempt(final long latencyMillis) {
+        latencies.record(latencyMillis);
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("enabled", enabled);
+        statistics.put("hedgeDelayMillis", getHedgeDelayMillis());
+        statistics.put("queries", queries.get());
+        statistics.put("hedgedQueries", hedgedQueries.get());
+        statistics.put("hedgeWins", hedgeWins.get());
+        statistics.put("hedgesOverBudget", hedgesOverBudget.get());
+        return statistics;
+    }
+}
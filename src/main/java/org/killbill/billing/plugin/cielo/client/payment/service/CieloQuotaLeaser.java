@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.sql.SQLException;
+
+/**
+ * Hands out permits of a merchant quota shared by all the Kill Bill nodes.
+ */
+public interface CieloQuotaLeaser {
+
+    /**
+     * Take consecutive permits of the quota for an operation. The quota is tracked with the clock of the shared store,
+     * so that the clock skew between the nodes does not matter.
+     *
+     * @param permitIntervalMicros time between two permits, i.e. the inverse of the rate
+     * @param burstMicros          how far in the past permits not taken while the quota was idle can go
+     * @param timeoutSeconds       how long to wait for the store, 0 for no limit
+     * @return time of the first permit, in microseconds from now (negative if permits accumulated while the quota was
+     * idle): the following ones are spaced by the permit interval
+     */
+    long leasePermits(String merchantKey, CieloOperation operation, int permits, long permitIntervalMicros, long burstMicros, int timeoutSeconds) throws SQLException;
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown instead of calling Cielo when no permit of the merchant quota for the operation becomes available in time.
+ */
+public class CieloRateLimitException extends RejectedExecutionException {
+
+    public CieloRateLimitException(final String merchantKey, final CieloOperation operation) {
+        super("Rate limit reached for " + operation + " calls of Cielo merchant " + merchantKey);
+    }
+}
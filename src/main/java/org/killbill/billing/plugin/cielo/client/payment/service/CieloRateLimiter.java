@@ -0,0 +1,277 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the calls made on behalf of a merchant within its Cielo quotas, with a token bucket per operation.
+ * <p>
+ * Rather than having Cielo turn calls down once a quota is exhausted, a call over the rate waits for its permit, up to
+ * the configured maximum wait: bursts are smoothed out and only a sustained excess is rejected locally.
+ * <p>
+ * When several Kill Bill nodes share the merchant, the quota can be shared as well: each node then leases a few permits
+ * at a time from the database, and hands them out locally until they are used up or expired.
+ */
+public class CieloRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloRateLimiter.class);
+
+    private final String merchantKey;
+    private final long maxWaitNanos;
+    private final boolean shared;
+    private final Map<CieloOperation, TokenBucket> buckets = new EnumMap<CieloOperation, TokenBucket>(CieloOperation.class);
+
+    /**
+     * @param quotaLeaser source of the permits shared with the other nodes, only used if the shared rate limit is enabled
+     */
+    public CieloRateLimiter(final CieloConfigProperties config, @Nullable final CieloQuotaLeaser quotaLeaser) {
+        this.merchantKey = config.getMerchantId() + "/" + config.getEnvironment();
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getRateLimitMaxWait());
+        this.shared = config.isRateLimitShared() && quotaLeaser != null;
+        final int burst = Math.max(1, config.getRateLimitBurst());
+        final long leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(config.getRateLimitLeaseDuration());
+        final CieloQuotaLeaser leaser = shared ? quotaLeaser : null;
+        buckets.put(CieloOperation.SALE, new TokenBucket(merchantKey, CieloOperation.SALE, config.getRateLimitSalesPerSecond(), burst, leaser, leaseDurationNanos));
+        buckets.put(CieloOperation.CAPTURE, new TokenBucket(merchantKey, CieloOperation.CAPTURE, config.getRateLimitCapturesPerSecond(), burst, leaser, leaseDurationNanos));
+        buckets.put(CieloOperation.QUERY, new TokenBucket(merchantKey, CieloOperation.QUERY, config.getRateLimitQueriesPerSecond(), burst, leaser, leaseDurationNanos));
+        buckets.put(CieloOperation.TOKENIZE, new TokenBucket(merchantKey, CieloOperation.TOKENIZE, config.getRateLimitTokenizationsPerSecond(), burst, leaser, leaseDurationNanos));
+    }
+
+    /**
+     * Wait (up to the configured maximum wait, and never past the deadline) for a permit of the operation quota.
+     *
+     * @return false if the call must not be attempted
+     */
+    public boolean tryAcquire(final CieloOperation operation, final CieloDeadline deadline) {
+        return buckets.get(operation).tryAcquire(deadline.boundNanos(maxWaitNanos));
+    }
+
+    /**
+     * Never waits, for callers which must not block and for extra calls such as hedges.
+     */
+    public boolean tryAcquireNow(final CieloOperation operation) {
+        return buckets.get(operation).tryAcquire(0);
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("merchant", merchantKey);
+        statistics.put("shared", shared);
+        for (final Map.Entry<CieloOperation, TokenBucket> entry : buckets.entrySet()) {
+            statistics.put(entry.getKey().toString().toLowerCase(), entry.getValue().getStatistics());
+        }
+        return statistics;
+    }
+
+    public String getMerchantKey() {
+        return merchantKey;
+    }
+
+    /**
+     * Permits are handed out at a fixed interval, and up to {@code burst} of them accumulate while the operation is idle.
+     * Instead of counting tokens, the bucket tracks when the next permit is available: a caller reserves that instant
+     * and sleeps until then, so that waiting callers are served in order without being woken up.
+     * <p>
+     * A local bucket owns all the permits. A shared bucket only owns the permits of its current lease, and takes a new
+     * one from the database once they are used up, or too old to be used without exceeding the burst. The lease is taken
+     * by one caller without holding the bucket lock: the others wait for it, no longer than their own timeout.
+     */
+    private static final class TokenBucket {
+
+        private final String merchantKey;
+        private final CieloOperation operation;
+        private final boolean enabled;
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final CieloQuotaLeaser quotaLeaser;
+        private final int leaseSize;
+
+        private long nextPermitNanos;
+        private long leaseEndNanos;
+        private boolean leaseInProgress;
+        private long permits;
+        private long throttledCalls;
+        private long rejectedCalls;
+        private long totalWaitNanos;
+        private long longestWaitNanos;
+        private long leases;
+        private long leaseFailures;
+
+        private TokenBucket(final String merchantKey,
+                            final CieloOperation operation,
+                            final double permitsPerSecond,
+                            final int burst,
+                            @Nullable final CieloQuotaLeaser quotaLeaser,
+                            final long leaseDurationNanos) {
+            this.merchantKey = merchantKey;
+            this.operation = operation;
+            this.enabled = permitsPerSecond > 0;
+            this.intervalNanos = enabled ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+            this.burstNanos = (burst - 1) * intervalNanos;
+            this.quotaLeaser = quotaLeaser;
+            this.leaseSize = enabled ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, leaseDurationNanos / intervalNanos)) : 0;
+            this.nextPermitNanos = System.nanoTime() - burstNanos;
+            // Nothing leased yet, a local bucket never runs out
+            this.leaseEndNanos = quotaLeaser != null ? nextPermitNanos : Long.MAX_VALUE;
+        }
+
+        private boolean tryAcquire(final long timeoutNanos) {
+            if (!enabled) {
+                return true;
+            }
+
+            final long waitNanos = reserve(timeoutNanos);
+            if (waitNanos < 0) {
+                return false;
+            }
+            if (waitNanos == 0) {
+                return true;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                return true;
+            } catch (final InterruptedException e) {
+                // The permit is lost, as if the call had been made
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * @return time to wait for the reserved permit, -1 if it would exceed the timeout
+         */
+        private long reserve(final long timeoutNanos) {
+            final long deadlineNanos = System.nanoTime() + timeoutNanos;
+            while (true) {
+                final long localPermitNanos;
+                synchronized (this) {
+                    final long now = System.nanoTime();
+                    // Permits not taken while idle accumulate up to the burst
+                    final long permitNanos = Math.max(nextPermitNanos, now - burstNanos);
+                    final long waitNanos = Math.max(0, permitNanos - now);
+                    // The database never hands out permits earlier than this either: no lease is taken for a caller
+                    // which would be rejected anyway
+                    if (waitNanos > Math.max(0, deadlineNanos - now)) {
+                        rejectedCalls++;
+                        return -1;
+                    }
+
+                    if (permitNanos < leaseEndNanos) {
+                        nextPermitNanos = permitNanos + intervalNanos;
+                        permits++;
+                        if (waitNanos > 0) {
+                            throttledCalls++;
+                            totalWaitNanos += waitNanos;
+                            longestWaitNanos = Math.max(longestWaitNanos, waitNanos);
+                        }
+                        return waitNanos;
+                    }
+
+                    if (leaseInProgress) {
+                        if (!awaitLease(deadlineNanos - now)) {
+                            rejectedCalls++;
+                            return -1;
+                        }
+                        continue;
+                    }
+                    leaseInProgress = true;
+                    localPermitNanos = permitNanos;
+                }
+                lease(localPermitNanos, deadlineNanos);
+            }
+        }
+
+        /**
+         * @return false if the lease taken by another caller did not complete in time
+         */
+        private boolean awaitLease(final long timeoutNanos) {
+            if (timeoutNanos <= 0) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, timeoutNanos);
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Takes the next lease from the database, bounded by the timeout of the caller (rounded up to the second, as
+         * JDBC wants it). Permit times come back relative to the database clock, and are applied to the local one once
+         * the response is received: permits are never used earlier than the database handed them out.
+         */
+        private void lease(final long localPermitNanos, final long deadlineNanos) {
+            final int timeoutSeconds = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(deadlineNanos - System.nanoTime() + TimeUnit.SECONDS.toNanos(1) - 1));
+            Long firstPermitNanos = null;
+            try {
+                final long firstPermitMicros = quotaLeaser.leasePermits(merchantKey,
+                                                                        operation,
+                                                                        leaseSize,
+                                                                        TimeUnit.NANOSECONDS.toMicros(intervalNanos),
+                                                                        TimeUnit.NANOSECONDS.toMicros(burstNanos),
+                                                                        timeoutSeconds);
+                firstPermitNanos = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(firstPermitMicros);
+            } catch (final Exception e) {
+                // Payments should not stop with the database: go on at the local rate until a lease can be taken again
+                logger.warn("Unable to lease {} permits for Cielo merchant {}, using the local rate", operation, merchantKey, e);
+            } finally {
+                synchronized (this) {
+                    if (firstPermitNanos != null) {
+                        leases++;
+                    } else {
+                        leaseFailures++;
+                        firstPermitNanos = localPermitNanos;
+                    }
+                    nextPermitNanos = firstPermitNanos;
+                    leaseEndNanos = firstPermitNanos + leaseSize * intervalNanos;
+                    leaseInProgress = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized Map<String, Object> getStatistics() {
+            final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+            statistics.put("enabled", enabled);
+            statistics.put("permits", permits);
+            statistics.put("throttledCalls", throttledCalls);
+            statistics.put("rejectedCalls", rejectedCalls);
+            statistics.put("averageWaitMillis", throttledCalls == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / throttledCalls));
+            statistics.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(longestWaitNanos));
+            statistics.put("totalWaitMillis", TimeUnit.NANOSECONDS.toMillis(totalWaitNanos));
+            if (quotaLeaser != null) {
+                statistics.put("leases", leases);
+                statistics.put("leaseFailures", leaseFailures);
+            }
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+
+/**
+ * Exponential backoff, with jitter, for the calls retried within the plugin.
+ * <p>
+ * A retry is only attempted if it can start before the time budget of the call (counted from its first attempt) runs out.
+ */
+public class CieloRetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long timeBudgetMillis;
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong recoveredByLookup = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    public CieloRetryPolicy(final CieloConfigProperties config) {
+        this.maxAttempts = config.getRetryMaxAttempts();
+        this.initialBackoffMillis = config.getRetryInitialBackoff();
+        this.maxBackoffMillis = config.getRetryMaxBackoff();
+        this.timeBudgetMillis = config.getRetryTimeBudget();
+    }
+
+    /**
+     * @param attempts       number of attempts made so far
+     * @param elapsedMillis  time elapsed since the first attempt
+     * @return how long to wait before the next attempt, -1 if the call must not be retried
+     */
+    public long getBackoffMillis(final int attempts, final long elapsedMillis) {
+        if (attempts >= maxAttempts) {
+            return -1;
+        }
+
+        // Equal jitter: at least half of the exponential backoff, so that retries of concurrent calls spread out
+        final long exponentialBackoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts - 1, 30));
+        final long backoff = exponentialBackoff / 2 + ThreadLocalRandom.current().nextLong(exponentialBackoff / 2 + 1);
+        if (elapsedMillis + backoff >= timeBudgetMillis) {
+            budgetExhausted.incrementAndGet();
+            return -1;
+        }
+        return backoff;
+    }
+
+    public void onRetry() {
+        retries.incrementAndGet();
+    }
+
+    public void onRecoveredByLookup() {
+        recoveredByLookup.incrementAndGet();
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("maxAttempts", maxAttempts);
+        statistics.put("retries", retries.get());
+        statistics.put("recoveredByLookup", recoveredByLookup.get());
+        statistics.put("budgetExhausted", budgetExhausted.get());
+        return statistics;
+    }
+}
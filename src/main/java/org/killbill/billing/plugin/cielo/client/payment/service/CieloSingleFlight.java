@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Lets concurrent callers asking for the same key share a single call and its result.
+ * <p>
+ * Nothing is cached: once the call completes, the next caller triggers a new one.
+ */
+public class CieloSingleFlight<K, V> {
+
+    private final ConcurrentMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<K, SettableFuture<V>>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    /**
+     * @param deadline how long to wait for the call made by another thread: the call itself is not bounded here
+     * @throws InterruptedException          if interrupted while waiting for the call made by another thread
+     * @throws CieloDeadlineExceededException if the call made by another thread did not complete in time
+     */
+    public V execute(final K key, final CieloDeadline deadline, final Supplier<V> call) throws InterruptedException, CieloDeadlineExceededException {
+        final SettableFuture<V> future = SettableFuture.create();
+        final SettableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCalls.incrementAndGet();
+            try {
+                return deadline.isBounded() ? existing.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : existing.get();
+            } catch (final TimeoutException e) {
+                throw new CieloDeadlineExceededException("the call in flight completed");
+            } catch (final ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause());
+                throw new UncheckedExecutionException(e.getCause());
+            }
+        }
+
+        calls.incrementAndGet();
+        try {
+            final V result = call.get();
+            future.set(result);
+            return result;
+        } catch (final RuntimeException e) {
+            future.setException(e);
+            throw e;
+        } catch (final Error e) {
+            future.setException(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("calls", calls.get());
+        statistics.put("coalescedCalls", coalescedCalls.get());
+        statistics.put("inFlight", inFlight.size());
+        return statistics;
+    }
+}
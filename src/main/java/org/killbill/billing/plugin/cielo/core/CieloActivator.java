@@ -19,6 +19,8 @@
 package org.killbill.billing.plugin.cielo.core;
 
 import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.Executors;
 
 import javax.servlet.Servlet;
 import javax.servlet.http.HttpServlet;
@@ -27,12 +29,20 @@ import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.libs.killbill.KillbillActivatorBase;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.plugin.api.notification.PluginConfigurationEventHandler;
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshots;
+import org.killbill.billing.plugin.cielo.api.CieloLookupExecutor;
 import org.killbill.billing.plugin.cielo.api.CieloPaymentPluginApi;
 import org.killbill.billing.plugin.cielo.client.CieloClient;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
 import org.killbill.billing.plugin.cielo.dao.CieloDao;
 import org.killbill.clock.Clock;
 import org.killbill.clock.DefaultClock;
 import org.osgi.framework.BundleContext;
+import org.osgi.service.log.LogService;
+
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class CieloActivator extends KillbillActivatorBase {
 
@@ -42,6 +52,10 @@ public class CieloActivator extends KillbillActivatorBase {
     public static final String PLUGIN_NAME = "killbill-cielo";
 
     private CieloConfigurationHandler cieloConfigurationHandler;
+    private ListeningExecutorService lookupExecutor;
+    private CieloAccountSnapshots accountSnapshots;
+    private CieloPaymentStatusRefresher statusRefresher;
+    private CieloPendingPaymentPoller pendingPaymentPoller;
 
     @Override
     public void start(final BundleContext context) throws Exception {
@@ -49,32 +63,70 @@ public class CieloActivator extends KillbillActivatorBase {
 
         final Clock clock = new DefaultClock();
         final CieloDao dao = new CieloDao(dataSource.getDataSource());
-        cieloConfigurationHandler = new CieloConfigurationHandler(PLUGIN_NAME, killbillAPI, logService);
-
-        // Register an event listener (optional)
-//        registerEventHandlerWhenPluginStart(killbillEventHandler);
+        cieloConfigurationHandler = new CieloConfigurationHandler(PLUGIN_NAME, killbillAPI, logService, dao);
 
         final CieloClient globalCieloClient = cieloConfigurationHandler.createConfigurable(configProperties.getProperties());
         cieloConfigurationHandler.setDefaultConfigurable(globalCieloClient);
 
-        final PaymentPluginApi paymentPluginApi = new CieloPaymentPluginApi(cieloConfigurationHandler, killbillAPI, configProperties, logService, clock, dao);
+        // Before registering the payment API, so that the first payments run compiled code
+        final CieloConfigProperties globalCieloConfigProperties = new CieloConfigProperties(configProperties.getProperties());
+        if (globalCieloConfigProperties.isJitWarmupEnabled()) {
+            final Map<String, Object> jitWarmup = new CieloJitWarmup(clock, globalCieloConfigProperties).run();
+            logService.log(LogService.LOG_INFO, "Cielo JIT warm-up completed: " + jitWarmup);
+        }
+
+        // Kill Bill lookups run there, in parallel with the rest of the work preceding a Cielo call
+        lookupExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(globalCieloConfigProperties.getLookupThreads(),
+                                                                                       new ThreadFactoryBuilder().setNameFormat("cielo-lookup-%d")
+                                                                                                                 .setDaemon(true)
+                                                                                                                 .build()));
+
+        // Kept up to date by the listener registered below
+        accountSnapshots = new CieloAccountSnapshots(killbillAPI, globalCieloConfigProperties.getAccountCacheSize(), globalCieloConfigProperties.getAccountCacheExpiration());
+        statusRefresher = new CieloPaymentStatusRefresher(globalCieloConfigProperties.getStatusRefreshTtl(), globalCieloConfigProperties.getStatusRefreshThreads());
+
+        final CieloLookupExecutor lookups = new CieloLookupExecutor(lookupExecutor);
+
+        final PaymentPluginApi paymentPluginApi = new CieloPaymentPluginApi(cieloConfigurationHandler, killbillAPI, configProperties, logService, clock, dao, accountSnapshots, statusRefresher, lookups);
         registerPaymentPluginApi(context, paymentPluginApi);
 
-        final CieloServlet analyticsServlet = new CieloServlet(logService);
+        if (globalCieloConfigProperties.isPendingPollEnabled()) {
+            pendingPaymentPoller = new CieloPendingPaymentPoller(cieloConfigurationHandler, killbillAPI, dao, clock, globalCieloConfigProperties);
+        }
+
+        final CieloServlet analyticsServlet = new CieloServlet(logService, cieloConfigurationHandler, accountSnapshots, statusRefresher, lookups, pendingPaymentPoller);
         registerServlet(context, analyticsServlet);
 
         registerHandlers();
+
+        // Started once everything else is up, its first run may already hand payments over to Kill Bill
+        if (pendingPaymentPoller != null) {
+            pendingPaymentPoller.start();
+        }
     }
 
     public void registerHandlers() {
         final PluginConfigurationEventHandler handler = new PluginConfigurationEventHandler(cieloConfigurationHandler);
-        dispatcher.registerEventHandlers(handler);
+        final CieloListener cieloListener = new CieloListener(logService, accountSnapshots);
+        dispatcher.registerEventHandlers(handler, cieloListener);
     }
 
     @Override
     public void stop(final BundleContext context) throws Exception {
         super.stop(context);
-        // Do additional work on shutdown (optional)
+        if (pendingPaymentPoller != null) {
+            pendingPaymentPoller.close();
+        }
+        // Services are unregistered at this point, let the calls in flight complete and release the connections
+        if (cieloConfigurationHandler != null) {
+            cieloConfigurationHandler.close();
+        }
+        if (lookupExecutor != null) {
+            lookupExecutor.shutdownNow();
+        }
+        if (statusRefresher != null) {
+            statusRefresher.close();
+        }
     }
 
     private void registerServlet(final BundleContext context, final HttpServlet servlet) {
@@ -6,31 +6,232 @@ import org.killbill.billing.plugin.api.notification.PluginTenantConfigurableConf
 import org.killbill.billing.plugin.cielo.client.CieloClient;
 import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
 import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.CieloCredentials;
 import org.killbill.billing.plugin.cielo.client.payment.builder.CieloRequestFactory;
 import org.killbill.billing.plugin.cielo.client.payment.converter.PaymentInfoConverterManagement;
 import org.killbill.billing.plugin.cielo.client.payment.converter.impl.PaymentInfoConverterService;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloAdaptiveTimeouts;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloCallExecutor;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloCircuitBreaker;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloConcurrencyLimiter;
 import org.killbill.billing.plugin.cielo.client.payment.service.CieloPaymentRequestSender;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloQueryHedger;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloQuotaLeaser;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloRateLimiter;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloRetryPolicy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Created by otaviosoares on 14/11/16.
  */
-public class CieloConfigurationHandler extends PluginTenantConfigurableConfigurationHandler<CieloClient> {
-    public CieloConfigurationHandler(String pluginName, OSGIKillbillAPI osgiKillbillAPI, OSGIKillbillLogService osgiKillbillLogService) {
+public class CieloConfigurationHandler extends PluginTenantConfigurableConfigurationHandler<CieloClient> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloConfigurationHandler.class);
+
+    // Tenants configured with the same merchant, key and settings share a client. A new key is only rotated in place
+    // for a client no other tenant uses, so that a tenant never changes the credentials of another one
+    private final ConcurrentMap<ClientKey, CieloClient> sharedClients = new ConcurrentHashMap<ClientKey, CieloClient>();
+    private final ConcurrentMap<UUID, CieloClient> tenantClients = new ConcurrentHashMap<UUID, CieloClient>();
+    // Tenant whose configuration is being created by the current thread, null for the global configuration
+    private final ThreadLocal<UUID> configuredTenant = new ThreadLocal<UUID>();
+    private final ScheduledExecutorService retirementExecutor;
+    private final CieloQuotaLeaser quotaLeaser;
+
+    public CieloConfigurationHandler(String pluginName, OSGIKillbillAPI osgiKillbillAPI, OSGIKillbillLogService osgiKillbillLogService, CieloQuotaLeaser quotaLeaser) {
         super(pluginName, osgiKillbillAPI, osgiKillbillLogService);
+        this.quotaLeaser = quotaLeaser;
+        this.retirementExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("cielo-client-retirement-%d")
+                                                                                                        .setDaemon(true)
+                                                                                                        .build());
+    }
+
+    @Override
+    public void configure(@Nullable final UUID kbTenantId) {
+        configuredTenant.set(kbTenantId);
+        try {
+            super.configure(kbTenantId);
+        } finally {
+            configuredTenant.remove();
+        }
+        if (kbTenantId == null) {
+            return;
+        }
+
+        final CieloClient current = getConfigurable(kbTenantId);
+        final CieloClient previous = tenantClients.put(kbTenantId, current);
+        if (previous != null && previous != current && !isInUse(previous)) {
+            retire(previous);
+        }
     }
 
     @Override
     protected CieloClient createConfigurable(final Properties properties) {
         final CieloConfigProperties cieloConfigProperties = new CieloConfigProperties(properties);
+        final CieloCredentials cieloCredentials = new CieloCredentials(cieloConfigProperties.getMerchantId(), cieloConfigProperties.getMerchantKey());
+
+        final ClientKey clientKey = new ClientKey(cieloConfigProperties.getClientSettings(), cieloConfigProperties.getMerchantKey());
+
+        final CieloClient existingClient = sharedClients.get(clientKey);
+        if (existingClient != null) {
+            return existingClient;
+        }
+
+        final CieloClient rotatedClient = rotateTenantClient(configuredTenant.get(), clientKey, cieloCredentials);
+        if (rotatedClient != null) {
+            return rotatedClient;
+        }
+
+        final CieloClient cieloClient = newClient(cieloConfigProperties);
+        final CieloClient racingClient = sharedClients.putIfAbsent(clientKey, cieloClient);
+        if (racingClient != null) {
+            closeQuietly(cieloClient);
+            return racingClient;
+        }
+        // Does not block the plugin registration nor the configuration event
+        cieloClient.startConnectionWarmup();
+        return cieloClient;
+    }
+
+    /**
+     * Closes all clients, letting the calls in flight complete first.
+     */
+    @Override
+    public void close() {
+        // Retirements not started yet are run right away
+        for (final Runnable retirement : retirementExecutor.shutdownNow()) {
+            retirement.run();
+        }
+        for (final CieloClient cieloClient : sharedClients.values()) {
+            closeQuietly(cieloClient);
+        }
+        sharedClients.clear();
+        tenantClients.clear();
+    }
 
+    /**
+     * Switches the client of the tenant to the new key, without disturbing the calls in flight, if only the key changed
+     * and no other tenant uses that client.
+     *
+     * @return the rotated client, null if a new client is needed
+     */
+    @Nullable
+    private CieloClient rotateTenantClient(@Nullable final UUID kbTenantId, final ClientKey clientKey, final CieloCredentials cieloCredentials) {
+        final CieloClient tenantClient = kbTenantId == null ? null : tenantClients.get(kbTenantId);
+        if (tenantClient == null || isUsedByOthers(tenantClient, kbTenantId)) {
+            return null;
+        }
+
+        for (final Map.Entry<ClientKey, CieloClient> sharedClient : sharedClients.entrySet()) {
+            if (sharedClient.getValue() == tenantClient && sharedClient.getKey().settings.equals(clientKey.settings)) {
+                if (sharedClients.putIfAbsent(clientKey, tenantClient) != null) {
+                    return null;
+                }
+                sharedClients.remove(sharedClient.getKey(), tenantClient);
+                tenantClient.rotateCredentials(cieloCredentials);
+                return tenantClient;
+            }
+        }
+        return null;
+    }
+
+    private CieloClient newClient(final CieloConfigProperties cieloConfigProperties) {
         final PaymentInfoConverterManagement paymentInfoConverterManagement = new PaymentInfoConverterService();
 
         final CieloRequestFactory cieloRequestFactory = new CieloRequestFactory(paymentInfoConverterManagement, cieloConfigProperties);
 
         final CieloClientRegistry cieloClientRegistry = new CieloClientRegistry(cieloConfigProperties);
-        final CieloPaymentRequestSender cieloPaymentRequestSender = new CieloPaymentRequestSender(cieloClientRegistry);
-        return new CieloClient(cieloRequestFactory, cieloPaymentRequestSender);
+        final CieloCallExecutor cieloCallExecutor = new CieloCallExecutor(cieloConfigProperties);
+        final CieloCircuitBreaker cieloCircuitBreaker = new CieloCircuitBreaker(cieloConfigProperties);
+        final CieloConcurrencyLimiter cieloConcurrencyLimiter = new CieloConcurrencyLimiter(cieloConfigProperties);
+        final CieloRateLimiter cieloRateLimiter = new CieloRateLimiter(cieloConfigProperties, quotaLeaser);
+        final CieloAdaptiveTimeouts cieloAdaptiveTimeouts = new CieloAdaptiveTimeouts(cieloConfigProperties);
+        final CieloQueryHedger cieloQueryHedger = new CieloQueryHedger(cieloConfigProperties);
+        final CieloRetryPolicy cieloRetryPolicy = new CieloRetryPolicy(cieloConfigProperties);
+        final CieloPaymentRequestSender cieloPaymentRequestSender = new CieloPaymentRequestSender(cieloClientRegistry, cieloCallExecutor, cieloCircuitBreaker, cieloConcurrencyLimiter, cieloRateLimiter, cieloAdaptiveTimeouts, cieloQueryHedger, cieloRetryPolicy);
+        return new CieloClient(cieloRequestFactory, cieloPaymentRequestSender, cieloConfigProperties.getOperationTimeout());
+    }
+
+    private boolean isInUse(final CieloClient cieloClient) {
+        return tenantClients.containsValue(cieloClient) || cieloClient == getConfigurable(null);
+    }
+
+    private boolean isUsedByOthers(final CieloClient cieloClient, final UUID kbTenantId) {
+        for (final Map.Entry<UUID, CieloClient> tenantClient : tenantClients.entrySet()) {
+            if (tenantClient.getValue() == cieloClient && !tenantClient.getKey().equals(kbTenantId)) {
+                return true;
+            }
+        }
+        return cieloClient == getConfigurable(null);
+    }
+
+    // The client may still serve calls started before the new configuration, it is closed in the background
+    private void retire(final CieloClient cieloClient) {
+        sharedClients.values().remove(cieloClient);
+        try {
+            retirementExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeQuietly(cieloClient);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // Shutting down
+            closeQuietly(cieloClient);
+        }
+    }
+
+    private static void closeQuietly(final CieloClient cieloClient) {
+        try {
+            cieloClient.close();
+        } catch (final IOException e) {
+            logger.warn("Unable to close Cielo client", e);
+        }
+    }
+
+    private static final class ClientKey {
+
+        private final SortedMap<String, String> settings;
+        private final String merchantKey;
+
+        private ClientKey(final SortedMap<String, String> settings, final String merchantKey) {
+            this.settings = settings;
+            this.merchantKey = merchantKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final ClientKey that = (ClientKey) o;
+            return settings.equals(that.settings) && Objects.equal(merchantKey, that.merchantKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(settings, merchantKey);
+        }
     }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Sale;
+import org.joda.time.DateTime;
+import org.killbill.billing.catalog.api.Currency;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.api.payment.PluginPaymentPluginApi;
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshot;
+import org.killbill.billing.plugin.cielo.api.CieloPaymentPluginApi;
+import org.killbill.billing.plugin.cielo.api.CieloPaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.cielo.api.mapping.PaymentInfoMappingService;
+import org.killbill.billing.plugin.cielo.api.mapping.UserDataMappingService;
+import org.killbill.billing.plugin.cielo.client.CieloClient;
+import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.CieloGateway;
+import org.killbill.billing.plugin.cielo.client.CieloJsonCodec;
+import org.killbill.billing.plugin.cielo.client.model.PaymentData;
+import org.killbill.billing.plugin.cielo.client.model.PaymentInfo;
+import org.killbill.billing.plugin.cielo.client.model.PaymentModificationResponse;
+import org.killbill.billing.plugin.cielo.client.model.PaymentServiceProviderResult;
+import org.killbill.billing.plugin.cielo.client.model.PurchaseResult;
+import org.killbill.billing.plugin.cielo.client.model.UserData;
+import org.killbill.billing.plugin.cielo.client.payment.builder.CieloRequestFactory;
+import org.killbill.billing.plugin.cielo.client.payment.converter.impl.PaymentInfoConverterService;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloAdaptiveTimeouts;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloCallExecutor;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloCircuitBreaker;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloConcurrencyLimiter;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloPaymentRequestSender;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloQueryHedger;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloRateLimiter;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloRetryPolicy;
+import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+
+/**
+ * Pushes synthetic payments through a complete client (mapping, request building, sender, response handling and
+ * conversion to Kill Bill objects), so that the JIT compiles it before the first actual payments. The client has its
+ * own circuit breaker, limiters and statistics, and its gateway never leaves the JVM: the merchant clients are not
+ * affected.
+ */
+public class CieloJitWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloJitWarmup.class);
+
+    private static final String PAYMENT_ID = "24bc8366-fc31-4d6c-8555-17049a836a07";
+    private static final String SALE_RESPONSE = "{\"MerchantOrderId\":\"jit-warmup\",\"Payment\":{\"PaymentId\":\"" + PAYMENT_ID + "\","
+                                                + "\"Status\":1,\"ReturnCode\":\"4\",\"ReturnMessage\":\"Operation Successful\",\"AuthorizationCode\":\"123456\","
+                                                + "\"ProofOfSale\":\"674532\",\"Tid\":\"0305020554239\",\"Amount\":1500}}";
+    private static final String SALE_UPDATE_RESPONSE = "{\"Status\":2,\"ReturnCode\":\"6\",\"ReturnMessage\":\"Operation Successful\"}";
+    private static final String TOKEN_RESPONSE = "{\"CardToken\":\"db62dc71-d07b-4745-9969-42697b988ccb\"}";
+
+    private final Clock clock;
+    private final CieloConfigProperties config;
+    private final long timeBudget;
+    private final int maxIterations;
+
+    private final CieloAccountSnapshot account = syntheticAccount();
+    private final List<PluginProperty> properties = ImmutableList.<PluginProperty>of(new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_NUMBER, "4111111111111111", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_FIRST_NAME, "Jit", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_LAST_NAME, "Warmup", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_EXPIRATION_MONTH, "12", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_EXPIRATION_YEAR, "2030", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_VERIFICATION_VALUE, "123", false),
+                                                                                     new PluginProperty(PluginPaymentPluginApi.PROPERTY_CC_TYPE, "Visa", false),
+                                                                                     new PluginProperty(CieloPaymentPluginApi.PROPERTY_EMAIL, "warmup@example.com", false),
+                                                                                     new PluginProperty(CieloPaymentPluginApi.PROPERTY_IP, "127.0.0.1", false));
+    private final CieloPaymentMethodsRecord tokenizedPaymentMethod = syntheticTokenizedPaymentMethod();
+
+    public CieloJitWarmup(final Clock clock, final CieloConfigProperties config) {
+        this.clock = clock;
+        this.config = config;
+        this.timeBudget = config.getJitWarmupTimeBudget();
+        this.maxIterations = config.getJitWarmupIterations();
+    }
+
+    /**
+     * @return the time taken, the number of iterations and the JIT compilation time spent meanwhile (-1 if unknown)
+     */
+    public Map<String, Object> run() {
+        final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        final boolean compilationTimeMonitored = compilation != null && compilation.isCompilationTimeMonitoringSupported();
+        final long compilationTimeBefore = compilationTimeMonitored ? compilation.getTotalCompilationTime() : -1;
+
+        final long startedAt = System.nanoTime();
+        final long deadline = startedAt + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        int iterations = 0;
+        int failures = 0;
+        final CieloClient cieloClient = newClient();
+        try {
+            while (iterations < maxIterations && System.nanoTime() < deadline) {
+                try {
+                    runPayment(cieloClient, iterations);
+                } catch (final Exception e) {
+                    // Not worth aborting activation, but a systematic failure would mean the warm-up is pointless
+                    if (failures++ == 0) {
+                        logger.warn("Cielo JIT warm-up iteration failed", e);
+                    }
+                }
+                iterations++;
+            }
+        } finally {
+            try {
+                Closeables.close(cieloClient, true);
+            } catch (final IOException ignored) {
+                // Cannot happen, exceptions are swallowed
+            }
+        }
+
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+        result.put("iterations", iterations);
+        result.put("failedIterations", failures);
+        result.put("compilationMillis", compilationTimeMonitored ? compilation.getTotalCompilationTime() - compilationTimeBefore : -1);
+        return result;
+    }
+
+    private CieloClient newClient() {
+        final CieloRequestFactory cieloRequestFactory = new CieloRequestFactory(new PaymentInfoConverterService(), config);
+        final CieloGateway gateway = new NoOpGateway(new CieloJsonCodec());
+        final CieloClientRegistry cieloClientRegistry = new CieloClientRegistry(config) {
+            @Override
+            public CieloGateway getGateway() {
+                return gateway;
+            }
+        };
+        final CieloPaymentRequestSender cieloPaymentRequestSender = new CieloPaymentRequestSender(cieloClientRegistry,
+                                                                                                  new CieloCallExecutor(config),
+                                                                                                  new CieloCircuitBreaker(config),
+                                                                                                  new CieloConcurrencyLimiter(config),
+                                                                                                  new CieloRateLimiter(config, null),
+                                                                                                  new CieloAdaptiveTimeouts(config),
+                                                                                                  new CieloQueryHedger(config),
+                                                                                                  new CieloRetryPolicy(config));
+        return new CieloClient(cieloRequestFactory, cieloPaymentRequestSender, config.getOperationTimeout());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runPayment(final CieloClient cieloClient, final int iteration) throws Exception {
+        // Alternate between a new card and a tokenized one, as both are common in production
+        final boolean newCard = iteration % 2 == 0;
+        final PaymentInfo paymentInfo = PaymentInfoMappingService.toPaymentInfo(clock, account, newCard ? null : tokenizedPaymentMethod, properties);
+        final UserData userData = UserDataMappingService.toUserData(account, properties);
+
+        final BigDecimal amount = BigDecimal.valueOf(1000 + iteration % 1000, 2);
+        // Raw, as in the payment API: the payment info is a card or a token
+        final PaymentData paymentData = new PaymentData<PaymentInfo>(amount, Currency.BRL, "jit-warmup-" + iteration, paymentInfo);
+        final TransactionType transactionType = newCard ? TransactionType.PURCHASE : TransactionType.AUTHORIZE;
+
+        final CieloDeadline deadline = cieloClient.newDeadline();
+        final PurchaseResult purchaseResult = cieloClient.create(transactionType, paymentData, userData, null, deadline);
+        final DateTime utcNow = clock.getUTCNow();
+        new CieloPaymentTransactionInfoPlugin(UUID.randomUUID(), UUID.randomUUID(), transactionType, amount, Currency.BRL, utcNow, purchaseResult);
+
+        final String paymentId = purchaseResult.getPaymentId();
+        final PaymentModificationResponse captureResponse = cieloClient.capture(paymentData, paymentId, amount, null, deadline);
+        final Optional<PaymentServiceProviderResult> captureResult = captureResponse.isTechnicallySuccessful() ? Optional.of(PaymentServiceProviderResult.RECEIVED) : Optional.<PaymentServiceProviderResult>absent();
+        new CieloPaymentTransactionInfoPlugin(UUID.randomUUID(), UUID.randomUUID(), TransactionType.CAPTURE, amount, Currency.BRL, captureResult, utcNow, captureResponse);
+
+        cieloClient.getPaymentInfo(paymentId, transactionType, deadline);
+        cieloClient.cancel(paymentId, null, deadline);
+        if (newCard) {
+            cieloClient.tokenizeCreditCard(paymentInfo, userData, deadline);
+        }
+    }
+
+    private static CieloPaymentMethodsRecord syntheticTokenizedPaymentMethod() {
+        final CieloPaymentMethodsRecord record = new CieloPaymentMethodsRecord();
+        record.setToken(UUID.randomUUID().toString());
+        record.setCcVerificationValue("123");
+        return record;
+    }
+
+    private static CieloAccountSnapshot syntheticAccount() {
+        final UUID accountId = UUID.randomUUID();
+        return new CieloAccountSnapshot(accountId,
+                                        "jit-warmup-" + accountId,
+                                        "Jit Warmup",
+                                        3,
+                                        "warmup@example.com",
+                                        "pt_BR",
+                                        "Avenida Paulista",
+                                        "1000",
+                                        "Sao Paulo",
+                                        "SP",
+                                        "01310-100",
+                                        "BR");
+    }
+
+    /**
+     * Encodes the requests and decodes canned responses, with the plugin codec, without any I/O.
+     */
+    private static final class NoOpGateway implements CieloGateway {
+
+        private final CieloJsonCodec codec;
+        private final byte[] saleResponse = SALE_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        private final byte[] saleUpdateResponse = SALE_UPDATE_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        private final byte[] tokenResponse = TOKEN_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        private NoOpGateway(final CieloJsonCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public Sale createSale(final Sale sale) throws IOException {
+            codec.toByteArray(sale);
+            return codec.readSale(new ByteArrayInputStream(saleResponse));
+        }
+
+        @Override
+        public Sale querySale(final String paymentId) throws IOException {
+            return codec.readSale(new ByteArrayInputStream(saleResponse));
+        }
+
+        @Override
+        public Sale captureSale(final String paymentId, final Integer amount) throws IOException {
+            return codec.readSaleUpdate(paymentId, new ByteArrayInputStream(saleUpdateResponse));
+        }
+
+        @Override
+        public Sale cancelSale(final String paymentId) throws IOException {
+            return codec.readSaleUpdate(paymentId, new ByteArrayInputStream(saleUpdateResponse));
+        }
+
+        @Override
+        public CreditCard tokenizeCard(final CreditCard card) throws IOException {
+            codec.toByteArray(card);
+            return codec.readCreditCard(new ByteArrayInputStream(tokenResponse));
+        }
+    }
+}
@@ -17,44 +17,34 @@
 
 package org.killbill.billing.plugin.cielo.core;
 
-import org.killbill.billing.account.api.Account;
-import org.killbill.billing.account.api.AccountApiException;
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
-import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillEventDispatcher;
 import org.killbill.billing.osgi.libs.killbill.OSGIKillbillLogService;
-import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshots;
 import org.osgi.service.log.LogService;
 
 public class CieloListener implements OSGIKillbillEventDispatcher.OSGIKillbillEventHandler {
 
     private final LogService logService;
-    private final OSGIKillbillAPI osgiKillbillAPI;
+    private final CieloAccountSnapshots accountSnapshots;
 
-    public CieloListener(final OSGIKillbillLogService logService, final OSGIKillbillAPI killbillAPI) {
+    public CieloListener(final OSGIKillbillLogService logService, final CieloAccountSnapshots accountSnapshots) {
         this.logService = logService;
-        this.osgiKillbillAPI = killbillAPI;
+        this.accountSnapshots = accountSnapshots;
     }
 
     @Override
     public void handleKillbillEvent(final ExtBusEvent killbillEvent) {
-
-        logService.log(LogService.LOG_INFO, "Received event " + killbillEvent.getEventType() +
-                " for object id " + killbillEvent.getObjectId() +
-                " of type " + killbillEvent.getObjectType());
-
         switch (killbillEvent.getEventType()) {
             //
-            // Handle ACCOUNT_CREATION and ACCOUNT_CHANGE (only) for demo purpose and just print the account
+            // The next payment of the account should see the change: drop the snapshot, it is taken again on the next payment
             //
             case ACCOUNT_CREATION:
             case ACCOUNT_CHANGE:
-                try {
-                    final Account account = osgiKillbillAPI.getAccountUserApi().getAccountById(killbillEvent.getAccountId(), new PluginTenantContext(killbillEvent.getTenantId()));
-                    logService.log(LogService.LOG_INFO, "Account information: " + account);
-                } catch (final AccountApiException e) {
-                    logService.log(LogService.LOG_WARNING, "Unable to find account", e);
-                }
+                logService.log(LogService.LOG_DEBUG, "Received event " + killbillEvent.getEventType() +
+                        " for account " + killbillEvent.getAccountId() +
+                        " of tenant " + killbillEvent.getTenantId());
+                accountSnapshots.invalidate(killbillEvent.getTenantId(), killbillEvent.getAccountId());
                 break;
 
             // Nothing
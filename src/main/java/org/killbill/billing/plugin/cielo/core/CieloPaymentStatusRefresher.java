@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.core;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.payment.api.TransactionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Decides whether a payment status lookup should reach Cielo.
+ * <p>
+ * Payments in a final Cielo status (see CieloPaymentStatuses) are never queried again. The others are queried at most once per TTL, in the
+ * background: the caller answers with the stored state, which the query brings up to date for the next lookups (UI
+ * polling, Kill Bill janitor). With a TTL of 0, every lookup queries Cielo before answering.
+ */
+public class CieloPaymentStatusRefresher implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloPaymentStatusRefresher.class);
+
+    private static final int MAXIMUM_QUEUED_QUERIES = 1000;
+    private static final long MAXIMUM_PAYMENTS = 100000;
+
+    private final long ttl;
+    private final ThreadPoolExecutor executor;
+    // Payments queried within the TTL
+    private final Cache<UUID, Boolean> recentlyQueried;
+    private final ConcurrentMap<UUID, Boolean> queriesInFlight = new ConcurrentHashMap<UUID, Boolean>();
+
+    private final AtomicLong finalStatusSkips = new AtomicLong();
+    private final AtomicLong recentQuerySkips = new AtomicLong();
+    private final AtomicLong synchronousQueries = new AtomicLong();
+    private final AtomicLong backgroundQueries = new AtomicLong();
+    private final AtomicLong droppedQueries = new AtomicLong();
+
+    public CieloPaymentStatusRefresher(final long ttl, final int threads) {
+        this.ttl = ttl;
+        this.recentlyQueried = CacheBuilder.newBuilder()
+                                           .expireAfterWrite(Math.max(ttl, 1), TimeUnit.MILLISECONDS)
+                                           .maximumSize(MAXIMUM_PAYMENTS)
+                                           .build();
+        this.executor = new ThreadPoolExecutor(threads,
+                                               threads,
+                                               0L,
+                                               TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<Runnable>(MAXIMUM_QUEUED_QUERIES),
+                                               new ThreadFactoryBuilder().setNameFormat("cielo-status-refresh-%d")
+                                                                         .setDaemon(true)
+                                                                         .build());
+    }
+
+    /**
+     * @param cieloStatus     status of the latest response stored for the payment
+     * @param transactionType transaction of that response
+     * @param backgroundQuery queries Cielo and stores the outcome, run on a background thread
+     * @return whether the caller should query Cielo itself before answering
+     */
+    public boolean shouldQueryNow(final UUID kbPaymentId, @Nullable final String cieloStatus, @Nullable final TransactionType transactionType, final Runnable backgroundQuery) {
+        if (CieloPaymentStatuses.isFinal(cieloStatus, transactionType)) {
+            finalStatusSkips.incrementAndGet();
+            return false;
+        }
+        if (ttl <= 0) {
+            synchronousQueries.incrementAndGet();
+            return true;
+        }
+        if (recentlyQueried.getIfPresent(kbPaymentId) != null || queriesInFlight.putIfAbsent(kbPaymentId, Boolean.TRUE) != null) {
+            recentQuerySkips.incrementAndGet();
+            return false;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        backgroundQuery.run();
+                    } catch (final RuntimeException e) {
+                        logger.warn("Unable to refresh the status of kbPaymentId='{}'", kbPaymentId, e);
+                    } finally {
+                        // Failed queries count too: a failing Cielo should not be queried more often
+                        recentlyQueried.put(kbPaymentId, Boolean.TRUE);
+                        queriesInFlight.remove(kbPaymentId);
+                    }
+                }
+            });
+            backgroundQueries.incrementAndGet();
+        } catch (final RejectedExecutionException e) {
+            // Queue full or plugin stopping: the next lookup will try again
+            droppedQueries.incrementAndGet();
+            queriesInFlight.remove(kbPaymentId);
+        }
+        return false;
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("ttlMillis", ttl);
+        statistics.put("finalStatusSkips", finalStatusSkips.get());
+        statistics.put("recentQuerySkips", recentQuerySkips.get());
+        statistics.put("synchronousQueries", synchronousQueries.get());
+        statistics.put("backgroundQueries", backgroundQueries.get());
+        statistics.put("droppedQueries", droppedQueries.get());
+        statistics.put("queriesInFlight", queriesInFlight.size());
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
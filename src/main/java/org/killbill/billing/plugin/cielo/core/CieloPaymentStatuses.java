@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.cielo.core;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.payment.api.TransactionType;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Cielo payment statuses, as the status lookups and the pending payment poller see them: whether Cielo may still move
+ * a payment forward on its own depends on the transaction which got the status.
+ */
+public final class CieloPaymentStatuses {
+
+    // NotFinished and Pending
+    static final List<String> PENDING_STATUSES = ImmutableList.of("0", "12");
+
+    // PaymentConfirmed, Denied, Voided, Refunded and Aborted
+    private static final Set<String> FINAL_STATUSES = ImmutableSet.of("2", "3", "10", "11", "13");
+    // Authorized: sales are sent without Capture=true, so Cielo leaves authorizations and purchases there until captured
+    private static final String AUTHORIZED = "1";
+
+    private CieloPaymentStatuses() {
+    }
+
+    /**
+     * @param cieloStatus     status of the latest response stored for the payment, null if Cielo did not answer
+     * @param transactionType transaction which got that response
+     * @return whether Cielo will not change the status unless the plugin sends another transaction
+     */
+    public static boolean isFinal(@Nullable final String cieloStatus, @Nullable final TransactionType transactionType) {
+        if (cieloStatus == null) {
+            return false;
+        }
+        if (FINAL_STATUSES.contains(cieloStatus)) {
+            return true;
+        }
+        return AUTHORIZED.equals(cieloStatus) && (transactionType == TransactionType.AUTHORIZE || transactionType == TransactionType.PURCHASE);
+    }
+}
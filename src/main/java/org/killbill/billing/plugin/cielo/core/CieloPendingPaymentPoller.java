@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.core;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.payment.plugin.api.PaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.api.PluginTenantContext;
+import org.killbill.billing.plugin.cielo.api.CieloPaymentTransactionInfoPlugin;
+import org.killbill.billing.plugin.cielo.client.CieloClient;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.model.PaymentModificationResponse;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
+import org.killbill.billing.plugin.cielo.dao.CieloDao;
+import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.killbill.clock.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Queries Cielo, in the background, for the payments whose latest response is still pending, and hands the outcome over
+ * to Kill Bill like a payment lookup would.
+ * <p>
+ * Only the statuses which Cielo may still move forward on its own are polled: not finished and pending. An authorized
+ * purchase is not: sales are sent without Capture=true, so it stays authorized whatever Cielo does. A payment which Cielo still reports as pending is polled less and less
+ * often, and payments older than the maximum age are left to the lookups.
+ * <p>
+ * Each poll is claimed in the database first, so that the poller can run on every node: a payment is polled by a single
+ * one of them, and the backoff is shared.
+ */
+public class CieloPendingPaymentPoller implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloPendingPaymentPoller.class);
+
+    private static final int PAGE_SIZE = 100;
+
+    private final CieloConfigurationHandler cieloConfigurationHandler;
+    private final CieloDao dao;
+    private final Clock clock;
+    private final CieloTransactionStateHandler cieloTransactionStateHandler;
+    private final long interval;
+    private final int maxPollsPerRun;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long maxAge;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pollExecutor;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong failedPolls = new AtomicLong();
+    private final AtomicLong backedOffPayments = new AtomicLong();
+    private volatile long lastRunMillis = -1;
+
+    public CieloPendingPaymentPoller(final CieloConfigurationHandler cieloConfigurationHandler,
+                                     final OSGIKillbillAPI killbillAPI,
+                                     final CieloDao dao,
+                                     final Clock clock,
+                                     final CieloConfigProperties config) {
+        this.cieloConfigurationHandler = cieloConfigurationHandler;
+        this.dao = dao;
+        this.clock = clock;
+        this.cieloTransactionStateHandler = new CieloTransactionStateHandler(killbillAPI, dao, clock);
+        this.interval = config.getPendingPollInterval();
+        this.maxPollsPerRun = config.getPendingPollMaxPerRun();
+        this.initialBackoff = config.getPendingPollInitialBackoff();
+        this.maxBackoff = config.getPendingPollMaxBackoff();
+        this.maxAge = config.getPendingPollMaxAge();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("cielo-pending-poller-%d")
+                                                                                             .setDaemon(true)
+                                                                                             .build());
+        this.pollExecutor = Executors.newFixedThreadPool(config.getPendingPollThreads(),
+                                                         new ThreadFactoryBuilder().setNameFormat("cielo-pending-poll-%d")
+                                                                                   .setDaemon(true)
+                                                                                   .build());
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (final RuntimeException e) {
+                    // Otherwise the scheduler would not run it again
+                    logger.warn("Unable to poll the pending Cielo payments", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public Map<String, Object> getStatistics() {
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("intervalMillis", interval);
+        statistics.put("runs", runs.get());
+        statistics.put("lastRunMillis", lastRunMillis);
+        statistics.put("polls", polls.get());
+        statistics.put("failedPolls", failedPolls.get());
+        statistics.put("backedOffPayments", backedOffPayments.get());
+        return statistics;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        pollExecutor.shutdownNow();
+    }
+
+    private void poll() throws InterruptedException {
+        final long startedAt = System.nanoTime();
+
+        try {
+            dao.deleteExpiredPollClaims(maxAge);
+        } catch (final SQLException e) {
+            logger.warn("Unable to delete the expired Cielo poll claims", e);
+        }
+
+        final List<Callable<Void>> batch = new ArrayList<Callable<Void>>();
+        long afterRecordId = 0;
+        List<CieloResponsesRecord> page;
+        do {
+            try {
+                page = dao.getLatestResponsesToPoll(CieloPaymentStatuses.PENDING_STATUSES, clock.getUTCNow().minus(maxAge), afterRecordId, PAGE_SIZE);
+            } catch (final SQLException e) {
+                logger.warn("Unable to retrieve the pending Cielo payments", e);
+                break;
+            }
+
+            for (final CieloResponsesRecord response : page) {
+                afterRecordId = response.getRecordId().longValue();
+
+                final UUID kbPaymentId = UUID.fromString(response.getKbPaymentId());
+                try {
+                    // Not due yet, or polled by another node
+                    if (!dao.claimPoll(kbPaymentId, initialBackoff, maxBackoff)) {
+                        backedOffPayments.incrementAndGet();
+                        continue;
+                    }
+                } catch (final SQLException e) {
+                    logger.warn("Unable to claim the poll of kbPaymentId='{}'", kbPaymentId, e);
+                    continue;
+                }
+
+                batch.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        pollPayment(kbPaymentId, response);
+                        return null;
+                    }
+                });
+                if (batch.size() >= maxPollsPerRun) {
+                    break;
+                }
+            }
+        } while (page.size() == PAGE_SIZE && batch.size() < maxPollsPerRun);
+
+        // Next run once all the polls completed, so that a slow Cielo does not get more and more of them
+        pollExecutor.invokeAll(batch);
+
+        runs.incrementAndGet();
+        lastRunMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+    }
+
+    private void pollPayment(final UUID kbPaymentId, final CieloResponsesRecord response) {
+        polls.incrementAndGet();
+
+        final UUID kbTenantId = UUID.fromString(response.getKbTenantId());
+        final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(kbTenantId);
+        if (cieloClient == null) {
+            failedPolls.incrementAndGet();
+            return;
+        }
+        final TransactionType transactionType = TransactionType.valueOf(response.getTransactionType());
+        final PaymentModificationResponse paymentInfo = cieloClient.getPaymentInfo(response.getCieloPaymentId(), transactionType, cieloClient.newDeadline());
+        if (paymentInfo == null) {
+            failedPolls.incrementAndGet();
+            return;
+        }
+
+        final TenantContext context = new PluginTenantContext(kbTenantId);
+        try {
+            final List<PaymentTransactionInfoPlugin> paymentTransactions = toPaymentTransactions(dao.getResponses(kbPaymentId, kbTenantId));
+            cieloTransactionStateHandler.updatePaymentInfo(UUID.fromString(response.getKbAccountId()), kbPaymentId, paymentTransactions, transactionType, response, paymentInfo, CieloDeadline.NONE, context);
+        } catch (final SQLException e) {
+            failedPolls.incrementAndGet();
+            logger.warn("Unable to save the status of kbPaymentId='{}'", kbPaymentId, e);
+        } catch (final RuntimeException e) {
+            failedPolls.incrementAndGet();
+            logger.warn("Unable to update the status of kbPaymentId='{}'", kbPaymentId, e);
+        }
+    }
+
+    private static List<PaymentTransactionInfoPlugin> toPaymentTransactions(final List<CieloResponsesRecord> responses) {
+        final List<PaymentTransactionInfoPlugin> paymentTransactions = new ArrayList<PaymentTransactionInfoPlugin>(responses.size());
+        for (final CieloResponsesRecord response : responses) {
+            paymentTransactions.add(new CieloPaymentTransactionInfoPlugin(response));
+        }
+        return paymentTransactions;
+    }
+}
@@ -18,25 +18,76 @@
 package org.killbill.billing.plugin.cielo.core;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.killbill.billing.plugin.cielo.api.CieloAccountSnapshots;
+import org.killbill.billing.plugin.cielo.api.CieloLookupExecutor;
+import org.killbill.billing.plugin.cielo.client.CieloClient;
+import org.killbill.billing.tenant.api.Tenant;
 import org.osgi.service.log.LogService;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 public class CieloServlet extends HttpServlet {
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Set by Kill Bill on plugin requests authenticated with X-Killbill-ApiKey / X-Killbill-ApiSecret
+    private static final String TENANT_ATTRIBUTE = "killbill_tenant";
+
     private final LogService logService;
+    private final CieloConfigurationHandler cieloConfigurationHandler;
+    private final CieloAccountSnapshots accountSnapshots;
+    private final CieloPaymentStatusRefresher statusRefresher;
+    private final CieloLookupExecutor lookups;
+    // Null when disabled
+    private final CieloPendingPaymentPoller pendingPaymentPoller;
 
-    public CieloServlet(final LogService logService) {
+    public CieloServlet(final LogService logService,
+                        final CieloConfigurationHandler cieloConfigurationHandler,
+                        final CieloAccountSnapshots accountSnapshots,
+                        final CieloPaymentStatusRefresher statusRefresher,
+                        final CieloLookupExecutor lookups,
+                        @Nullable final CieloPendingPaymentPoller pendingPaymentPoller) {
         this.logService = logService;
+        this.cieloConfigurationHandler = cieloConfigurationHandler;
+        this.accountSnapshots = accountSnapshots;
+        this.statusRefresher = statusRefresher;
+        this.lookups = lookups;
+        this.pendingPaymentPoller = pendingPaymentPoller;
     }
 
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
-        // Find me on http://127.0.0.1:8080/plugins/ingenico-plugin
-        logService.log(LogService.LOG_INFO, "VAI CORINTHIANS");
+        // Find me on http://127.0.0.1:8080/plugins/killbill-cielo
+        final Object tenant = req.getAttribute(TENANT_ATTRIBUTE);
+        final UUID kbTenantId = tenant instanceof Tenant ? ((Tenant) tenant).getId() : null;
+
+        final CieloClient cieloClient = cieloConfigurationHandler.getConfigurable(kbTenantId);
+        if (cieloClient == null) {
+            logService.log(LogService.LOG_WARNING, "No Cielo configuration found for tenant " + kbTenantId);
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        final Map<String, Object> statistics = new LinkedHashMap<String, Object>(cieloClient.getStatistics());
+        // One instance for all the tenants, the counters are not broken down per tenant
+        statistics.put("accountCache", accountSnapshots.getStatistics());
+        statistics.put("statusRefresh", statusRefresher.getStatistics());
+        statistics.put("lookups", lookups.getStatistics());
+        if (pendingPaymentPoller != null) {
+            statistics.put("pendingPoller", pendingPaymentPoller.getStatistics());
+        }
+
+        resp.setContentType("application/json");
+        objectMapper.writeValue(resp.getOutputStream(), statistics);
     }
 }
@@ -40,6 +40,7 @@ import org.killbill.billing.plugin.api.PluginProperties;
 import org.killbill.billing.plugin.cielo.api.CieloCallContext;
 import org.killbill.billing.plugin.cielo.api.CieloPaymentTransactionInfoPlugin;
 import org.killbill.billing.plugin.cielo.client.model.PaymentModificationResponse;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
 import org.killbill.billing.plugin.cielo.dao.CieloDao;
 import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord;
 import org.killbill.billing.util.callcontext.CallContext;
@@ -77,7 +78,7 @@ public class CieloTransactionStateHandler {
         this.clock = clock;
     }
 
-    public void updatePaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final List<PaymentTransactionInfoPlugin> paymentTransactions, TransactionType transactionType, final CieloResponsesRecord cieloResponseRecord, final PaymentModificationResponse response, final TenantContext tenantContext) throws SQLException {
+    public void updatePaymentInfo(final UUID kbAccountId, final UUID kbPaymentId, final List<PaymentTransactionInfoPlugin> paymentTransactions, TransactionType transactionType, final CieloResponsesRecord cieloResponseRecord, final PaymentModificationResponse response, final CieloDeadline deadline, final TenantContext tenantContext) throws SQLException {
         UUID kbTransactionId = UUID.fromString(cieloResponseRecord.getKbPaymentTransactionId());
         final DateTime utcNow = clock.getUTCNow();
         final TransactionType expectedTransactionType = EVENT_CODES_TO_TRANSACTION_TYPE.get(cieloResponseRecord.getCieloStatus());
@@ -88,29 +89,29 @@ public class CieloTransactionStateHandler {
         CieloPaymentTransactionInfoPlugin paymentTransactionInfoPlugin = new CieloPaymentTransactionInfoPlugin(kbPaymentId, kbTransactionId, transactionType, amount, currency, response.getResult() , utcNow, response);
         final PaymentPluginStatus paymentPluginStatus = paymentTransactionInfoPlugin.getStatus();
 
-        Account account = getAccount(kbAccountId, tenantContext);
+        // The account is only needed to hand a state change over to Kill Bill, which most refreshes do not do
         Payment payment = getPayment(kbPaymentId, context);
         PaymentTransaction paymentTransaction = filterForTransaction(payment, kbTransactionId);
 
         if (PaymentPluginStatus.UNDEFINED.equals(paymentPluginStatus)) {
             return;
         } else if (paymentTransaction != null && TransactionStatus.PENDING.equals(paymentTransaction.getTransactionStatus()) && !PaymentPluginStatus.PENDING.equals(paymentPluginStatus)) {
-            transitionPendingTransaction(account, kbTransactionId, paymentPluginStatus, context);
+            transitionPendingTransaction(getAccount(kbAccountId, tenantContext), kbTransactionId, paymentPluginStatus, context);
         } else if (paymentTransaction != null && paymentTransactionInfoPlugin.getStatus() != paymentPluginStatus) {
             fixPaymentTransactionState(payment, paymentTransaction, paymentPluginStatus, cieloResponseRecord, context);
         } else if (paymentTransaction == null && expectedTransactionType == TransactionType.CHARGEBACK && PaymentPluginStatus.PROCESSED.equals(paymentPluginStatus)) {
-            createChargeback(account, kbPaymentId, paymentTransactionInfoPlugin, context);
+            createChargeback(getAccount(kbAccountId, tenantContext), kbPaymentId, paymentTransactionInfoPlugin, context);
         } else if (paymentTransaction == null && expectedTransactionType == TransactionType.CHARGEBACK && PaymentPluginStatus.ERROR.equals(paymentPluginStatus)) {
             // There should only be one chargeback in Kill Bill, see https://github.com/killbill/killbill/issues/477
             final PaymentTransactionInfoPlugin chargeback = filterTransactions(paymentTransactions, TransactionType.CHARGEBACK);
-            createChargebackReversal(account, kbPaymentId, chargeback, context);
+            createChargebackReversal(getAccount(kbAccountId, tenantContext), kbPaymentId, chargeback, context);
         }
         else {
             return;
         }
 
         Iterable<PluginProperty> additionalData = PluginProperties.buildPluginProperties(response.getAdditionalData());
-        dao.updateResponse(kbTransactionId, response.getStatus(), response.getResultOrNull(), additionalData, tenantContext.getTenantId());
+        dao.updateResponse(kbTransactionId, response.getStatus(), response.getResultOrNull(), additionalData, tenantContext.getTenantId(), deadline);
     }
 
     private void createChargeback(final Account account, final UUID kbPaymentId, final PaymentTransactionInfoPlugin transaction, final CallContext context) {
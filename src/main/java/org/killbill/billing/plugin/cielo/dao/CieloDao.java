@@ -4,16 +4,25 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.UpdateSetMoreStep;
+import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
+import org.jooq.types.UInteger;
 import org.killbill.billing.catalog.api.Currency;
 import org.killbill.billing.payment.api.PluginProperty;
 import org.killbill.billing.payment.api.TransactionType;
@@ -22,7 +31,12 @@ import org.killbill.billing.plugin.dao.payment.PluginPaymentDao;
 import org.killbill.billing.plugin.cielo.client.model.PaymentModificationResponse;
 import org.killbill.billing.plugin.cielo.client.model.PaymentServiceProviderResult;
 import org.killbill.billing.plugin.cielo.client.model.PurchaseResult;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloOperation;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloQuotaLeaser;
 import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord;
+import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord;
+import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord;
 import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -30,14 +44,18 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 
 import static org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS;
+import static org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS;
+import static org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS;
 import static org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES;
 
 /**
  * Created by otaviosoares on 14/11/16.
  */
-public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses, CieloPaymentMethodsRecord, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods> {
+public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses, CieloPaymentMethodsRecord, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods> implements CieloQuotaLeaser {
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final Joiner JOINER = Joiner.on(",");
+    // Supported by MySQL, PostgreSQL and H2
+    private static final Field<Timestamp> CURRENT_TIMESTAMP_MICROS = DSL.field("current_timestamp(6)", Timestamp.class);
 
     public CieloDao(final DataSource dataSource) throws SQLException {
         super(CIELO_RESPONSES, CIELO_PAYMENT_METHODS, dataSource);
@@ -62,7 +80,36 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                 });
     }
 
+    public CieloPaymentMethodsRecord getPaymentMethod(final UUID kbPaymentMethodId, final UUID kbTenantId, final CieloDeadline deadline) throws SQLException {
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<CieloPaymentMethodsRecord>() {
+                           @Override
+                           public CieloPaymentMethodsRecord withConnection(final Connection conn) throws SQLException {
+                               return DSL.using(conn, dialect, settings)
+                                         .selectFrom(CIELO_PAYMENT_METHODS)
+                                         .where(CIELO_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID.equal(kbPaymentMethodId.toString()))
+                                         .and(CIELO_PAYMENT_METHODS.IS_DELETED.equal(FALSE))
+                                         .and(CIELO_PAYMENT_METHODS.KB_TENANT_ID.equal(kbTenantId.toString()))
+                                         .orderBy(CIELO_PAYMENT_METHODS.RECORD_ID.desc())
+                                         .limit(1)
+                                         .queryTimeout(queryTimeoutSeconds)
+                                         .fetchOne();
+                           }
+                       });
+    }
+
+    // Responses
+
     public CieloResponsesRecord getResponse(final UUID kbPaymentId, final UUID kbTenantId) throws SQLException {
+        return getResponse(kbPaymentId, kbTenantId, CieloDeadline.NONE);
+    }
+
+    /**
+     * The query is given the time left before the deadline, see {@link #queryTimeoutSeconds(CieloDeadline)}.
+     */
+    public CieloResponsesRecord getResponse(final UUID kbPaymentId, final UUID kbTenantId, final CieloDeadline deadline) throws SQLException {
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<CieloResponsesRecord>() {
                            @Override
@@ -73,6 +120,30 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                          .and(DSL.field(CIELO_RESPONSES.getName() + "." + KB_TENANT_ID).equal(kbTenantId.toString()))
                                          .orderBy(DSL.field(CIELO_RESPONSES.getName() + "." + RECORD_ID).desc())
                                          .limit(1)
+                                         .queryTimeout(queryTimeoutSeconds)
+                                         .fetchOne();
+                           }
+                       });
+    }
+
+    /**
+     * Latest authorization or purchase of the payment, what follow-up transactions apply to.
+     */
+    public CieloResponsesRecord getSuccessfulAuthorizationResponse(final UUID kbPaymentId, final UUID kbTenantId, final CieloDeadline deadline) throws SQLException {
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<CieloResponsesRecord>() {
+                           @Override
+                           public CieloResponsesRecord withConnection(final Connection conn) throws SQLException {
+                               return DSL.using(conn, dialect, settings)
+                                         .selectFrom(CIELO_RESPONSES)
+                                         .where(CIELO_RESPONSES.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+                                         .and(CIELO_RESPONSES.TRANSACTION_TYPE.equal(TransactionType.AUTHORIZE.toString())
+                                                                              .or(CIELO_RESPONSES.TRANSACTION_TYPE.equal(TransactionType.PURCHASE.toString())))
+                                         .and(CIELO_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
+                                         .orderBy(CIELO_RESPONSES.RECORD_ID.desc())
+                                         .limit(1)
+                                         .queryTimeout(queryTimeoutSeconds)
                                          .fetchOne();
                            }
                        });
@@ -87,7 +158,26 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                             final PurchaseResult result,
                             final DateTime utcNow,
                             final UUID kbTenantId) throws SQLException {
+        addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, amount, currency, result, utcNow, kbTenantId, CieloDeadline.NONE);
+    }
+
+    /**
+     * Records the outcome of a Cielo call: the insert is given the time left before the deadline, and at least a second
+     * once it is spent (see {@link #queryTimeoutSeconds(CieloDeadline)}) so that a call which used up the budget is still
+     * recorded.
+     */
+    public void addResponse(final UUID kbAccountId,
+                            final UUID kbPaymentId,
+                            final UUID kbPaymentTransactionId,
+                            final TransactionType transactionType,
+                            final BigDecimal amount,
+                            final Currency currency,
+                            final PurchaseResult result,
+                            final DateTime utcNow,
+                            final UUID kbTenantId,
+                            final CieloDeadline deadline) throws SQLException {
         final String additionalData = getAdditionalData(result);
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<Void>() {
                     @Override
@@ -132,6 +222,7 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                         additionalData,
                                         toTimestamp(utcNow),
                                         kbTenantId.toString())
+                                .queryTimeout(queryTimeoutSeconds)
                                 .execute();
                         return null;
                     }
@@ -147,7 +238,21 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                             final PaymentModificationResponse result,
                             final DateTime utcNow,
                             final UUID kbTenantId) throws SQLException {
+        addResponse(kbAccountId, kbPaymentId, kbPaymentTransactionId, transactionType, amount, currency, result, utcNow, kbTenantId, CieloDeadline.NONE);
+    }
+
+    public void addResponse(final UUID kbAccountId,
+                            final UUID kbPaymentId,
+                            final UUID kbPaymentTransactionId,
+                            final TransactionType transactionType,
+                            @Nullable final BigDecimal amount,
+                            @Nullable final Currency currency,
+                            final PaymentModificationResponse result,
+                            final DateTime utcNow,
+                            final UUID kbTenantId,
+                            final CieloDeadline deadline) throws SQLException {
         final String additionalData = getAdditionalData(result);
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
 
         execute(dataSource.getConnection(),
                 new WithConnectionCallback<Void>() {
@@ -193,6 +298,7 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                    additionalData,
                                    toTimestamp(utcNow),
                                    kbTenantId.toString())
+                           .queryTimeout(queryTimeoutSeconds)
                            .execute();
                         return null;
                     }
@@ -200,7 +306,11 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
     }
 
     public CieloResponsesRecord updateResponse(final UUID kbPaymentTransactionId, final Iterable<PluginProperty> additionalPluginProperties, final UUID kbTenantId) throws SQLException {
-        return updateResponse(kbPaymentTransactionId, null, null, additionalPluginProperties, kbTenantId);
+        return updateResponse(kbPaymentTransactionId, null, null, additionalPluginProperties, kbTenantId, CieloDeadline.NONE);
+    }
+
+    public CieloResponsesRecord updateResponse(final UUID kbPaymentTransactionId, final String status, @Nullable final PaymentServiceProviderResult paymentServiceProviderResult, final Iterable<PluginProperty> additionalPluginProperties, final UUID kbTenantId) throws SQLException {
+        return updateResponse(kbPaymentTransactionId, status, paymentServiceProviderResult, additionalPluginProperties, kbTenantId, CieloDeadline.NONE);
     }
 
     /**
@@ -211,10 +321,12 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
      *@param paymentServiceProviderResult New PSP result (null if unchanged)
      * @param additionalPluginProperties   Latest properties
      * @param kbTenantId                   Kill Bill tenant id    @return the latest version of the response row, null if one couldn't be found
+     * @param deadline                     each query is given the time left, see {@link #queryTimeoutSeconds(CieloDeadline)}
      * @throws SQLException For any unexpected SQL error
      */
-    public CieloResponsesRecord updateResponse(final UUID kbPaymentTransactionId, final String status, @Nullable final PaymentServiceProviderResult paymentServiceProviderResult, final Iterable<PluginProperty> additionalPluginProperties, final UUID kbTenantId) throws SQLException {
+    public CieloResponsesRecord updateResponse(final UUID kbPaymentTransactionId, final String status, @Nullable final PaymentServiceProviderResult paymentServiceProviderResult, final Iterable<PluginProperty> additionalPluginProperties, final UUID kbTenantId, final CieloDeadline deadline) throws SQLException {
         final Map<String, Object> additionalProperties = PluginProperties.toMap(additionalPluginProperties);
+        final int queryTimeoutSeconds = queryTimeoutSeconds(deadline);
 
         return execute(dataSource.getConnection(),
                        new WithConnectionCallback<CieloResponsesRecord>() {
@@ -226,6 +338,7 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                                                         .and(CIELO_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
                                                                         .orderBy(CIELO_RESPONSES.RECORD_ID.desc())
                                                                         .limit(1)
+                                                                        .queryTimeout(queryTimeoutSeconds)
                                                                         .fetchOne();
 
                                if (response == null) {
@@ -252,6 +365,7 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                    step = step.set(CIELO_RESPONSES.CIELO_RESULT, paymentServiceProviderResult.toString());
                                }
                                step.where(CIELO_RESPONSES.RECORD_ID.equal(response.getRecordId()))
+                                   .queryTimeout(queryTimeoutSeconds)
                                    .execute();
 
                                return DSL.using(conn, dialect, settings)
@@ -260,11 +374,238 @@ public class CieloDao extends PluginPaymentDao<CieloResponsesRecord, org.killbil
                                          .and(CIELO_RESPONSES.KB_TENANT_ID.equal(kbTenantId.toString()))
                                          .orderBy(CIELO_RESPONSES.RECORD_ID.desc())
                                          .limit(1)
+                                         .queryTimeout(queryTimeoutSeconds)
                                          .fetchOne();
                            }
                        });
     }
 
+    /**
+     * Latest response of each payment, when it is still to be polled: in one of the pending statuses. Payments whose
+     * poll claim is not due yet are left out (see {@link #claimPoll(UUID, long, long)}). Goes through the status and
+     * creation date index, by pages of increasing record id.
+     *
+     * @param pendingStatuses statuses to look for
+     * @param createdAfter    responses created before are left alone
+     * @param afterRecordId   record id of the last response of the previous page, 0 for the first page
+     * @param limit           maximum number of responses returned
+     */
+    public List<CieloResponsesRecord> getLatestResponsesToPoll(final Collection<String> pendingStatuses,
+                                                               final DateTime createdAfter,
+                                                               final long afterRecordId,
+                                                               final int limit) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<List<CieloResponsesRecord>>() {
+                           @Override
+                           public List<CieloResponsesRecord> withConnection(final Connection conn) throws SQLException {
+                               final DSLContext context = DSL.using(conn, dialect, settings);
+                               final long nowMillis = TimeUnit.MICROSECONDS.toMillis(currentTimeMicros(context, 0));
+                               final org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses laterResponses = CIELO_RESPONSES.as("later_responses");
+                               return context.selectFrom(CIELO_RESPONSES)
+                                             .where(CIELO_RESPONSES.CIELO_STATUS.in(pendingStatuses))
+                                             .and(CIELO_RESPONSES.CIELO_PAYMENT_ID.isNotNull())
+                                             .and(CIELO_RESPONSES.CREATED_DATE.greaterOrEqual(toTimestamp(createdAfter)))
+                                             .and(CIELO_RESPONSES.RECORD_ID.greaterThan(UInteger.valueOf(afterRecordId)))
+                                             .andNotExists(DSL.selectOne()
+                                                              .from(laterResponses)
+                                                              .where(laterResponses.KB_PAYMENT_ID.equal(CIELO_RESPONSES.KB_PAYMENT_ID))
+                                                              .and(laterResponses.RECORD_ID.greaterThan(CIELO_RESPONSES.RECORD_ID)))
+                                             .andNotExists(DSL.selectOne()
+                                                              .from(CIELO_POLL_CLAIMS)
+                                                              .where(CIELO_POLL_CLAIMS.KB_PAYMENT_ID.equal(CIELO_RESPONSES.KB_PAYMENT_ID))
+                                                              .and(CIELO_POLL_CLAIMS.NEXT_POLL_TIME.greaterThan(nowMillis)))
+                                             .orderBy(CIELO_RESPONSES.RECORD_ID.asc())
+                                             .limit(limit)
+                                             .fetch();
+                           }
+                       });
+    }
+
+    // Poll claims
+
+    /**
+     * Claim the next poll of a payment, so that a single node polls it however many run the poller. A successful claim
+     * also pushes the following one back: the delay doubles with each poll, up to the maximum. Times are those of the
+     * database, and the claim row is only updated if no other node claimed it since it was read.
+     *
+     * @param initialBackoff delay before the second poll, in milliseconds
+     * @param maxBackoff     longest delay between two polls, in milliseconds
+     * @return false if the payment is not due yet, or was claimed by another node
+     */
+    public boolean claimPoll(final UUID kbPaymentId, final long initialBackoff, final long maxBackoff) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Boolean>() {
+                           @Override
+                           public Boolean withConnection(final Connection conn) throws SQLException {
+                               final DSLContext context = DSL.using(conn, dialect, settings);
+                               final CieloPollClaimsRecord claim = context.selectFrom(CIELO_POLL_CLAIMS)
+                                                                          .where(CIELO_POLL_CLAIMS.KB_PAYMENT_ID.equal(kbPaymentId.toString()))
+                                                                          .fetchOne();
+                               final long nowMillis = TimeUnit.MICROSECONDS.toMillis(currentTimeMicros(context, 0));
+                               final Timestamp utcNow = toTimestamp(new DateTime(nowMillis, DateTimeZone.UTC));
+
+                               if (claim == null) {
+                                   try {
+                                       context.insertInto(CIELO_POLL_CLAIMS,
+                                                          CIELO_POLL_CLAIMS.KB_PAYMENT_ID,
+                                                          CIELO_POLL_CLAIMS.POLLS,
+                                                          CIELO_POLL_CLAIMS.NEXT_POLL_TIME,
+                                                          CIELO_POLL_CLAIMS.UPDATED_DATE)
+                                              .values(kbPaymentId.toString(), 1, nowMillis + initialBackoff, utcNow)
+                                              .execute();
+                                       return true;
+                                   } catch (final DataAccessException e) {
+                                       // Claimed by another node in the meantime
+                                       return false;
+                                   }
+                               }
+
+                               if (claim.getNextPollTime() > nowMillis) {
+                                   return false;
+                               }
+                               final int polls = claim.getPolls();
+                               final long backoff = Math.min(maxBackoff, initialBackoff << Math.min(polls, 30));
+                               return context.update(CIELO_POLL_CLAIMS)
+                                             .set(CIELO_POLL_CLAIMS.POLLS, polls + 1)
+                                             .set(CIELO_POLL_CLAIMS.NEXT_POLL_TIME, nowMillis + backoff)
+                                             .set(CIELO_POLL_CLAIMS.UPDATED_DATE, utcNow)
+                                             .where(CIELO_POLL_CLAIMS.RECORD_ID.equal(claim.getRecordId()))
+                                             .and(CIELO_POLL_CLAIMS.POLLS.equal(polls))
+                                             .execute() == 1;
+                           }
+                       });
+    }
+
+    /**
+     * Claims not updated for longer than the maximum age belong to payments which are no longer polled.
+     *
+     * @param maxAge in milliseconds
+     * @return number of claims deleted
+     */
+    public int deleteExpiredPollClaims(final long maxAge) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Integer>() {
+                           @Override
+                           public Integer withConnection(final Connection conn) throws SQLException {
+                               final DSLContext context = DSL.using(conn, dialect, settings);
+                               final long nowMillis = TimeUnit.MICROSECONDS.toMillis(currentTimeMicros(context, 0));
+                               return context.delete(CIELO_POLL_CLAIMS)
+                                             .where(CIELO_POLL_CLAIMS.UPDATED_DATE.lessThan(toTimestamp(new DateTime(nowMillis - maxAge, DateTimeZone.UTC))))
+                                             .execute();
+                           }
+                       });
+    }
+
+    // Rate limits
+
+    /**
+     * The quota row is locked while the permits are taken, nodes refilling their allowance at the same time are serialized.
+     * Permit times are those of the database, read once the row is locked (databases returning the time the transaction
+     * started instead only make the permits come a little later than needed).
+     */
+    @Override
+    public long leasePermits(final String merchantKey,
+                             final CieloOperation operation,
+                             final int permits,
+                             final long permitIntervalMicros,
+                             final long burstMicros,
+                             final int timeoutSeconds) throws SQLException {
+        return execute(dataSource.getConnection(),
+                       new WithConnectionCallback<Long>() {
+                           @Override
+                           public Long withConnection(final Connection conn) throws SQLException {
+                               final boolean autoCommit = conn.getAutoCommit();
+                               conn.setAutoCommit(false);
+                               try {
+                                   final DSLContext context = DSL.using(conn, dialect, settings);
+                                   Long firstPermit = leasePermits(context, merchantKey, operation.toString(), permits, permitIntervalMicros, burstMicros, timeoutSeconds);
+                                   if (firstPermit == null) {
+                                       // Another node created the quota row in the meantime, it is locked by the second attempt
+                                       conn.rollback();
+                                       firstPermit = leasePermits(context, merchantKey, operation.toString(), permits, permitIntervalMicros, burstMicros, timeoutSeconds);
+                                   }
+                                   if (firstPermit == null) {
+                                       throw new SQLException("Unable to create the rate limit of " + operation + " calls for merchant " + merchantKey);
+                                   }
+                                   conn.commit();
+                                   return firstPermit;
+                               } catch (final SQLException e) {
+                                   conn.rollback();
+                                   throw e;
+                               } catch (final RuntimeException e) {
+                                   conn.rollback();
+                                   throw e;
+                               } finally {
+                                   conn.setAutoCommit(autoCommit);
+                               }
+                           }
+                       });
+    }
+
+    /**
+     * @return time of the first permit, in microseconds from now, null if the quota row could not be created
+     */
+    private Long leasePermits(final DSLContext context,
+                              final String merchantKey,
+                              final String operation,
+                              final int permits,
+                              final long permitIntervalMicros,
+                              final long burstMicros,
+                              final int timeoutSeconds) {
+        final CieloRateLimitsRecord rateLimit = context.selectFrom(CIELO_RATE_LIMITS)
+                                                       .where(CIELO_RATE_LIMITS.MERCHANT_KEY.equal(merchantKey))
+                                                       .and(CIELO_RATE_LIMITS.OPERATION.equal(operation))
+                                                       .forUpdate()
+                                                       .queryTimeout(timeoutSeconds)
+                                                       .fetchOne();
+        final long nowMicros = currentTimeMicros(context, timeoutSeconds);
+        // Permits not taken while the quota was idle accumulate up to the burst
+        final long firstPermit = Math.max(rateLimit == null ? Long.MIN_VALUE : rateLimit.getNextPermitTime(), nowMicros - burstMicros);
+        final long nextPermit = firstPermit + permits * permitIntervalMicros;
+        final DateTime utcNow = new DateTime(nowMicros / 1000, DateTimeZone.UTC);
+
+        if (rateLimit == null) {
+            try {
+                context.insertInto(CIELO_RATE_LIMITS,
+                                   CIELO_RATE_LIMITS.MERCHANT_KEY,
+                                   CIELO_RATE_LIMITS.OPERATION,
+                                   CIELO_RATE_LIMITS.NEXT_PERMIT_TIME,
+                                   CIELO_RATE_LIMITS.UPDATED_DATE)
+                       .values(merchantKey, operation, nextPermit, toTimestamp(utcNow))
+                       .queryTimeout(timeoutSeconds)
+                       .execute();
+            } catch (final DataAccessException e) {
+                return null;
+            }
+        } else {
+            context.update(CIELO_RATE_LIMITS)
+                   .set(CIELO_RATE_LIMITS.NEXT_PERMIT_TIME, nextPermit)
+                   .set(CIELO_RATE_LIMITS.UPDATED_DATE, toTimestamp(utcNow))
+                   .where(CIELO_RATE_LIMITS.RECORD_ID.equal(rateLimit.getRecordId()))
+                   .queryTimeout(timeoutSeconds)
+                   .execute();
+        }
+        return firstPermit - nowMicros;
+    }
+
+    /**
+     * Time left before the deadline, rounded up to the second as JDBC wants it: never 0 (no timeout) for a bounded
+     * deadline, even once spent.
+     */
+    private static int queryTimeoutSeconds(final CieloDeadline deadline) {
+        return deadline.isBounded() ? (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(deadline.remainingMillis() + 999)) : 0;
+    }
+
+    private static long currentTimeMicros(final DSLContext context, final int timeoutSeconds) {
+        return toMicros(context.select(CURRENT_TIMESTAMP_MICROS)
+                               .queryTimeout(timeoutSeconds)
+                               .fetchOne(0, Timestamp.class));
+    }
+
+    private static long toMicros(final Timestamp timestamp) {
+        return TimeUnit.SECONDS.toMicros(TimeUnit.MILLISECONDS.toSeconds(timestamp.getTime())) + TimeUnit.NANOSECONDS.toMicros(timestamp.getNanos());
+    }
+
     private String getAdditionalData(final PurchaseResult result) throws SQLException {
         final Map<String, String> additionalDataMap = new HashMap<String, String>();
         if (result.getAdditionalData() != null && !result.getAdditionalData().isEmpty()) {
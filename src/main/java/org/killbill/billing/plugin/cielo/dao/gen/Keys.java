@@ -22,6 +22,8 @@ public class Keys {
 	// -------------------------------------------------------------------------
 
 	public static final org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_PAYMENT_METHODS = Identities0.IDENTITY_CIELO_PAYMENT_METHODS;
+	public static final org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_POLL_CLAIMS = Identities0.IDENTITY_CIELO_POLL_CLAIMS;
+	public static final org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_RATE_LIMITS = Identities0.IDENTITY_CIELO_RATE_LIMITS;
 	public static final org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord, org.jooq.types.UInteger> IDENTITY_CIELO_RESPONSES = Identities0.IDENTITY_CIELO_RESPONSES;
 
 	// -------------------------------------------------------------------------
@@ -30,6 +32,10 @@ public class Keys {
 
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord> KEY_CIELO_PAYMENT_METHODS_PRIMARY = UniqueKeys0.KEY_CIELO_PAYMENT_METHODS_PRIMARY;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord> KEY_CIELO_PAYMENT_METHODS_CIELO_PAYMENT_METHODS_KB_PAYMENT_ID = UniqueKeys0.KEY_CIELO_PAYMENT_METHODS_CIELO_PAYMENT_METHODS_KB_PAYMENT_ID;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord> KEY_CIELO_POLL_CLAIMS_PRIMARY = UniqueKeys0.KEY_CIELO_POLL_CLAIMS_PRIMARY;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord> KEY_CIELO_POLL_CLAIMS_CIELO_POLL_CLAIMS_KB_PAYMENT_ID = UniqueKeys0.KEY_CIELO_POLL_CLAIMS_CIELO_POLL_CLAIMS_KB_PAYMENT_ID;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord> KEY_CIELO_RATE_LIMITS_PRIMARY = UniqueKeys0.KEY_CIELO_RATE_LIMITS_PRIMARY;
+	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord> KEY_CIELO_RATE_LIMITS_CIELO_RATE_LIMITS_MERCHANT_KEY_OPERATION = UniqueKeys0.KEY_CIELO_RATE_LIMITS_CIELO_RATE_LIMITS_MERCHANT_KEY_OPERATION;
 	public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord> KEY_CIELO_RESPONSES_PRIMARY = UniqueKeys0.KEY_CIELO_RESPONSES_PRIMARY;
 
 	// -------------------------------------------------------------------------
@@ -43,12 +49,18 @@ public class Keys {
 
 	private static class Identities0 extends org.jooq.impl.AbstractKeys {
 		public static org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_PAYMENT_METHODS = createIdentity(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS.RECORD_ID);
+		public static org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_POLL_CLAIMS = createIdentity(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS.RECORD_ID);
+		public static org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord, org.jooq.types.UInteger> IDENTITY_CIELO_RATE_LIMITS = createIdentity(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS.RECORD_ID);
 		public static org.jooq.Identity<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord, org.jooq.types.UInteger> IDENTITY_CIELO_RESPONSES = createIdentity(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES.RECORD_ID);
 	}
 
 	private static class UniqueKeys0 extends org.jooq.impl.AbstractKeys {
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord> KEY_CIELO_PAYMENT_METHODS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS.RECORD_ID);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPaymentMethodsRecord> KEY_CIELO_PAYMENT_METHODS_CIELO_PAYMENT_METHODS_KB_PAYMENT_ID = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS.KB_PAYMENT_METHOD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord> KEY_CIELO_POLL_CLAIMS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS.RECORD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloPollClaimsRecord> KEY_CIELO_POLL_CLAIMS_CIELO_POLL_CLAIMS_KB_PAYMENT_ID = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS.KB_PAYMENT_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord> KEY_CIELO_RATE_LIMITS_PRIMARY = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS.RECORD_ID);
+		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloRateLimitsRecord> KEY_CIELO_RATE_LIMITS_CIELO_RATE_LIMITS_MERCHANT_KEY_OPERATION = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS.MERCHANT_KEY, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS.OPERATION);
 		public static final org.jooq.UniqueKey<org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord> KEY_CIELO_RESPONSES_PRIMARY = createUniqueKey(org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES, org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES.RECORD_ID);
 	}
 }
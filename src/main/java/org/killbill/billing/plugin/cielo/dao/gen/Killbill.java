@@ -40,6 +40,8 @@ public class Killbill extends org.jooq.impl.SchemaImpl {
 	private final java.util.List<org.jooq.Table<?>> getTables0() {
 		return java.util.Arrays.<org.jooq.Table<?>>asList(
 			org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS,
+			org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS,
+			org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS,
 			org.killbill.billing.plugin.cielo.dao.gen.tables.CieloResponses.CIELO_RESPONSES);
 	}
 }
@@ -21,6 +21,16 @@ public class Tables {
 	 */
 	public static final org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods CIELO_PAYMENT_METHODS = org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPaymentMethods.CIELO_PAYMENT_METHODS;
 
+	/**
+	 * The table killbill.cielo_poll_claims
+	 */
+	public static final org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims CIELO_POLL_CLAIMS = org.killbill.billing.plugin.cielo.dao.gen.tables.CieloPollClaims.CIELO_POLL_CLAIMS;
+
+	/**
+	 * The table killbill.cielo_rate_limits
+	 */
+	public static final org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits CIELO_RATE_LIMITS = org.killbill.billing.plugin.cielo.dao.gen.tables.CieloRateLimits.CIELO_RATE_LIMITS;
+
 	/**
 	 * The table killbill.cielo_responses
 	 */
@@ -26,6 +26,7 @@ create table cielo_responses (
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create index cielo_responses_kb_payment_id on cielo_responses(kb_payment_id);
 create index cielo_responses_kb_payment_transaction_id on cielo_responses(kb_payment_transaction_id);
+create index cielo_responses_cielo_status_created_date on cielo_responses(cielo_status, created_date);
 
 drop table if exists cielo_payment_methods;
 create table cielo_payment_methods (
@@ -60,3 +61,25 @@ create table cielo_payment_methods (
 , primary key(record_id)
 ) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
 create unique index cielo_payment_methods_kb_payment_id on cielo_payment_methods(kb_payment_method_id);
+
+drop table if exists cielo_poll_claims;
+create table cielo_poll_claims (
+  record_id int(11) unsigned not null auto_increment
+, kb_payment_id char(36) not null
+, polls int not null
+, next_poll_time bigint(20) not null
+, updated_date datetime not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index cielo_poll_claims_kb_payment_id on cielo_poll_claims(kb_payment_id);
+
+drop table if exists cielo_rate_limits;
+create table cielo_rate_limits (
+  record_id int(11) unsigned not null auto_increment
+, merchant_key varchar(255) not null
+, operation varchar(32) not null
+, next_permit_time bigint(20) not null
+, updated_date datetime not null
+, primary key(record_id)
+) /*! CHARACTER SET utf8 COLLATE utf8_bin */;
+create unique index cielo_rate_limits_merchant_key_operation on cielo_rate_limits(merchant_key, operation);
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.osgi.libs.killbill.OSGIKillbillAPI;
+import org.killbill.billing.payment.api.Payment;
+import org.killbill.billing.payment.api.PaymentApi;
+import org.killbill.billing.payment.api.PaymentTransaction;
+import org.killbill.billing.payment.api.PluginProperty;
+import org.killbill.billing.util.callcontext.TenantContext;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * The Kill Bill payment loads are counted, and can be held back to check that callers do not wait for them.
+ */
+public class TestCieloTransactionExternalKeys {
+
+    private static final int PAYMENTS = 20;
+    private static final Iterable<PluginProperty> NO_PROPERTIES = ImmutableList.<PluginProperty>of();
+
+    private final List<Payment> payments = new ArrayList<Payment>();
+    private final AtomicInteger paymentLoads = new AtomicInteger();
+    private volatile CountDownLatch loadGate = new CountDownLatch(0);
+
+    private ListeningExecutorService executor;
+    private PaymentApi paymentApi;
+    private CieloTransactionExternalKeys transactionExternalKeys;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() throws Exception {
+        payments.clear();
+        paymentLoads.set(0);
+        loadGate = new CountDownLatch(0);
+        executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+        paymentApi = Mockito.mock(PaymentApi.class);
+        Mockito.when(paymentApi.getPayment(Mockito.<UUID>any(), Mockito.anyBoolean(), Mockito.anyBoolean(), Mockito.<Iterable<PluginProperty>>any(), Mockito.<TenantContext>any()))
+               .thenAnswer(new Answer<Payment>() {
+                   @Override
+                   public Payment answer(final InvocationOnMock invocation) throws Throwable {
+                       paymentLoads.incrementAndGet();
+                       Assert.assertTrue(loadGate.await(10, TimeUnit.SECONDS));
+                       final UUID kbPaymentId = (UUID) invocation.getArguments()[0];
+                       for (final Payment payment : payments) {
+                           if (payment.getId().equals(kbPaymentId)) {
+                               return payment;
+                           }
+                       }
+                       throw new IllegalArgumentException("Unknown payment " + kbPaymentId);
+                   }
+               });
+        final OSGIKillbillAPI killbillAPI = Mockito.mock(OSGIKillbillAPI.class);
+        Mockito.when(killbillAPI.getPaymentApi()).thenReturn(paymentApi);
+
+        for (int i = 0; i < PAYMENTS; i++) {
+            payments.add(newPayment("payment-" + i));
+        }
+        transactionExternalKeys = new CieloTransactionExternalKeys(killbillAPI, new CieloLookupExecutor(executor));
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = "fast")
+    public void testKeysOfThePaymentAreCached() throws Exception {
+        final Payment payment = payments.get(0);
+        final UUID authorizationId = payment.getTransactions().get(0).getId();
+        final UUID captureId = payment.getTransactions().get(1).getId();
+        Assert.assertNull(transactionExternalKeys.getIfPresent(payment.getId(), captureId));
+
+        Assert.assertEquals(transactionExternalKeys.fetch(payment.getId(), authorizationId, NO_PROPERTIES, null).get(), "payment-0-authorization");
+        // Loaded along with the first one
+        Assert.assertEquals(transactionExternalKeys.getIfPresent(payment.getId(), captureId), "payment-0-capture");
+        Assert.assertEquals(transactionExternalKeys.fetch(payment.getId(), captureId, NO_PROPERTIES, null).get(), "payment-0-capture");
+        Assert.assertEquals(paymentLoads.get(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testUnknownTransaction() throws Exception {
+        final Payment payment = payments.get(0);
+        try {
+            transactionExternalKeys.fetch(payment.getId(), UUID.randomUUID(), NO_PROPERTIES, null).get();
+            Assert.fail("Found a transaction which does not exist");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        }
+    }
+
+    /**
+     * Kill Bill calls the plugin for an authorization then a capture of each payment: the payment is loaded in the
+     * background for the authorization only, and the capture finds the key cached.
+     */
+    @Test(groups = "fast")
+    public void testPaymentIsLoadedOncePerPayment() throws Exception {
+        for (final Payment payment : payments) {
+            final PaymentTransaction authorization = payment.getTransactions().get(0);
+            final PaymentTransaction capture = payment.getTransactions().get(1);
+
+            // As in executeInitialTransaction: the call is prepared while the payment loads
+            loadGate = new CountDownLatch(1);
+            final ListenableFuture<String> externalKey = transactionExternalKeys.fetch(payment.getId(), authorization.getId(), NO_PROPERTIES, null);
+            Assert.assertFalse(externalKey.isDone());
+            loadGate.countDown();
+            Assert.assertEquals(externalKey.get(), authorization.getExternalKey());
+
+            // As in executeFollowUpTransaction
+            Assert.assertEquals(transactionExternalKeys.getIfPresent(payment.getId(), capture.getId()), capture.getExternalKey());
+            // Kill Bill retrying the authorization
+            Assert.assertEquals(transactionExternalKeys.fetch(payment.getId(), authorization.getId(), NO_PROPERTIES, null).get(), authorization.getExternalKey());
+        }
+        Assert.assertEquals(paymentLoads.get(), PAYMENTS);
+    }
+
+    @Test(groups = "fast")
+    public void testFollowUpNeverLoadsThePayment() throws Exception {
+        final Payment payment = payments.get(0);
+        Assert.assertNull(transactionExternalKeys.getIfPresent(payment.getId(), payment.getTransactions().get(1).getId()));
+        Assert.assertEquals(paymentLoads.get(), 0);
+    }
+
+    private static Payment newPayment(final String externalKey) {
+        final List<PaymentTransaction> transactions = ImmutableList.of(newTransaction(externalKey + "-authorization"),
+                                                                       newTransaction(externalKey + "-capture"));
+        final Payment payment = Mockito.mock(Payment.class);
+        final UUID kbPaymentId = UUID.randomUUID();
+        Mockito.when(payment.getId()).thenReturn(kbPaymentId);
+        Mockito.when(payment.getTransactions()).thenReturn(transactions);
+        return payment;
+    }
+
+    private static PaymentTransaction newTransaction(final String externalKey) {
+        final PaymentTransaction transaction = Mockito.mock(PaymentTransaction.class);
+        final UUID kbTransactionId = UUID.randomUUID();
+        Mockito.when(transaction.getId()).thenReturn(kbTransactionId);
+        Mockito.when(transaction.getExternalKey()).thenReturn(externalKey);
+        return transaction;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client;
+
+import java.util.Properties;
+
+import org.killbill.billing.plugin.cielo.emulator.CieloEmulator;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Payment;
+import cieloecommerce.sdk.ecommerce.Sale;
+import cieloecommerce.sdk.ecommerce.request.CieloRequestException;
+
+/**
+ * Round trips through the HTTP transport, against the emulator.
+ */
+public class TestCieloHttpTransport {
+
+    private static final String AUTHORIZED_CARD = "4024007197692931";
+    private static final String DENIED_CARD = "4024007197692932";
+
+    private CieloEmulator emulator;
+    private CieloClientRegistry registry;
+    private CieloGateway gateway;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        emulator = new CieloEmulator(new Properties());
+        emulator.start();
+
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.merchantKey", "key");
+        properties.put("org.killbill.billing.plugin.cielo.apiUrl", emulator.getUrl());
+        properties.put("org.killbill.billing.plugin.cielo.apiQueryUrl", emulator.getUrl());
+        registry = new CieloClientRegistry(new CieloConfigProperties(properties));
+        gateway = registry.getGateway();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception {
+        registry.close();
+        emulator.close();
+    }
+
+    @Test(groups = "slow")
+    public void testAuthorizeCaptureAndVoid() throws Exception {
+        final Sale authorization = gateway.createSale(newSale("order-1", 1500, AUTHORIZED_CARD));
+        final String paymentId = authorization.getPayment().getPaymentId();
+        Assert.assertNotNull(paymentId);
+        Assert.assertEquals(String.valueOf(authorization.getPayment().getStatus()), "1");
+
+        final Sale query = gateway.querySale(paymentId);
+        Assert.assertEquals(query.getPayment().getPaymentId(), paymentId);
+        Assert.assertEquals(String.valueOf(query.getPayment().getStatus()), "1");
+
+        final Sale capture = gateway.captureSale(paymentId, null);
+        Assert.assertEquals(capture.getPayment().getPaymentId(), paymentId);
+        Assert.assertEquals(String.valueOf(capture.getPayment().getStatus()), "2");
+
+        // Voiding a captured sale refunds it
+        final Sale cancellation = gateway.cancelSale(paymentId);
+        Assert.assertEquals(String.valueOf(cancellation.getPayment().getStatus()), "11");
+        Assert.assertEquals(String.valueOf(gateway.querySale(paymentId).getPayment().getStatus()), "11");
+        Assert.assertEquals(emulator.getRequests(), 5);
+    }
+
+    @Test(groups = "slow")
+    public void testDeniedSaleCannotBeCaptured() throws Exception {
+        final Sale denial = gateway.createSale(newSale("order-2", 1500, DENIED_CARD));
+        Assert.assertEquals(String.valueOf(denial.getPayment().getStatus()), "3");
+
+        try {
+            gateway.captureSale(denial.getPayment().getPaymentId(), null);
+            Assert.fail("Captured a denied sale");
+        } catch (final CieloRequestException e) {
+            Assert.assertEquals(e.getError().getCode(), (Integer) 308);
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testSaleWithTokenizedCard() throws Exception {
+        final CreditCard card = new CreditCard("", "Visa");
+        card.setCardNumber(AUTHORIZED_CARD);
+        card.setHolder("Comprador Teste");
+        card.setExpirationDate("12/2030");
+        final String cardToken = gateway.tokenizeCard(card).getCardToken();
+        Assert.assertNotNull(cardToken);
+
+        final Sale sale = newSale("order-3", 2500, null);
+        sale.getPayment().getCreditCard().setCardToken(cardToken);
+        Assert.assertEquals(String.valueOf(gateway.createSale(sale).getPayment().getStatus()), "1");
+    }
+
+    private static Sale newSale(final String merchantOrderId, final int amount, final String cardNumber) {
+        final CreditCard card = new CreditCard("123", "Visa");
+        card.setCardNumber(cardNumber);
+        card.setHolder("Comprador Teste");
+        card.setExpirationDate("12/2030");
+
+        final Payment payment = new Payment(amount);
+        payment.setCreditCard(card);
+
+        final Sale sale = new Sale(merchantOrderId);
+        sale.setPayment(payment);
+        return sale;
+    }
+}
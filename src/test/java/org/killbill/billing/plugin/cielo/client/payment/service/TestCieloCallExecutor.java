@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloCallExecutor {
+
+    private static final int THREADS = 4;
+    private static final int CALLS = 20;
+
+    @Test(groups = "fast")
+    public void testPoolSizedToTheCallsRunAtOnce() throws Exception {
+        Assert.assertEquals(newConfig(false).getMaxConnections(), THREADS);
+
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.maxConnections", "7");
+        Assert.assertEquals(new CieloConfigProperties(properties).getMaxConnections(), 7);
+    }
+
+    @Test(groups = "fast")
+    public void testPlatformThreadsRunAtMostThreadsCalls() throws Exception {
+        assertRunsAtMostThreadsCalls(new CieloCallExecutor(newConfig(false)));
+    }
+
+    // Falls back to platform threads before Java 21
+    @Test(groups = "fast")
+    public void testVirtualThreadsRunAtMostThreadsCalls() throws Exception {
+        assertRunsAtMostThreadsCalls(new CieloCallExecutor(newConfig(true)));
+    }
+
+    private static void assertRunsAtMostThreadsCalls(final CieloCallExecutor executor) throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        try {
+            final List<Future<Void>> calls = new ArrayList<Future<Void>>();
+            for (int i = 0; i < CALLS; i++) {
+                calls.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final int nowRunning = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+                        }
+                        Thread.sleep(20);
+                        running.decrementAndGet();
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> call : calls) {
+                call.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.close();
+        }
+
+        Assert.assertEquals(maxRunning.get(), THREADS);
+        Assert.assertEquals(executor.getStatistics().get("completedCalls"), (long) CALLS);
+        Assert.assertEquals(executor.getStatistics().get("queuedCalls"), 0);
+    }
+
+    private static CieloConfigProperties newConfig(final boolean virtualThreads) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.callExecutorThreads", String.valueOf(THREADS));
+        properties.put("org.killbill.billing.plugin.cielo.callExecutorQueueSize", String.valueOf(CALLS));
+        properties.put("org.killbill.billing.plugin.cielo.useVirtualThreads", String.valueOf(virtualThreads));
+        return new CieloConfigProperties(properties);
+    }
+}
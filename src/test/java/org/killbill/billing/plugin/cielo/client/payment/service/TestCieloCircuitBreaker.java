@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.Properties;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloCircuitBreaker {
+
+    @Test(groups = "fast")
+    public void testOpensAfterConsecutiveConnectivityFailures() throws Exception {
+        final CieloCircuitBreaker circuitBreaker = newCircuitBreaker(3, 60000);
+        for (int i = 0; i < 2; i++) {
+            complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        }
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.CLOSED);
+
+        complete(circuitBreaker, failedWith(CieloCallErrorStatus.RESPONSE_NOT_RECEIVED));
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.OPEN);
+        Assert.assertFalse(circuitBreaker.tryAcquirePermission());
+        Assert.assertEquals(circuitBreaker.getStatistics().get("rejectedCalls"), 1L);
+    }
+
+    @Test(groups = "fast")
+    public void testUnknownFailuresAreNotSuccesses() throws Exception {
+        final CieloCircuitBreaker circuitBreaker = newCircuitBreaker(3, 60000);
+        complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        complete(circuitBreaker, failedWith(CieloCallErrorStatus.UNKNOWN_FAILURE));
+        complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.OPEN);
+    }
+
+    @Test(groups = "fast")
+    public void testAnswersAndRejectionsDoNotOpen() throws Exception {
+        final CieloCircuitBreaker circuitBreaker = newCircuitBreaker(3, 60000);
+        for (int i = 0; i < 10; i++) {
+            complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+            complete(circuitBreaker, failedWith(CieloCallErrorStatus.RESPONSE_ABOUT_INVALID_REQUEST));
+            // Never reached Cielo: neither a failure nor a success
+            complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_REJECTED));
+            complete(circuitBreaker, succeeded());
+        }
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.CLOSED);
+        Assert.assertEquals(circuitBreaker.getStatistics().get("consecutiveFailures"), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testHalfOpenProbe() throws Exception {
+        final CieloCircuitBreaker circuitBreaker = newCircuitBreaker(1, 50);
+        complete(circuitBreaker, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        Assert.assertFalse(circuitBreaker.tryAcquirePermission());
+
+        Thread.sleep(100);
+        Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.HALF_OPEN);
+        // Single probe allowed
+        Assert.assertFalse(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.OPEN);
+
+        Thread.sleep(100);
+        Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(succeeded());
+        Assert.assertEquals(circuitBreaker.getState(), CieloCircuitBreaker.State.CLOSED);
+        Assert.assertEquals(circuitBreaker.getStatistics().get("timesOpened"), 2L);
+    }
+
+    private static CieloCircuitBreaker newCircuitBreaker(final int failureThreshold, final long openDurationMillis) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.circuitBreakerFailureThreshold", String.valueOf(failureThreshold));
+        properties.put("org.killbill.billing.plugin.cielo.circuitBreakerOpenDuration", String.valueOf(openDurationMillis));
+        return new CieloCircuitBreaker(new CieloConfigProperties(properties));
+    }
+
+    private static void complete(final CieloCircuitBreaker circuitBreaker, final CieloCallResult<?> result) {
+        Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(result);
+    }
+
+    private static CieloCallResult<String> succeeded() {
+        return new SuccessfulCieloCall<String>("OK", 10);
+    }
+
+    private static CieloCallResult<String> failedWith(final CieloCallErrorStatus status) {
+        return new UnSuccessfulCieloCall<String>(status, new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"));
+    }
+}
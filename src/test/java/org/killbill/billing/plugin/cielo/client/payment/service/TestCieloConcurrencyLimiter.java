@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloConcurrencyLimiter {
+
+    @Test(groups = "fast")
+    public void testDisabledByDefault() throws Exception {
+        final CieloConcurrencyLimiter limiter = new CieloConcurrencyLimiter(new CieloConfigProperties(new Properties()));
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(limiter.tryAcquireNow());
+        }
+        Assert.assertEquals(limiter.getStatistics().get("enabled"), false);
+    }
+
+    @Test(groups = "fast")
+    public void testRejectsAboveTheLimitAfterTheMaxWait() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(2, 50);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+
+        final long startTime = System.nanoTime();
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 50);
+        Assert.assertEquals(limiter.getStatistics().get("rejectedCalls"), 1L);
+
+        limiter.release(CieloOperation.QUERY, null);
+        Assert.assertTrue(limiter.tryAcquireNow());
+    }
+
+    @Test(groups = "fast")
+    public void testWaitsForASlotToBeReleased() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(1, 10000);
+        Assert.assertTrue(limiter.tryAcquire());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> waitingCall = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return limiter.tryAcquire();
+                }
+            });
+            Thread.sleep(100);
+            Assert.assertFalse(waitingCall.isDone());
+
+            limiter.release(CieloOperation.QUERY, succeededIn(10));
+            Assert.assertTrue(waitingCall.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testOnlySustainedLatencyLowersTheLimit() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(10, 0);
+        for (int i = 0; i < 20; i++) {
+            complete(limiter, succeededIn(10));
+        }
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 10);
+
+        // A single outlier is not congestion
+        complete(limiter, succeededIn(1000));
+        complete(limiter, succeededIn(10));
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 10);
+        Assert.assertEquals(limiter.getStatistics().get("congestionEvents"), 0L);
+
+        for (int i = 0; i < 4; i++) {
+            complete(limiter, succeededIn(1000));
+        }
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 10);
+        complete(limiter, succeededIn(1000));
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 9);
+        Assert.assertEquals(limiter.getStatistics().get("congestionEvents"), 1L);
+    }
+
+    @Test(groups = "fast")
+    public void testLatencyIsComparedWithinAnOperation() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(10, 0);
+        for (int i = 0; i < 20; i++) {
+            complete(limiter, CieloOperation.QUERY, succeededIn(10));
+        }
+        // Sales are slower than queries, not slow
+        for (int i = 0; i < 20; i++) {
+            complete(limiter, CieloOperation.SALE, succeededIn(1000));
+            complete(limiter, CieloOperation.QUERY, succeededIn(10));
+        }
+        Assert.assertEquals(limiter.getStatistics().get("congestionEvents"), 0L);
+
+        // Slow sales are
+        for (int i = 0; i < 5; i++) {
+            complete(limiter, CieloOperation.SALE, succeededIn(5000));
+            complete(limiter, CieloOperation.QUERY, succeededIn(10));
+        }
+        Assert.assertEquals(limiter.getStatistics().get("congestionEvents"), 1L);
+        Assert.assertEquals(((Map<?, ?>) limiter.getStatistics().get("averageLatencyMillis")).get("query"), 10L);
+    }
+
+    @Test(groups = "fast")
+    public void testConnectivityFailuresLowerTheLimit() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(10, 0);
+        complete(limiter, failedWith(CieloCallErrorStatus.RESPONSE_NOT_RECEIVED));
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 9);
+
+        // Calls which never reached Cielo tell nothing about it
+        complete(limiter, failedWith(CieloCallErrorStatus.REQUEST_REJECTED));
+        complete(limiter, failedWith(CieloCallErrorStatus.DEADLINE_EXCEEDED));
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 9);
+
+        for (int i = 0; i < 50; i++) {
+            complete(limiter, failedWith(CieloCallErrorStatus.REQUEST_NOT_SEND));
+        }
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testUsedLimitGrows() throws Exception {
+        final CieloConcurrencyLimiter limiter = newLimiter(2, 0);
+        Assert.assertTrue(limiter.tryAcquireNow());
+        Assert.assertTrue(limiter.tryAcquireNow());
+        limiter.release(CieloOperation.QUERY, succeededIn(10));
+        limiter.release(CieloOperation.QUERY, succeededIn(10));
+        Assert.assertEquals(limiter.getStatistics().get("limit"), 3);
+    }
+
+    private static CieloConcurrencyLimiter newLimiter(final int initialLimit, final long maxWaitMillis) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.concurrencyLimiterEnabled", "true");
+        properties.put("org.killbill.billing.plugin.cielo.concurrencyLimiterInitialLimit", String.valueOf(initialLimit));
+        properties.put("org.killbill.billing.plugin.cielo.concurrencyLimiterMinLimit", "2");
+        properties.put("org.killbill.billing.plugin.cielo.concurrencyLimiterMaxLimit", "100");
+        properties.put("org.killbill.billing.plugin.cielo.concurrencyLimiterMaxWait", String.valueOf(maxWaitMillis));
+        return new CieloConcurrencyLimiter(new CieloConfigProperties(properties));
+    }
+
+    private static void complete(final CieloConcurrencyLimiter limiter, final CieloCallResult<?> result) {
+        complete(limiter, CieloOperation.QUERY, result);
+    }
+
+    private static void complete(final CieloConcurrencyLimiter limiter, final CieloOperation operation, final CieloCallResult<?> result) {
+        Assert.assertTrue(limiter.tryAcquireNow());
+        limiter.release(operation, result);
+    }
+
+    private static CieloCallResult<String> succeededIn(final long durationMillis) {
+        return new SuccessfulCieloCall<String>("OK", durationMillis);
+    }
+
+    private static CieloCallResult<String> failedWith(final CieloCallErrorStatus status) {
+        final UnSuccessfulCieloCall<String> result = new UnSuccessfulCieloCall<String>(status, new SocketTimeoutException("Read timed out"));
+        result.setDuration(10);
+        return result;
+    }
+}
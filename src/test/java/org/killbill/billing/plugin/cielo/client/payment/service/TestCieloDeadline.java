@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloDeadline {
+
+    @Test(groups = "fast")
+    public void testNoDeadline() {
+        Assert.assertSame(CieloDeadline.after(0), CieloDeadline.NONE);
+        Assert.assertSame(CieloDeadline.after(-1), CieloDeadline.NONE);
+
+        Assert.assertFalse(CieloDeadline.NONE.isBounded());
+        Assert.assertFalse(CieloDeadline.NONE.isExpired());
+        Assert.assertEquals(CieloDeadline.NONE.remainingNanos(), Long.MAX_VALUE);
+        Assert.assertEquals(CieloDeadline.NONE.remainingMillis(), Long.MAX_VALUE);
+        // Configured timeouts are left alone, including "no timeout"
+        Assert.assertEquals(CieloDeadline.NONE.bound(2000), 2000);
+        Assert.assertEquals(CieloDeadline.NONE.bound(0), 0);
+        Assert.assertEquals(CieloDeadline.NONE.boundNanos(123), 123);
+    }
+
+    @Test(groups = "fast")
+    public void testTimeoutsAreShortenedToTheTimeLeft() {
+        final CieloDeadline deadline = CieloDeadline.after(TimeUnit.MINUTES.toMillis(1));
+
+        Assert.assertTrue(deadline.isBounded());
+        Assert.assertFalse(deadline.isExpired());
+        Assert.assertTrue(deadline.remainingMillis() <= TimeUnit.MINUTES.toMillis(1));
+        Assert.assertTrue(deadline.remainingMillis() > TimeUnit.SECONDS.toMillis(50));
+
+        // Shorter timeouts are kept
+        Assert.assertEquals(deadline.bound(2000), 2000);
+        Assert.assertEquals(deadline.boundNanos(123), 123);
+        // Longer ones, and no timeout at all, become the time left
+        Assert.assertTrue(deadline.bound(Integer.MAX_VALUE) <= TimeUnit.MINUTES.toMillis(1));
+        Assert.assertTrue(deadline.bound(0) > TimeUnit.SECONDS.toMillis(50));
+        Assert.assertTrue(deadline.boundNanos(Long.MAX_VALUE) <= TimeUnit.MINUTES.toNanos(1));
+    }
+
+    @Test(groups = "fast")
+    public void testExpiredDeadline() throws InterruptedException {
+        final CieloDeadline deadline = CieloDeadline.after(1);
+        Thread.sleep(10);
+
+        Assert.assertTrue(deadline.isExpired());
+        Assert.assertEquals(deadline.remainingNanos(), 0);
+        Assert.assertEquals(deadline.remainingMillis(), 0);
+        Assert.assertEquals(deadline.boundNanos(TimeUnit.SECONDS.toNanos(1)), 0);
+        // At least a millisecond: 0 would mean no timeout to most clients
+        Assert.assertEquals(deadline.bound(2000), 1);
+        Assert.assertEquals(deadline.bound(0), 1);
+    }
+}
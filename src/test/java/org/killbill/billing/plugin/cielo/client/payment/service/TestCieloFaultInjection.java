@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.emulator.CieloEmulator;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+import cieloecommerce.sdk.ecommerce.Sale;
+
+import static org.killbill.billing.plugin.cielo.client.payment.service.TestCieloRetryPolicy.newSale;
+import static org.killbill.billing.plugin.cielo.client.payment.service.TestCieloRetryPolicy.newSender;
+
+/**
+ * Each fault of CieloFaultInjectingGateway, injected on every call against the emulator, is classified the way the
+ * real failure would be, and the retries and the circuit breaker react to it accordingly.
+ */
+public class TestCieloFaultInjection {
+
+    private CieloEmulator emulator;
+    private CieloPaymentRequestSender sender;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        emulator = new CieloEmulator(new Properties());
+        emulator.start();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+            sender = null;
+        }
+        emulator.close();
+    }
+
+    @Test(groups = "slow")
+    public void testConnectRefusalIsRetriedAndOpensTheCircuit() throws Exception {
+        sender = newFaultySender("faultConnectRefusedRate", new Properties());
+
+        final CieloCallResult<Sale> result = sender.create(newSale("order-1"), CieloDeadline.after(10000));
+        assertFailure(result, CieloCallErrorStatus.REQUEST_NOT_SEND);
+        // Never sent, so retried although a sale is not idempotent
+        Assert.assertEquals(emulator.getRequests(), 0L);
+        Assert.assertEquals(statistic("retries", "retries"), 2L);
+        assertCircuitOpen();
+    }
+
+    @Test(groups = "slow")
+    public void testResetOfQueryIsRetriedAndOpensTheCircuit() throws Exception {
+        final String paymentId = createSale("order-2");
+        sender = newFaultySender("faultResetRate", new Properties());
+
+        final CieloCallResult<Sale> result = sender.get(paymentId, CieloDeadline.after(10000));
+        Assert.assertFalse(result.getResult().isPresent());
+        // Connection reset, or chunked body cut short
+        Assert.assertTrue(ImmutableSet.of(CieloCallErrorStatus.RESPONSE_NOT_RECEIVED, CieloCallErrorStatus.RESPONSE_INVALID).contains(result.getResponseStatus().get()), result.toString());
+        Assert.assertEquals(statistic("retries", "retries"), 2L);
+        assertCircuitOpen();
+    }
+
+    @Test(groups = "slow")
+    public void testMalformedQueryResponseIsRetriedAndOpensTheCircuit() throws Exception {
+        final String paymentId = createSale("order-3");
+        sender = newFaultySender("faultMalformedResponseRate", new Properties());
+
+        final CieloCallResult<Sale> result = sender.get(paymentId, CieloDeadline.after(10000));
+        assertFailure(result, CieloCallErrorStatus.RESPONSE_INVALID);
+        Assert.assertEquals(result.getExceptionClass().get(), "com.fasterxml.jackson.core.JsonParseException");
+        Assert.assertEquals(statistic("retries", "retries"), 2L);
+        assertCircuitOpen();
+    }
+
+    @Test(groups = "slow")
+    public void testMalformedSaleResponseIsNotSentAgain() throws Exception {
+        sender = newFaultySender("faultMalformedResponseRate", new Properties());
+
+        final CieloCallResult<Sale> result = sender.create(newSale("order-4"), CieloDeadline.after(10000));
+        assertFailure(result, CieloCallErrorStatus.RESPONSE_INVALID);
+        // The sale went through: the outcome lookup gets a malformed response too, so it is left ambiguous
+        Assert.assertEquals(statistic("retries", "retries"), 0L);
+        Assert.assertEquals(statistic("retries", "recoveredByLookup"), 0L);
+    }
+
+    @Test(groups = "slow")
+    public void testSlowFirstByteOfQueryTimesOut() throws Exception {
+        final String paymentId = createSale("order-5");
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.socketTimeout", "200");
+        properties.put("org.killbill.billing.plugin.cielo.faultSlowFirstByteMillis", "1000");
+        sender = newFaultySender("faultSlowFirstByteRate", properties);
+
+        final CieloCallResult<Sale> result = sender.get(paymentId, CieloDeadline.after(10000));
+        assertFailure(result, CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        Assert.assertEquals(result.getExceptionMessage().get(), "Read timed out");
+        Assert.assertEquals(statistic("retries", "retries"), 2L);
+        assertCircuitOpen();
+    }
+
+    private String createSale(final String merchantOrderId) throws Exception {
+        final CieloConfigProperties config = new CieloConfigProperties(newProperties());
+        final CieloPaymentRequestSender cleanSender = newSender(config, new CieloClientRegistry(config));
+        try {
+            return cleanSender.create(newSale(merchantOrderId), CieloDeadline.after(10000)).getResult().get().getPayment().getPaymentId();
+        } finally {
+            cleanSender.close();
+        }
+    }
+
+    /**
+     * @return sender whose every call fails with the given fault, three attempts per call opening the circuit
+     */
+    private CieloPaymentRequestSender newFaultySender(final String faultRate, final Properties overrides) {
+        final Properties properties = newProperties();
+        properties.put("org.killbill.billing.plugin.cielo.faultInjectionEnabled", "true");
+        properties.put("org.killbill.billing.plugin.cielo." + faultRate, "1.0");
+        properties.put("org.killbill.billing.plugin.cielo.retryMaxAttempts", "3");
+        properties.put("org.killbill.billing.plugin.cielo.retryInitialBackoff", "10");
+        properties.put("org.killbill.billing.plugin.cielo.circuitBreakerFailureThreshold", "3");
+        properties.putAll(overrides);
+        final CieloConfigProperties config = new CieloConfigProperties(properties);
+        return newSender(config, new CieloClientRegistry(config));
+    }
+
+    private Properties newProperties() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.merchantKey", "key");
+        properties.put("org.killbill.billing.plugin.cielo.apiUrl", emulator.getUrl());
+        properties.put("org.killbill.billing.plugin.cielo.apiQueryUrl", emulator.getUrl());
+        properties.put("org.killbill.billing.plugin.cielo.callExecutorThreads", "4");
+        return properties;
+    }
+
+    private void assertCircuitOpen() {
+        Assert.assertEquals(statistic("circuitBreaker", "state"), CieloCircuitBreaker.State.OPEN);
+        final CieloCallResult<Sale> rejected = sender.get("any", CieloDeadline.after(10000));
+        assertFailure(rejected, CieloCallErrorStatus.REQUEST_REJECTED);
+        Assert.assertEquals(rejected.getExceptionClass().get(), CieloCircuitOpenException.class.getCanonicalName());
+    }
+
+    private static void assertFailure(final CieloCallResult<Sale> result, final CieloCallErrorStatus expectedStatus) {
+        Assert.assertFalse(result.getResult().isPresent());
+        Assert.assertEquals(result.getResponseStatus().get(), expectedStatus, result.toString());
+    }
+
+    private Object statistic(final String component, final String name) {
+        return ((Map<?, ?>) sender.getStatistics().get(component)).get(name);
+    }
+}
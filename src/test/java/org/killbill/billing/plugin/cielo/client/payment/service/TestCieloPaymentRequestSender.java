@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.MalformedChunkCodingException;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.HttpHostConnectException;
+import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.CieloJsonCodec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.gson.JsonSyntaxException;
+
+import cieloecommerce.sdk.ecommerce.Sale;
+
+public class TestCieloPaymentRequestSender {
+
+    private static final HttpHost CIELO = new HttpHost("apisandbox.cieloecommerce.cielo.com.br", 443, "https");
+
+    @Test(groups = "fast")
+    public void testFailuresBeforeSendingAreNotSent() throws Exception {
+        // What HttpClient 4 throws when the endpoint does not answer the SYN
+        assertStatus(new ConnectTimeoutException(new SocketTimeoutException("connect timed out"), CIELO), CieloCallErrorStatus.REQUEST_NOT_SEND);
+        assertStatus(new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"), CieloCallErrorStatus.REQUEST_NOT_SEND);
+        assertStatus(new HttpHostConnectException(new ConnectException("Connection refused (Connection refused)"), CIELO), CieloCallErrorStatus.REQUEST_NOT_SEND);
+        assertStatus(new UnknownHostException("apisandbox.cieloecommerce.cielo.com.br"), CieloCallErrorStatus.REQUEST_NOT_SEND);
+        assertStatus(new SocketTimeoutException("connect timed out"), CieloCallErrorStatus.REQUEST_NOT_SEND);
+    }
+
+    @Test(groups = "fast")
+    public void testFailuresAfterSendingAreAmbiguous() throws Exception {
+        assertStatus(new SocketTimeoutException("Read timed out"), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        assertStatus(new NoHttpResponseException("apisandbox.cieloecommerce.cielo.com.br:443 failed to respond"), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        assertStatus(new SocketException("Connection reset"), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        assertStatus(new MalformedChunkCodingException("Bogus chunk size"), CieloCallErrorStatus.RESPONSE_INVALID);
+        assertStatus(new IOException("Invalid Http response 502"), CieloCallErrorStatus.RESPONSE_INVALID);
+    }
+
+    @Test(groups = "fast")
+    public void testMalformedJsonIsInvalid() throws Exception {
+        try {
+            new CieloJsonCodec().readSale(new ByteArrayInputStream("{\"Payment\":{\"PaymentId\":\"".getBytes(StandardCharsets.UTF_8)));
+            Assert.fail("Truncated JSON was parsed");
+        } catch (final IOException e) {
+            assertStatus(e, CieloCallErrorStatus.RESPONSE_INVALID);
+        }
+        assertStatus(new JsonSyntaxException("Expected BEGIN_OBJECT but was STRING"), CieloCallErrorStatus.RESPONSE_INVALID);
+    }
+
+    @Test(groups = "fast")
+    public void testWrappersAreLookedThrough() throws Exception {
+        assertStatus(new ExecutionException(new ConnectTimeoutException(new SocketTimeoutException("connect timed out"), CIELO)), CieloCallErrorStatus.REQUEST_NOT_SEND);
+        assertStatus(new IOException(new NoHttpResponseException("failed to respond")), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        assertStatus(new RejectedExecutionException("Too many Cielo calls in flight"), CieloCallErrorStatus.REQUEST_REJECTED);
+    }
+
+    @Test(groups = "fast")
+    public void testExceptionsWithoutMessage() throws Exception {
+        assertStatus(new SocketTimeoutException(), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        assertStatus(new SocketException(), CieloCallErrorStatus.RESPONSE_NOT_RECEIVED);
+        Assert.assertNull(CieloPaymentRequestSender.errorStatus(new IOException()));
+        Assert.assertNull(CieloPaymentRequestSender.errorStatus(new NullPointerException()));
+    }
+
+    @Test(groups = "fast")
+    public void testOpenCircuitRejectsWithoutTakingARatePermit() throws Exception {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.merchantKey", "key");
+        properties.put("org.killbill.billing.plugin.cielo.circuitBreakerFailureThreshold", "1");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitSalesPerSecond", "1");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitBurst", "1");
+        final CieloConfigProperties config = new CieloConfigProperties(properties);
+        final CieloCircuitBreaker circuitBreaker = new CieloCircuitBreaker(config);
+        Assert.assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.onResult(new UnSuccessfulCieloCall<Sale>(CieloCallErrorStatus.REQUEST_NOT_SEND, new ConnectException("Connection refused")));
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config, null);
+
+        final CieloPaymentRequestSender sender = new CieloPaymentRequestSender(new CieloClientRegistry(config),
+                                                                               new CieloCallExecutor(config),
+                                                                               circuitBreaker,
+                                                                               new CieloConcurrencyLimiter(config),
+                                                                               rateLimiter,
+                                                                               new CieloAdaptiveTimeouts(config),
+                                                                               new CieloQueryHedger(config),
+                                                                               new CieloRetryPolicy(config));
+        try {
+            final CieloCallResult<Sale> result = sender.create(new Sale("order-1"), CieloDeadline.after(10000));
+            Assert.assertEquals(result.getResponseStatus().get(), CieloCallErrorStatus.REQUEST_REJECTED);
+            Assert.assertEquals(result.getExceptionClass().get(), CieloCircuitOpenException.class.getCanonicalName());
+            final CieloCallResult<Sale> asyncResult = sender.createAsync(new Sale("order-2")).get();
+            Assert.assertEquals(asyncResult.getExceptionClass().get(), CieloCircuitOpenException.class.getCanonicalName());
+
+            // The only permit of the burst is still there
+            Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        } finally {
+            sender.close();
+        }
+    }
+
+    private static void assertStatus(final Throwable failure, final CieloCallErrorStatus expectedStatus) {
+        CieloCallErrorStatus status = null;
+        for (Throwable cause = failure; cause != null && status == null; cause = cause.getCause()) {
+            status = CieloPaymentRequestSender.errorStatus(cause);
+        }
+        Assert.assertEquals(status, expectedStatus, failure.toString());
+    }
+}
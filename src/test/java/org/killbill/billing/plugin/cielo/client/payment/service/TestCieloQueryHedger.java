@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.Properties;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloQueryHedger {
+
+    @Test(groups = "fast")
+    public void testDelayFollowsTheFirstAttempts() throws Exception {
+        final CieloQueryHedger hedger = newHedger();
+        for (int i = 1; i < 20; i++) {
+            hedger.onQuery();
+            hedger.recordPrimaryAttempt(i * 10);
+        }
+        // Not enough samples yet
+        Assert.assertEquals(hedger.getHedgeDelayMillis(), -1L);
+
+        hedger.onQuery();
+        hedger.recordPrimaryAttempt(200);
+        Assert.assertEquals(hedger.getHedgeDelayMillis(), 190L);
+
+        // Queries answered early by their hedge don't pull the delay down: only first attempts are recorded
+        for (int i = 0; i < 100; i++) {
+            hedger.onQuery();
+        }
+        Assert.assertEquals(hedger.getHedgeDelayMillis(), 190L);
+    }
+
+    @Test(groups = "fast")
+    public void testBudget() throws Exception {
+        final CieloQueryHedger hedger = newHedger();
+        for (int i = 0; i < 20; i++) {
+            hedger.onQuery();
+        }
+        Assert.assertTrue(hedger.tryAcquireHedge());
+        Assert.assertTrue(hedger.tryAcquireHedge());
+        Assert.assertFalse(hedger.tryAcquireHedge());
+        Assert.assertEquals(hedger.getStatistics().get("hedgesOverBudget"), 1L);
+    }
+
+    private static CieloQueryHedger newHedger() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.queryHedgingEnabled", "true");
+        return new CieloQueryHedger(new CieloConfigProperties(properties));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloRateLimiter {
+
+    @Test(groups = "fast")
+    public void testUnlimitedWithoutRate() throws Exception {
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(new CieloConfigProperties(new Properties()), null);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testBurstThenRejectsWithoutWaiting() throws Exception {
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(10, 5, 0, false), null);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        }
+        Assert.assertFalse(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertEquals(operationStatistics(rateLimiter, CieloOperation.SALE).get("rejectedCalls"), 1L);
+
+        // Each operation has its own quota
+        Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.QUERY));
+    }
+
+    @Test(groups = "fast")
+    public void testCallsOverTheRateWaitForTheirTurn() throws Exception {
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(20, 1, 1000, false), null);
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(rateLimiter.tryAcquire(CieloOperation.SALE, CieloDeadline.NONE));
+        }
+        // One permit every 50ms, the first one right away
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) >= 190);
+        Assert.assertEquals(operationStatistics(rateLimiter, CieloOperation.SALE).get("throttledCalls"), 4L);
+    }
+
+    @Test(groups = "fast")
+    public void testRejectsWhenTheWaitExceedsTheMaxWaitOrTheDeadline() throws Exception {
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(1, 1, 5000, false), null);
+        Assert.assertTrue(rateLimiter.tryAcquire(CieloOperation.SALE, CieloDeadline.NONE));
+
+        final long startTime = System.nanoTime();
+        Assert.assertFalse(rateLimiter.tryAcquire(CieloOperation.SALE, CieloDeadline.after(100)));
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 500);
+    }
+
+    @Test(groups = "fast")
+    public void testNoLeaseIsTakenForACallerRejectedAnyway() throws Exception {
+        final InMemoryQuotaLeaser quotaLeaser = new InMemoryQuotaLeaser(0);
+        // One permit per lease
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(10, 1, 0, true), quotaLeaser);
+        Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertEquals(quotaLeaser.getLeases(), 1);
+
+        Assert.assertFalse(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertEquals(quotaLeaser.getLeases(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testDatabaseClockIsUsed() throws Exception {
+        // The database being an hour ahead of this node must not delay permits, nor hand out more of them
+        final InMemoryQuotaLeaser quotaLeaser = new InMemoryQuotaLeaser(TimeUnit.HOURS.toMicros(1));
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(10, 1, 0, true), quotaLeaser);
+        Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertFalse(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+
+        Thread.sleep(150);
+        Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertEquals(quotaLeaser.getLeases(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testLocalRateWhenTheDatabaseIsDown() throws Exception {
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(10, 1, 0, true), new CieloQuotaLeaser() {
+            @Override
+            public long leasePermits(final String merchantKey, final CieloOperation operation, final int permits, final long permitIntervalMicros, final long burstMicros, final int timeoutSeconds) throws SQLException {
+                throw new SQLException("Database down");
+            }
+        });
+        Assert.assertTrue(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertFalse(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+        Assert.assertEquals(operationStatistics(rateLimiter, CieloOperation.SALE).get("leaseFailures"), 1L);
+    }
+
+    @Test(groups = "fast")
+    public void testLeaseIsTakenWithoutHoldingTheBucketLock() throws Exception {
+        final CountDownLatch leaseStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLease = new CountDownLatch(1);
+        final CieloRateLimiter rateLimiter = new CieloRateLimiter(config(10, 1, 5000, true), new CieloQuotaLeaser() {
+            @Override
+            public long leasePermits(final String merchantKey, final CieloOperation operation, final int permits, final long permitIntervalMicros, final long burstMicros, final int timeoutSeconds) throws SQLException {
+                leaseStarted.countDown();
+                try {
+                    releaseLease.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> leasingCall = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return rateLimiter.tryAcquire(CieloOperation.SALE, CieloDeadline.NONE);
+                }
+            });
+            Assert.assertTrue(leaseStarted.await(5, TimeUnit.SECONDS));
+
+            // Neither blocked by the database round trip
+            final long startTime = System.nanoTime();
+            Assert.assertFalse(rateLimiter.tryAcquireNow(CieloOperation.SALE));
+            Assert.assertNotNull(rateLimiter.getStatistics());
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 1000);
+
+            releaseLease.countDown();
+            Assert.assertTrue(leasingCall.get(5, TimeUnit.SECONDS));
+        } finally {
+            releaseLease.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static CieloConfigProperties config(final double salesPerSecond, final int burst, final long maxWaitMillis, final boolean shared) {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitSalesPerSecond", String.valueOf(salesPerSecond));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitQueriesPerSecond", String.valueOf(salesPerSecond));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitBurst", String.valueOf(burst));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitMaxWait", String.valueOf(maxWaitMillis));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitShared", String.valueOf(shared));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitLeaseDuration", "100");
+        return new CieloConfigProperties(properties);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> operationStatistics(final CieloRateLimiter rateLimiter, final CieloOperation operation) {
+        return (Map<String, Object>) rateLimiter.getStatistics().get(operation.toString().toLowerCase());
+    }
+
+    /**
+     * Same bookkeeping as the database quota, with a clock of its own.
+     */
+    private static final class InMemoryQuotaLeaser implements CieloQuotaLeaser {
+
+        private final long clockOffsetMicros;
+
+        private long nextPermitMicros = Long.MIN_VALUE;
+        private int leases;
+
+        private InMemoryQuotaLeaser(final long clockOffsetMicros) {
+            this.clockOffsetMicros = clockOffsetMicros;
+        }
+
+        @Override
+        public synchronized long leasePermits(final String merchantKey, final CieloOperation operation, final int permits, final long permitIntervalMicros, final long burstMicros, final int timeoutSeconds) {
+            final long nowMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime()) + clockOffsetMicros;
+            final long firstPermitMicros = Math.max(nextPermitMicros, nowMicros - burstMicros);
+            nextPermitMicros = firstPermitMicros + permits * permitIntervalMicros;
+            leases++;
+            return firstPermitMicros - nowMicros;
+        }
+
+        private synchronized int getLeases() {
+            return leases;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.plugin.cielo.client.CieloClientRegistry;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.CieloGateway;
+import org.killbill.billing.plugin.cielo.emulator.CieloEmulator;
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import cieloecommerce.sdk.ecommerce.CreditCard;
+import cieloecommerce.sdk.ecommerce.Payment;
+import cieloecommerce.sdk.ecommerce.Sale;
+
+/**
+ * Calls which failed before anything was sent are retried, against the emulator.
+ */
+public class TestCieloRetryPolicy {
+
+    private CieloEmulator emulator;
+    private final List<Socket> backlog = new ArrayList<Socket>();
+    private ServerSocket blackhole;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        final Properties emulatorProperties = new Properties();
+        emulatorProperties.put("org.killbill.billing.plugin.cielo.emulator.latencyMillis", "300");
+        emulator = new CieloEmulator(emulatorProperties);
+        emulator.start();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception {
+        for (final Socket socket : backlog) {
+            socket.close();
+        }
+        backlog.clear();
+        if (blackhole != null) {
+            blackhole.close();
+            blackhole = null;
+        }
+        emulator.close();
+    }
+
+    @Test(groups = "slow")
+    public void testConnectTimeoutIsRetried() throws Exception {
+        final Properties blackholeProperties = newProperties();
+        blackholeProperties.put("org.killbill.billing.plugin.cielo.apiUrl", "http://127.0.0.1:" + openBlackhole() + "/");
+        blackholeProperties.put("org.killbill.billing.plugin.cielo.connectTimeout", "200");
+        final CieloClientRegistry blackholeRegistry = new CieloClientRegistry(new CieloConfigProperties(blackholeProperties));
+
+        // First attempt sent to an endpoint which never completes the TCP handshake, the next ones to the emulator
+        final AtomicInteger attempts = new AtomicInteger();
+        final CieloConfigProperties config = new CieloConfigProperties(newProperties());
+        final CieloClientRegistry registry = new CieloClientRegistry(config) {
+            @Override
+            public CieloGateway getGateway() {
+                return attempts.getAndIncrement() == 0 ? blackholeRegistry.getGateway() : super.getGateway();
+            }
+        };
+        final CieloPaymentRequestSender sender = newSender(config, registry);
+        try {
+            final CieloCallResult<Sale> result = sender.create(newSale("order-1"), CieloDeadline.after(10000));
+            Assert.assertTrue(result.getResult().isPresent(), result.toString());
+            Assert.assertEquals(attempts.get(), 2);
+            Assert.assertEquals(emulator.getRequests(), 1);
+            Assert.assertEquals(retries(sender), 1L);
+        } finally {
+            sender.close();
+            blackholeRegistry.close();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testPoolLeaseTimeoutIsRetried() throws Exception {
+        final Properties properties = newProperties();
+        properties.put("org.killbill.billing.plugin.cielo.maxConnections", "1");
+        properties.put("org.killbill.billing.plugin.cielo.connectionRequestTimeout", "100");
+        properties.put("org.killbill.billing.plugin.cielo.retryInitialBackoff", "250");
+        final CieloConfigProperties config = new CieloConfigProperties(properties);
+        final CieloPaymentRequestSender sender = newSender(config, new CieloClientRegistry(config));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Sale sale = sender.create(newSale("order-2"), CieloDeadline.after(10000)).getResult().get();
+            final String paymentId = sale.getPayment().getPaymentId();
+
+            // The query holds the only connection for 300 ms: the capture cannot lease it in time, and is retried
+            final Future<CieloCallResult<Sale>> query = executor.submit(new Callable<CieloCallResult<Sale>>() {
+                @Override
+                public CieloCallResult<Sale> call() {
+                    return sender.get(paymentId, CieloDeadline.after(10000));
+                }
+            });
+            Thread.sleep(50);
+            final CieloCallResult<Sale> capture = sender.capture(paymentId, null, CieloDeadline.after(10000));
+
+            Assert.assertTrue(query.get(10, TimeUnit.SECONDS).getResult().isPresent());
+            Assert.assertTrue(capture.getResult().isPresent(), capture.toString());
+            Assert.assertEquals(String.valueOf(capture.getResult().get().getPayment().getStatus()), "2");
+            Assert.assertEquals(retries(sender), 1L);
+        } finally {
+            executor.shutdownNow();
+            sender.close();
+        }
+    }
+
+    /**
+     * @return port of a listening socket whose accept queue is full: connections to it time out
+     */
+    private int openBlackhole() throws IOException {
+        blackhole = new ServerSocket(0, 1);
+        final InetSocketAddress address = new InetSocketAddress("127.0.0.1", blackhole.getLocalPort());
+        for (int i = 0; i < 8; i++) {
+            final Socket socket = new Socket();
+            try {
+                socket.connect(address, 100);
+                backlog.add(socket);
+            } catch (final SocketTimeoutException e) {
+                socket.close();
+                return blackhole.getLocalPort();
+            }
+        }
+        throw new SkipException("Connections to a full accept queue do not time out on this platform");
+    }
+
+    private Properties newProperties() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.merchantKey", "key");
+        properties.put("org.killbill.billing.plugin.cielo.apiUrl", emulator.getUrl());
+        properties.put("org.killbill.billing.plugin.cielo.apiQueryUrl", emulator.getUrl());
+        properties.put("org.killbill.billing.plugin.cielo.callExecutorThreads", "4");
+        return properties;
+    }
+
+    private static Object retries(final CieloPaymentRequestSender sender) {
+        return ((Map<?, ?>) sender.getStatistics().get("retries")).get("retries");
+    }
+
+    static CieloPaymentRequestSender newSender(final CieloConfigProperties config, final CieloClientRegistry registry) {
+        return new CieloPaymentRequestSender(registry,
+                                             new CieloCallExecutor(config),
+                                             new CieloCircuitBreaker(config),
+                                             new CieloConcurrencyLimiter(config),
+                                             new CieloRateLimiter(config, null),
+                                             new CieloAdaptiveTimeouts(config),
+                                             new CieloQueryHedger(config),
+                                             new CieloRetryPolicy(config));
+    }
+
+    static Sale newSale(final String merchantOrderId) {
+        final CreditCard card = new CreditCard("123", "Visa");
+        card.setCardNumber("4024007197692931");
+        card.setHolder("Comprador Teste");
+        card.setExpirationDate("12/2030");
+
+        final Payment payment = new Payment(1500);
+        payment.setCreditCard(card);
+
+        final Sale sale = new Sale(merchantOrderId);
+        sale.setPayment(payment);
+        return sale;
+    }
+}
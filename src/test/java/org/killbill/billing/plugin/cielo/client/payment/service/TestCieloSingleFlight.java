@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.client.payment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Supplier;
+
+public class TestCieloSingleFlight {
+
+    private static final int CALLERS = 8;
+
+    private ExecutorService executor;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterMethod(groups = "fast")
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        final CieloSingleFlight<String, String> singleFlight = new CieloSingleFlight<String, String>();
+        final CountDownLatch callStarted = new CountDownLatch(1);
+        final CountDownLatch releaseCall = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<String> call = new Supplier<String>() {
+            @Override
+            public String get() {
+                calls.incrementAndGet();
+                callStarted.countDown();
+                awaitQuietly(releaseCall);
+                return "sale";
+            }
+        };
+
+        final List<Future<String>> results = new ArrayList<Future<String>>();
+        results.add(submit(singleFlight, "payment", call));
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < CALLERS; i++) {
+            results.add(submit(singleFlight, "payment", call));
+        }
+        waitForCoalescedCalls(singleFlight, CALLERS - 1);
+        releaseCall.countDown();
+
+        for (final Future<String> result : results) {
+            Assert.assertEquals(result.get(5, TimeUnit.SECONDS), "sale");
+        }
+        Assert.assertEquals(calls.get(), 1);
+        Assert.assertEquals(singleFlight.getStatistics().get("calls"), 1L);
+        Assert.assertEquals(singleFlight.getStatistics().get("coalescedCalls"), (long) CALLERS - 1);
+        Assert.assertEquals(singleFlight.getStatistics().get("inFlight"), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testNothingIsCachedOnceTheCallCompletes() throws Exception {
+        final CieloSingleFlight<String, Integer> singleFlight = new CieloSingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<Integer> call = new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return calls.incrementAndGet();
+            }
+        };
+
+        Assert.assertEquals(singleFlight.execute("payment", CieloDeadline.NONE, call), (Integer) 1);
+        Assert.assertEquals(singleFlight.execute("payment", CieloDeadline.NONE, call), (Integer) 2);
+        Assert.assertEquals(singleFlight.execute("other-payment", CieloDeadline.NONE, call), (Integer) 3);
+        Assert.assertEquals(singleFlight.getStatistics().get("coalescedCalls"), 0L);
+    }
+
+    @Test(groups = "fast")
+    public void testFailureIsSharedWithTheWaitingCallers() throws Exception {
+        final CieloSingleFlight<String, String> singleFlight = new CieloSingleFlight<String, String>();
+        final CountDownLatch callStarted = new CountDownLatch(1);
+        final CountDownLatch releaseCall = new CountDownLatch(1);
+        final Supplier<String> call = new Supplier<String>() {
+            @Override
+            public String get() {
+                callStarted.countDown();
+                awaitQuietly(releaseCall);
+                throw new IllegalStateException("Cielo down");
+            }
+        };
+
+        final Future<String> first = submit(singleFlight, "payment", call);
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> second = submit(singleFlight, "payment", call);
+        waitForCoalescedCalls(singleFlight, 1);
+        releaseCall.countDown();
+
+        assertFailsWith(first, IllegalStateException.class);
+        assertFailsWith(second, IllegalStateException.class);
+
+        // The failed call is not kept around either
+        Assert.assertEquals(singleFlight.execute("payment", CieloDeadline.NONE, new Supplier<String>() {
+            @Override
+            public String get() {
+                return "sale";
+            }
+        }), "sale");
+    }
+
+    @Test(groups = "fast")
+    public void testWaitingCallersGiveUpAtTheirDeadline() throws Exception {
+        final CieloSingleFlight<String, String> singleFlight = new CieloSingleFlight<String, String>();
+        final CountDownLatch callStarted = new CountDownLatch(1);
+        final CountDownLatch releaseCall = new CountDownLatch(1);
+        final Supplier<String> call = new Supplier<String>() {
+            @Override
+            public String get() {
+                callStarted.countDown();
+                awaitQuietly(releaseCall);
+                return "sale";
+            }
+        };
+
+        final Future<String> first = submit(singleFlight, "payment", call);
+        Assert.assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+        final Future<String> second = submit(singleFlight, "payment", CieloDeadline.after(50), call);
+
+        // The waiting caller returns while the call is still in flight
+        assertFailsWith(second, CieloDeadlineExceededException.class);
+        Assert.assertFalse(first.isDone());
+
+        releaseCall.countDown();
+        Assert.assertEquals(first.get(5, TimeUnit.SECONDS), "sale");
+    }
+
+    private Future<String> submit(final CieloSingleFlight<String, String> singleFlight, final String key, final Supplier<String> call) {
+        return submit(singleFlight, key, CieloDeadline.NONE, call);
+    }
+
+    private Future<String> submit(final CieloSingleFlight<String, String> singleFlight, final String key, final CieloDeadline deadline, final Supplier<String> call) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return singleFlight.execute(key, deadline, call);
+            }
+        });
+    }
+
+    private static void waitForCoalescedCalls(final CieloSingleFlight<?, ?> singleFlight, final long expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Long.valueOf(expected).equals(singleFlight.getStatistics().get("coalescedCalls"))) {
+            Assert.assertTrue(System.nanoTime() < deadline, "Callers did not join the call in flight");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertFailsWith(final Future<?> result, final Class<? extends Throwable> expected) throws Exception {
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected " + expected.getSimpleName());
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(expected.isInstance(e.getCause()), String.valueOf(e.getCause()));
+        }
+    }
+
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
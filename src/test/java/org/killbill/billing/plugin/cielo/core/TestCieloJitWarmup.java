@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.core;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.killbill.billing.payment.api.TransactionType;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.model.PaymentServiceProviderResult;
+import org.killbill.clock.DefaultClock;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloJitWarmup {
+
+    @Test(groups = "fast")
+    public void testStatusesAreLookedUpByValue() {
+        Assert.assertEquals(PaymentServiceProviderResult.getPaymentResultForId("1", TransactionType.PURCHASE), PaymentServiceProviderResult.PENDING);
+        Assert.assertEquals(PaymentServiceProviderResult.getPaymentResultForId("2", null), PaymentServiceProviderResult.AUTHORISED);
+        Assert.assertEquals(PaymentServiceProviderResult.getPaymentResultForId("3", TransactionType.AUTHORIZE), PaymentServiceProviderResult.REFUSED);
+        Assert.assertEquals(PaymentServiceProviderResult.getPaymentResultForId("ERROR", TransactionType.AUTHORIZE), PaymentServiceProviderResult.ERROR);
+    }
+
+    @Test(groups = "fast")
+    public void testEveryIterationGoesThroughTheClient() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.jitWarmupIterations", "10");
+        properties.put("org.killbill.billing.plugin.cielo.jitWarmupTimeBudget", "60000");
+
+        final Map<String, Object> result = new CieloJitWarmup(new DefaultClock(), new CieloConfigProperties(properties)).run();
+
+        Assert.assertEquals(result.get("iterations"), 10);
+        Assert.assertEquals(result.get("failedIterations"), 0);
+    }
+}
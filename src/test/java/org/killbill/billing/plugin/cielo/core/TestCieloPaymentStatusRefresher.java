@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.core;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.payment.api.TransactionType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestCieloPaymentStatusRefresher {
+
+    @Test(groups = "fast")
+    public void testFinalStatusesAreNeverQueried() {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(0, 1);
+        try {
+            final CountingQuery query = new CountingQuery();
+            for (final String finalStatus : new String[]{"2", "3", "10", "11", "13"}) {
+                Assert.assertFalse(refresher.shouldQueryNow(UUID.randomUUID(), finalStatus, TransactionType.PURCHASE, query));
+            }
+            Assert.assertEquals(refresher.getStatistics().get("finalStatusSkips"), 5L);
+            Assert.assertEquals(query.runs.get(), 0);
+        } finally {
+            refresher.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testAuthorizedIsFinalForASale() {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(0, 1);
+        try {
+            final CountingQuery query = new CountingQuery();
+            // Nothing more happens until Kill Bill captures it
+            Assert.assertFalse(refresher.shouldQueryNow(UUID.randomUUID(), "1", TransactionType.AUTHORIZE, query));
+            // Sent without Capture=true
+            Assert.assertFalse(refresher.shouldQueryNow(UUID.randomUUID(), "1", TransactionType.PURCHASE, query));
+            Assert.assertEquals(refresher.getStatistics().get("finalStatusSkips"), 2L);
+            // The capture did not go through yet
+            Assert.assertTrue(refresher.shouldQueryNow(UUID.randomUUID(), "1", TransactionType.CAPTURE, query));
+        } finally {
+            refresher.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testWithoutTtlTheCallerQueriesEachTime() {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(0, 1);
+        try {
+            final UUID kbPaymentId = UUID.randomUUID();
+            final CountingQuery query = new CountingQuery();
+            Assert.assertTrue(refresher.shouldQueryNow(kbPaymentId, "1", TransactionType.CAPTURE, query));
+            Assert.assertTrue(refresher.shouldQueryNow(kbPaymentId, "12", TransactionType.PURCHASE, query));
+            // Unknown status (no answer from Cielo yet)
+            Assert.assertTrue(refresher.shouldQueryNow(kbPaymentId, null, TransactionType.PURCHASE, query));
+            Assert.assertEquals(refresher.getStatistics().get("synchronousQueries"), 3L);
+            Assert.assertEquals(query.runs.get(), 0);
+        } finally {
+            refresher.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPendingPaymentsAreQueriedInTheBackground() throws Exception {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(TimeUnit.MINUTES.toMillis(1), 1);
+        try {
+            final UUID kbPaymentId = UUID.randomUUID();
+            final CountingQuery query = new CountingQuery();
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "1", TransactionType.CAPTURE, query));
+            Assert.assertTrue(query.completed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(query.runs.get(), 1);
+            Assert.assertEquals(refresher.getStatistics().get("backgroundQueries"), 1L);
+
+            // Queried recently: the stored status is good enough until the TTL expires
+            waitForQueriesInFlight(refresher, 0);
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "1", TransactionType.CAPTURE, query));
+            Assert.assertEquals(refresher.getStatistics().get("recentQuerySkips"), 1L);
+
+            // Other payments are not affected
+            final CountingQuery otherQuery = new CountingQuery();
+            Assert.assertFalse(refresher.shouldQueryNow(UUID.randomUUID(), "1", TransactionType.CAPTURE, otherQuery));
+            Assert.assertTrue(otherQuery.completed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(query.runs.get(), 1);
+        } finally {
+            refresher.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testOneBackgroundQueryPerPaymentAtATime() throws Exception {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(TimeUnit.MINUTES.toMillis(1), 2);
+        try {
+            final UUID kbPaymentId = UUID.randomUUID();
+            final CountDownLatch releaseQuery = new CountDownLatch(1);
+            final CountingQuery slowQuery = new CountingQuery(releaseQuery);
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "12", TransactionType.PURCHASE, slowQuery));
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "12", TransactionType.PURCHASE, slowQuery));
+            Assert.assertEquals(refresher.getStatistics().get("queriesInFlight"), 1);
+            releaseQuery.countDown();
+
+            Assert.assertTrue(slowQuery.completed.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(slowQuery.runs.get(), 1);
+            Assert.assertEquals(refresher.getStatistics().get("backgroundQueries"), 1L);
+            Assert.assertEquals(refresher.getStatistics().get("recentQuerySkips"), 1L);
+        } finally {
+            refresher.close();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testFailedQueriesWaitForTheTtlToo() throws Exception {
+        final CieloPaymentStatusRefresher refresher = new CieloPaymentStatusRefresher(TimeUnit.MINUTES.toMillis(1), 1);
+        try {
+            final UUID kbPaymentId = UUID.randomUUID();
+            final CountDownLatch failed = new CountDownLatch(1);
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "1", TransactionType.CAPTURE, new Runnable() {
+                @Override
+                public void run() {
+                    failed.countDown();
+                    throw new IllegalStateException("Cielo down");
+                }
+            }));
+            Assert.assertTrue(failed.await(5, TimeUnit.SECONDS));
+            waitForQueriesInFlight(refresher, 0);
+
+            final CountingQuery query = new CountingQuery();
+            Assert.assertFalse(refresher.shouldQueryNow(kbPaymentId, "1", TransactionType.CAPTURE, query));
+            Assert.assertEquals(query.runs.get(), 0);
+        } finally {
+            refresher.close();
+        }
+    }
+
+    private static void waitForQueriesInFlight(final CieloPaymentStatusRefresher refresher, final int expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(expected).equals(refresher.getStatistics().get("queriesInFlight"))) {
+            Assert.assertTrue(System.nanoTime() < deadline, "Background queries did not complete");
+            Thread.sleep(10);
+        }
+    }
+
+    private static final class CountingQuery implements Runnable {
+
+        private final AtomicInteger runs = new AtomicInteger();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private final CountDownLatch release;
+
+        private CountingQuery() {
+            this(new CountDownLatch(0));
+        }
+
+        private CountingQuery(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            runs.incrementAndGet();
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.killbill.billing.plugin.cielo.dao.gen.tables.records.CieloResponsesRecord;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Pending payments polled by several in-process nodes through an embedded database.
+ */
+public class TestCieloDaoPollClaims {
+
+    private static final List<String> PENDING_STATUSES = ImmutableList.of("0", "12");
+    private static final int NODES = 8;
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    private CieloDao dao;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:cielo_poll_claims_" + System.nanoTime() + ";MODE=MySQL");
+        dataSource.setUser("sa");
+        // The in-memory database lives as long as a connection is open
+        keepAlive = dataSource.getConnection();
+        final Statement statement = keepAlive.createStatement();
+        try {
+            statement.execute("create table cielo_responses (" +
+                              "  record_id int not null auto_increment" +
+                              ", kb_account_id char(36) not null" +
+                              ", kb_payment_id char(36) not null" +
+                              ", kb_payment_transaction_id char(36) not null" +
+                              ", transaction_type varchar(32) not null" +
+                              ", amount numeric(15,9)" +
+                              ", currency char(3)" +
+                              ", cielo_payment_id varchar(50)" +
+                              ", cielo_status varchar(50)" +
+                              ", cielo_result varchar(50)" +
+                              ", cielo_merchant_reference varchar(64)" +
+                              ", cielo_authorization_code varchar(255)" +
+                              ", cielo_error_code varchar(64)" +
+                              ", cielo_error_message varchar(255)" +
+                              ", payment_internal_ref varchar(64)" +
+                              ", fraud_avs_result char(1)" +
+                              ", fraud_cvv_result char(1)" +
+                              ", fraud_service varchar(255)" +
+                              ", additional_data longtext default null" +
+                              ", created_date datetime not null" +
+                              ", kb_tenant_id char(36) not null" +
+                              ", primary key(record_id)" +
+                              ")");
+            statement.execute("create table cielo_poll_claims (" +
+                              "  record_id int not null auto_increment" +
+                              ", kb_payment_id char(36) not null" +
+                              ", polls int not null" +
+                              ", next_poll_time bigint not null" +
+                              ", updated_date datetime not null" +
+                              ", primary key(record_id)" +
+                              ")");
+            statement.execute("create unique index cielo_poll_claims_kb_payment_id on cielo_poll_claims(kb_payment_id)");
+        } finally {
+            statement.close();
+        }
+        dao = new CieloDao(dataSource);
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception {
+        keepAlive.close();
+    }
+
+    @Test(groups = "slow")
+    public void testOnlyPendingResponsesArePolled() throws Exception {
+        final UUID notFinished = addResponse("AUTHORIZE", "0", "cielo-1");
+        final UUID pending = addResponse("CAPTURE", "12", "cielo-2");
+        // Final statuses, or not sent to Cielo
+        addResponse("PURCHASE", "1", "cielo-3");
+        addResponse("AUTHORIZE", "1", "cielo-4");
+        addResponse("PURCHASE", "2", "cielo-5");
+        addResponse("AUTHORIZE", "0", null);
+        // Pending once, captured since
+        final UUID captured = addResponse("AUTHORIZE", "0", "cielo-6");
+        addResponse(captured, "CAPTURE", "2", "cielo-6");
+
+        Assert.assertEquals(polledPayments(), ImmutableList.of(notFinished, pending));
+
+        // Claimed payments no longer show up until their next poll is due
+        Assert.assertTrue(dao.claimPoll(pending, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1)));
+        Assert.assertEquals(polledPayments(), ImmutableList.of(notFinished));
+    }
+
+    @Test(groups = "slow")
+    public void testClaimsBackOff() throws Exception {
+        final UUID kbPaymentId = UUID.randomUUID();
+        Assert.assertTrue(dao.claimPoll(kbPaymentId, 200, 300));
+        Assert.assertFalse(dao.claimPoll(kbPaymentId, 200, 300));
+
+        // Due again after the initial backoff, then after twice as long, capped by the maximum
+        Thread.sleep(250);
+        Assert.assertTrue(dao.claimPoll(kbPaymentId, 200, 300));
+        Thread.sleep(250);
+        Assert.assertFalse(dao.claimPoll(kbPaymentId, 200, 300));
+        Thread.sleep(100);
+        Assert.assertTrue(dao.claimPoll(kbPaymentId, 200, 300));
+
+        // Claims are kept as long as they are updated
+        Assert.assertEquals(dao.deleteExpiredPollClaims(TimeUnit.HOURS.toMillis(1)), 0);
+        Thread.sleep(1100);
+        Assert.assertEquals(dao.deleteExpiredPollClaims(1000), 1);
+        Assert.assertTrue(dao.claimPoll(kbPaymentId, 200, 300));
+    }
+
+    @Test(groups = "slow")
+    public void testSingleNodeClaimsEachPoll() throws Exception {
+        final UUID kbPaymentId = UUID.randomUUID();
+        final ExecutorService executor = Executors.newFixedThreadPool(NODES);
+        try {
+            for (int poll = 0; poll < 3; poll++) {
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Boolean>> claims = new ArrayList<Future<Boolean>>();
+                for (int i = 0; i < NODES; i++) {
+                    claims.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            start.await();
+                            return dao.claimPoll(kbPaymentId, 100, 100);
+                        }
+                    }));
+                }
+                start.countDown();
+
+                int claimed = 0;
+                for (final Future<Boolean> claim : claims) {
+                    if (claim.get(10, TimeUnit.SECONDS)) {
+                        claimed++;
+                    }
+                }
+                Assert.assertEquals(claimed, 1);
+                Thread.sleep(150);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<UUID> polledPayments() throws Exception {
+        final List<UUID> kbPaymentIds = new ArrayList<UUID>();
+        for (final CieloResponsesRecord response : dao.getLatestResponsesToPoll(PENDING_STATUSES, new DateTime(DateTimeZone.UTC).minusDays(1), 0, 100)) {
+            kbPaymentIds.add(UUID.fromString(response.getKbPaymentId()));
+        }
+        return kbPaymentIds;
+    }
+
+    private UUID addResponse(final String transactionType, final String cieloStatus, final String cieloPaymentId) throws Exception {
+        return addResponse(UUID.randomUUID(), transactionType, cieloStatus, cieloPaymentId);
+    }
+
+    private UUID addResponse(final UUID kbPaymentId, final String transactionType, final String cieloStatus, final String cieloPaymentId) throws Exception {
+        final PreparedStatement statement = keepAlive.prepareStatement("insert into cielo_responses " +
+                                                                       "(kb_account_id, kb_payment_id, kb_payment_transaction_id, transaction_type, cielo_payment_id, cielo_status, created_date, kb_tenant_id) " +
+                                                                       "values (?, ?, ?, ?, ?, ?, current_timestamp(), ?)");
+        try {
+            statement.setString(1, UUID.randomUUID().toString());
+            statement.setString(2, kbPaymentId.toString());
+            statement.setString(3, UUID.randomUUID().toString());
+            statement.setString(4, transactionType);
+            statement.setString(5, cieloPaymentId);
+            statement.setString(6, cieloStatus);
+            statement.setString(7, UUID.randomUUID().toString());
+            statement.executeUpdate();
+        } finally {
+            statement.close();
+        }
+        return kbPaymentId;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.dao;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.killbill.billing.plugin.cielo.client.CieloConfigProperties;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloDeadline;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloOperation;
+import org.killbill.billing.plugin.cielo.client.payment.service.CieloRateLimiter;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Several in-process nodes sharing a merchant quota through an embedded database.
+ */
+public class TestCieloDaoRateLimits {
+
+    private static final int NODES = 3;
+    private static final int THREADS_PER_NODE = 4;
+    private static final double SALES_PER_SECOND = 50;
+    private static final int BURST = 5;
+    private static final long RUN_MILLIS = 3000;
+
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+    private CieloDao dao;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:cielo_rate_limits_" + System.nanoTime() + ";MODE=MySQL");
+        dataSource.setUser("sa");
+        // The in-memory database lives as long as a connection is open
+        keepAlive = dataSource.getConnection();
+        final Statement statement = keepAlive.createStatement();
+        try {
+            statement.execute("create table cielo_rate_limits (" +
+                              "  record_id int not null auto_increment" +
+                              ", merchant_key varchar(255) not null" +
+                              ", operation varchar(32) not null" +
+                              ", next_permit_time bigint not null" +
+                              ", updated_date datetime not null" +
+                              ", primary key(record_id)" +
+                              ")");
+            statement.execute("create unique index cielo_rate_limits_merchant_key_operation on cielo_rate_limits(merchant_key, operation)");
+        } finally {
+            statement.close();
+        }
+        dao = new CieloDao(dataSource);
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception {
+        keepAlive.close();
+    }
+
+    @Test(groups = "slow")
+    public void testLeasesFollowTheDatabaseQuota() throws Exception {
+        final long firstPermitMicros = dao.leasePermits("merchant/SANDBOX", CieloOperation.SALE, 10, 1000, 0, 1);
+        // Nothing taken yet: the first permit is now
+        Assert.assertTrue(Math.abs(firstPermitMicros) < TimeUnit.SECONDS.toMicros(1), String.valueOf(firstPermitMicros));
+
+        // The next lease starts where the first one ends, 10 permits of 1ms later
+        final long secondPermitMicros = dao.leasePermits("merchant/SANDBOX", CieloOperation.SALE, 10, 1000, 0, 1);
+        Assert.assertTrue(secondPermitMicros > 0 && secondPermitMicros <= 10000, String.valueOf(secondPermitMicros));
+
+        // Other quotas are not affected
+        final long queryPermitMicros = dao.leasePermits("merchant/SANDBOX", CieloOperation.QUERY, 10, 1000, 0, 1);
+        Assert.assertTrue(queryPermitMicros <= 0, String.valueOf(queryPermitMicros));
+    }
+
+    @Test(groups = "slow")
+    public void testNodesShareTheRate() throws Exception {
+        final List<CieloRateLimiter> nodes = new ArrayList<CieloRateLimiter>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new CieloRateLimiter(sharedRateLimitConfig(), dao));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+        final long startTime = System.nanoTime();
+        final long endTime = startTime + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+        final List<Future<Integer>> grantedPermits = new ArrayList<Future<Integer>>();
+        try {
+            for (final CieloRateLimiter node : nodes) {
+                for (int i = 0; i < THREADS_PER_NODE; i++) {
+                    grantedPermits.add(executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            int granted = 0;
+                            while (System.nanoTime() < endTime) {
+                                final CieloDeadline deadline = CieloDeadline.after(Math.max(1, TimeUnit.NANOSECONDS.toMillis(endTime - System.nanoTime())));
+                                if (node.tryAcquire(CieloOperation.SALE, deadline) && System.nanoTime() < endTime) {
+                                    granted++;
+                                }
+                            }
+                            return granted;
+                        }
+                    }));
+                }
+            }
+
+            int totalGranted = 0;
+            for (final Future<Integer> granted : grantedPermits) {
+                totalGranted += granted.get(RUN_MILLIS * 5, TimeUnit.MILLISECONDS);
+            }
+
+            final double allowed = SALES_PER_SECOND * TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / 1000 + BURST;
+            Assert.assertTrue(totalGranted <= allowed, totalGranted + " permits granted, " + allowed + " allowed");
+            // The nodes do not starve each other either
+            Assert.assertTrue(totalGranted >= SALES_PER_SECOND * RUN_MILLIS / 1000 * 0.8, totalGranted + " permits granted");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (final CieloRateLimiter node : nodes) {
+            final Map<?, ?> statistics = (Map<?, ?>) node.getStatistics().get("sale");
+            Assert.assertTrue((Long) statistics.get("leases") > 0);
+            Assert.assertEquals(statistics.get("leaseFailures"), 0L);
+        }
+    }
+
+    private static CieloConfigProperties sharedRateLimitConfig() {
+        final Properties properties = new Properties();
+        properties.put("org.killbill.billing.plugin.cielo.merchantId", "merchant");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitSalesPerSecond", String.valueOf(SALES_PER_SECOND));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitBurst", String.valueOf(BURST));
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitMaxWait", "500");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitShared", "true");
+        properties.put("org.killbill.billing.plugin.cielo.rateLimitLeaseDuration", "100");
+        return new CieloConfigProperties(properties);
+    }
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2014-2016 Groupon, Inc
+ * Copyright 2014-2016 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.plugin.cielo.emulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-memory stand-in for the Cielo API 3.0, to run the plugin without network access: point the {@code apiUrl} and
+ * {@code apiQueryUrl} properties at {@link #getUrl()}.
+ * <p>
+ * It serves the endpoints the plugin calls (sale creation, capture, void, queries by payment id and merchant order id,
+ * card tokenization) and authorizes or denies sales following the sandbox rules on the last digit of the card number.
+ * Latency (a fixed part plus an exponentially distributed one) and failures (server errors, dropped connections) can be
+ * injected through the properties, read with the {@code org.killbill.billing.plugin.cielo.emulator.} prefix:
+ * <ul>
+ * <li>{@code port}: 0 picks a free port (default 0)</li>
+ * <li>{@code threads}: requests served at once, latency included (default 200)</li>
+ * <li>{@code latencyMillis}: minimum time to answer (default 0)</li>
+ * <li>{@code latencyJitterMillis}: mean of the extra time to answer (default 0)</li>
+ * <li>{@code serverErrorRate}: share of requests answered with a 500, between 0 and 1 (default 0)</li>
+ * <li>{@code dropRate}: share of requests whose connection is closed without answer (default 0)</li>
+ * </ul>
+ * Test code, not shipped with the plugin. It is embedded by the tests, and can be started on its own from the test
+ * classpath through {@link #main(String[])}.
+ */
+public class CieloEmulator implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CieloEmulator.class);
+
+    private static final String PROPERTY_PREFIX = "org.killbill.billing.plugin.cielo.emulator.";
+
+    // Cielo payment statuses
+    private static final int AUTHORIZED = 1;
+    private static final int PAYMENT_CONFIRMED = 2;
+    private static final int DENIED = 3;
+    private static final int VOIDED = 10;
+    private static final int REFUNDED = 11;
+
+    private static final DateTimeFormatter RECEIVED_DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").withZone(DateTimeZone.forID("America/Sao_Paulo"));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final double latencyJitterMillis;
+    private final double serverErrorRate;
+    private final double dropRate;
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final ConcurrentMap<String, EmulatedSale> salesByPaymentId = new ConcurrentHashMap<String, EmulatedSale>();
+    private final ConcurrentMap<String, List<String>> paymentIdsByMerchantOrderId = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, String> cardNumbersByToken = new ConcurrentHashMap<String, String>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong droppedRequests = new AtomicLong();
+
+    public CieloEmulator(final Properties properties) throws IOException {
+        this.latencyMillis = Long.parseLong(properties.getProperty(PROPERTY_PREFIX + "latencyMillis", "0"));
+        this.latencyJitterMillis = Double.parseDouble(properties.getProperty(PROPERTY_PREFIX + "latencyJitterMillis", "0"));
+        this.serverErrorRate = Double.parseDouble(properties.getProperty(PROPERTY_PREFIX + "serverErrorRate", "0"));
+        this.dropRate = Double.parseDouble(properties.getProperty(PROPERTY_PREFIX + "dropRate", "0"));
+
+        final int port = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "port", "0"));
+        final int threads = Integer.parseInt(properties.getProperty(PROPERTY_PREFIX + "threads", "200"));
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("cielo-emulator-%d")
+                                                                                        .setDaemon(true)
+                                                                                        .build());
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), threads);
+        this.server.setExecutor(executor);
+        this.server.createContext("/1/sales", new EmulatorHandler() {
+            @Override
+            void serve(final HttpExchange exchange) throws IOException {
+                serveSales(exchange);
+            }
+        });
+        this.server.createContext("/1/card", new EmulatorHandler() {
+            @Override
+            void serve(final HttpExchange exchange) throws IOException {
+                serveCard(exchange);
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Cielo emulator listening on {}", getUrl());
+    }
+
+    /**
+     * @return the base URL to use as both the transactional and the query API URL
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getDroppedRequests() {
+        return droppedRequests.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CieloEmulator emulator = new CieloEmulator(System.getProperties());
+        emulator.start();
+        Thread.currentThread().join();
+    }
+
+    //
+    // Endpoints
+    //
+
+    private void serveSales(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+        // "", "1", "sales", [paymentId, [capture|void]]
+        if (path.length == 3 && "POST".equals(method)) {
+            createSale(exchange);
+        } else if (path.length == 3 && "GET".equals(method)) {
+            queryByMerchantOrderId(exchange, queryParameter(exchange.getRequestURI(), "merchantOrderId"));
+        } else if (path.length == 4 && "GET".equals(method)) {
+            querySale(exchange, path[3]);
+        } else if (path.length == 5 && "PUT".equals(method) && "capture".equals(path[4])) {
+            capture(exchange, path[3]);
+        } else if (path.length == 5 && "PUT".equals(method) && "void".equals(path[4])) {
+            voidSale(exchange, path[3]);
+        } else {
+            sendEmpty(exchange, 404);
+        }
+    }
+
+    private void serveCard(final HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        final Map<String, Object> card = readObject(exchange.getRequestBody());
+        final String cardNumber = (String) card.get("CardNumber");
+        if (cardNumber == null) {
+            sendError(exchange, 126, "Credit Card Number is required");
+            return;
+        }
+
+        final String cardToken = UUID.randomUUID().toString();
+        cardNumbersByToken.put(cardToken, cardNumber);
+
+        final JsonGenerator generator = startResponse(exchange, 201);
+        generator.writeStartObject();
+        generator.writeStringField("CardToken", cardToken);
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createSale(final HttpExchange exchange) throws IOException {
+        final Map<String, Object> request = readObject(exchange.getRequestBody());
+        final Object payment = request.get("Payment");
+        if (!(payment instanceof Map)) {
+            sendError(exchange, 104, "Payment is required");
+            return;
+        }
+        final Map<String, Object> paymentRequest = (Map<String, Object>) payment;
+        final Object creditCard = paymentRequest.get("CreditCard");
+        if (!(creditCard instanceof Map)) {
+            sendError(exchange, 126, "Credit Card is required");
+            return;
+        }
+        final Map<String, Object> card = (Map<String, Object>) creditCard;
+        final String cardToken = (String) card.get("CardToken");
+        final String cardNumber = cardToken != null ? cardNumbersByToken.get(cardToken) : (String) card.get("CardNumber");
+        if (cardNumber == null || cardNumber.isEmpty()) {
+            sendError(exchange, cardToken != null ? 127 : 126, cardToken != null ? "Card Token not found" : "Credit Card Number is required");
+            return;
+        }
+
+        final EmulatedSale sale = new EmulatedSale(UUID.randomUUID().toString(),
+                                                   (String) request.get("MerchantOrderId"),
+                                                   toLong(paymentRequest.get("Amount")),
+                                                   (String) card.get("Brand"),
+                                                   maskCardNumber(cardNumber));
+        authorize(sale, cardNumber, Boolean.TRUE.equals(paymentRequest.get("Capture")));
+
+        salesByPaymentId.put(sale.paymentId, sale);
+        if (sale.merchantOrderId != null) {
+            List<String> paymentIds = paymentIdsByMerchantOrderId.get(sale.merchantOrderId);
+            if (paymentIds == null) {
+                final List<String> created = new CopyOnWriteArrayList<String>();
+                paymentIds = paymentIdsByMerchantOrderId.putIfAbsent(sale.merchantOrderId, created);
+                if (paymentIds == null) {
+                    paymentIds = created;
+                }
+            }
+            paymentIds.add(sale.paymentId);
+        }
+
+        writeSale(exchange, 201, sale);
+    }
+
+    private void querySale(final HttpExchange exchange, final String paymentId) throws IOException {
+        final EmulatedSale sale = salesByPaymentId.get(paymentId);
+        if (sale == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+        writeSale(exchange, 200, sale);
+    }
+
+    private void queryByMerchantOrderId(final HttpExchange exchange, final String merchantOrderId) throws IOException {
+        final List<String> paymentIds = merchantOrderId == null ? null : paymentIdsByMerchantOrderId.get(merchantOrderId);
+        if (paymentIds == null || paymentIds.isEmpty()) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        final JsonGenerator generator = startResponse(exchange, 200);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("Payments");
+        for (final String paymentId : paymentIds) {
+            generator.writeStartObject();
+            generator.writeStringField("PaymentId", paymentId);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    private void capture(final HttpExchange exchange, final String paymentId) throws IOException {
+        final EmulatedSale sale = salesByPaymentId.get(paymentId);
+        if (sale == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        final String amount = queryParameter(exchange.getRequestURI(), "amount");
+        synchronized (sale) {
+            if (sale.status != AUTHORIZED) {
+                sendError(exchange, 308, "Transaction not available to capture");
+                return;
+            }
+            sale.status = PAYMENT_CONFIRMED;
+            sale.capturedAmount = amount == null ? sale.amount : Long.parseLong(amount);
+            sale.returnCode = "6";
+            sale.returnMessage = "Operation Successful";
+        }
+        writeSaleUpdate(exchange, sale);
+    }
+
+    private void voidSale(final HttpExchange exchange, final String paymentId) throws IOException {
+        final EmulatedSale sale = salesByPaymentId.get(paymentId);
+        if (sale == null) {
+            sendEmpty(exchange, 404);
+            return;
+        }
+
+        synchronized (sale) {
+            if (sale.status != AUTHORIZED && sale.status != PAYMENT_CONFIRMED) {
+                sendError(exchange, 309, "Transaction not available to void");
+                return;
+            }
+            sale.status = sale.status == AUTHORIZED ? VOIDED : REFUNDED;
+            sale.returnCode = "9";
+            sale.returnMessage = "Operation Successful";
+        }
+        writeSaleUpdate(exchange, sale);
+    }
+
+    //
+    // Sandbox behaviour
+    //
+
+    /**
+     * Outcome picked from the last digit of the card number, as the Cielo sandbox does.
+     */
+    private static void authorize(final EmulatedSale sale, final String cardNumber, final boolean capture) {
+        final char lastDigit = cardNumber.charAt(cardNumber.length() - 1);
+        switch (lastDigit) {
+            case '0':
+            case '1':
+            case '4':
+                approve(sale, capture);
+                break;
+            case '2':
+                deny(sale, "05", "Not Authorized");
+                break;
+            case '3':
+                deny(sale, "57", "Card Expired");
+                break;
+            case '5':
+                deny(sale, "78", "Blocked Card");
+                break;
+            case '6':
+                deny(sale, "99", "Time Out");
+                break;
+            case '7':
+                deny(sale, "77", "Card Canceled");
+                break;
+            case '8':
+                deny(sale, "70", "Problems with Creditcard");
+                break;
+            default:
+                // Random outcome
+                if (ThreadLocalRandom.current().nextBoolean()) {
+                    approve(sale, capture);
+                } else {
+                    deny(sale, "99", "Time Out");
+                }
+                break;
+        }
+    }
+
+    private static void approve(final EmulatedSale sale, final boolean capture) {
+        final Random random = ThreadLocalRandom.current();
+        sale.status = capture ? PAYMENT_CONFIRMED : AUTHORIZED;
+        sale.capturedAmount = capture ? sale.amount : null;
+        sale.returnCode = capture ? "6" : "4";
+        sale.returnMessage = "Operation Successful";
+        sale.authorizationCode = String.format("%06d", random.nextInt(1000000));
+        sale.proofOfSale = String.format("%06d", random.nextInt(1000000));
+        sale.tid = String.format("%020d", (random.nextLong() & Long.MAX_VALUE) % 100000000000000000L);
+    }
+
+    private static void deny(final EmulatedSale sale, final String returnCode, final String returnMessage) {
+        sale.status = DENIED;
+        sale.returnCode = returnCode;
+        sale.returnMessage = returnMessage;
+    }
+
+    private static String maskCardNumber(final String cardNumber) {
+        if (cardNumber.length() <= 10) {
+            return cardNumber;
+        }
+        final StringBuilder masked = new StringBuilder(cardNumber.substring(0, 6));
+        for (int i = 6; i < cardNumber.length() - 4; i++) {
+            masked.append('*');
+        }
+        return masked.append(cardNumber.substring(cardNumber.length() - 4)).toString();
+    }
+
+    //
+    // Responses
+    //
+
+    private void writeSale(final HttpExchange exchange, final int statusCode, final EmulatedSale sale) throws IOException {
+        final JsonGenerator generator = startResponse(exchange, statusCode);
+        synchronized (sale) {
+            generator.writeStartObject();
+            if (sale.merchantOrderId != null) {
+                generator.writeStringField("MerchantOrderId", sale.merchantOrderId);
+            }
+            generator.writeObjectFieldStart("Payment");
+            generator.writeNumberField("Installments", 1);
+            generator.writeObjectFieldStart("CreditCard");
+            generator.writeStringField("CardNumber", sale.maskedCardNumber);
+            if (sale.brand != null) {
+                generator.writeStringField("Brand", sale.brand);
+            }
+            generator.writeEndObject();
+            writeStringIfSet(generator, "ProofOfSale", sale.proofOfSale);
+            writeStringIfSet(generator, "Tid", sale.tid);
+            writeStringIfSet(generator, "AuthorizationCode", sale.authorizationCode);
+            generator.writeStringField("PaymentId", sale.paymentId);
+            generator.writeStringField("ReceivedDate", sale.receivedDate);
+            generator.writeStringField("Type", "CreditCard");
+            generator.writeNumberField("Amount", sale.amount);
+            if (sale.capturedAmount != null) {
+                generator.writeNumberField("CapturedAmount", sale.capturedAmount);
+            }
+            generator.writeStringField("Currency", "BRL");
+            generator.writeStringField("Country", "BRA");
+            generator.writeNumberField("Status", sale.status);
+            generator.writeStringField("ReturnCode", sale.returnCode);
+            generator.writeStringField("ReturnMessage", sale.returnMessage);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        generator.close();
+    }
+
+    private void writeSaleUpdate(final HttpExchange exchange, final EmulatedSale sale) throws IOException {
+        final JsonGenerator generator = startResponse(exchange, 200);
+        synchronized (sale) {
+            generator.writeStartObject();
+            generator.writeNumberField("Status", sale.status);
+            generator.writeStringField("ReturnCode", sale.returnCode);
+            generator.writeStringField("ReturnMessage", sale.returnMessage);
+            generator.writeEndObject();
+        }
+        generator.close();
+    }
+
+    private void sendError(final HttpExchange exchange, final int code, final String message) throws IOException {
+        final JsonGenerator generator = startResponse(exchange, 400);
+        generator.writeStartArray();
+        generator.writeStartObject();
+        generator.writeNumberField("Code", code);
+        generator.writeStringField("Message", message);
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.close();
+    }
+
+    private static void sendEmpty(final HttpExchange exchange, final int statusCode) throws IOException {
+        exchange.sendResponseHeaders(statusCode, -1);
+        exchange.close();
+    }
+
+    private JsonGenerator startResponse(final HttpExchange exchange, final int statusCode) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // Chunked: the body is written while it is generated
+        exchange.sendResponseHeaders(statusCode, 0);
+        final OutputStream body = exchange.getResponseBody();
+        return jsonFactory.createGenerator(body);
+    }
+
+    private static void writeStringIfSet(final JsonGenerator generator, final String field, final String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(field, value);
+        }
+    }
+
+    //
+    // Requests
+    //
+
+    private Map<String, Object> readObject(final InputStream in) throws IOException {
+        final JsonParser parser = jsonFactory.createParser(in);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return Collections.emptyMap();
+            }
+            return readFields(parser);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static Map<String, Object> readFields(final JsonParser parser) throws IOException {
+        final Map<String, Object> object = new LinkedHashMap<String, Object>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            switch (token) {
+                case START_OBJECT:
+                    object.put(field, readFields(parser));
+                    break;
+                case VALUE_STRING:
+                    object.put(field, parser.getText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    object.put(field, parser.getLongValue());
+                    break;
+                case VALUE_TRUE:
+                case VALUE_FALSE:
+                    object.put(field, parser.getBooleanValue());
+                    break;
+                default:
+                    parser.skipChildren();
+                    break;
+            }
+        }
+        return object;
+    }
+
+    private static long toLong(final Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static String queryParameter(final URI uri, final String name) {
+        final String query = uri.getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (final String parameter : query.split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator > 0 && name.equals(parameter.substring(0, separator))) {
+                try {
+                    return URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+                } catch (final UnsupportedEncodingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Authentication, latency and failure injection common to the endpoints.
+     */
+    private abstract class EmulatorHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                delay();
+
+                final Random random = ThreadLocalRandom.current();
+                if (dropRate > 0 && random.nextDouble() < dropRate) {
+                    droppedRequests.incrementAndGet();
+                    // Closed before any response header: the client sees the connection end
+                    exchange.close();
+                    return;
+                }
+                if (serverErrorRate > 0 && random.nextDouble() < serverErrorRate) {
+                    injectedErrors.incrementAndGet();
+                    sendEmpty(exchange, 500);
+                    return;
+                }
+                if (exchange.getRequestHeaders().getFirst("MerchantId") == null || exchange.getRequestHeaders().getFirst("MerchantKey") == null) {
+                    sendEmpty(exchange, 401);
+                    return;
+                }
+
+                serve(exchange);
+            } catch (final RuntimeException e) {
+                logger.warn("Cielo emulator failed to serve {}", exchange.getRequestURI(), e);
+                sendEmpty(exchange, 500);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void serve(HttpExchange exchange) throws IOException;
+
+        private void delay() {
+            long delayMillis = latencyMillis;
+            if (latencyJitterMillis > 0) {
+                delayMillis += (long) (-latencyJitterMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+            }
+            if (delayMillis <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class EmulatedSale {
+
+        private final String paymentId;
+        private final String merchantOrderId;
+        private final long amount;
+        private final String brand;
+        private final String maskedCardNumber;
+        private final String receivedDate = RECEIVED_DATE_FORMAT.print(System.currentTimeMillis());
+
+        private int status;
+        private Long capturedAmount;
+        private String returnCode;
+        private String returnMessage;
+        private String authorizationCode;
+        private String proofOfSale;
+        private String tid;
+
+        private EmulatedSale(final String paymentId, final String merchantOrderId, final long amount, final String brand, final String maskedCardNumber) {
+            this.paymentId = paymentId;
+            this.merchantOrderId = merchantOrderId;
+            this.amount = amount;
+            this.brand = brand;
+            this.maskedCardNumber = maskedCardNumber;
+        }
+    }
+}